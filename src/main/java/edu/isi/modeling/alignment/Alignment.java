@@ -769,10 +769,9 @@ public class Alignment implements OntologyUpdateListener {
 		
 		Set<LabeledLink> candidateLinks = new HashSet<LabeledLink>();
 		List<LabeledLink> incomingLinks, outgoingLinks;
-		incomingLinks = AlignmentGraph.getInstance(ontologyManager).
-				getGraphBuilder().getIncomingLinks(nodeId);
-		outgoingLinks = AlignmentGraph.getInstance(ontologyManager).
-				getGraphBuilder().getOutgoingLinks(nodeId);
+		GraphBuilder alignmentGraphBuilder = AlignmentGraph.getInstance(ontologyManager).getGraphBuilder();
+		incomingLinks = alignmentGraphBuilder.getIncomingLinks(nodeId);
+		outgoingLinks = alignmentGraphBuilder.getOutgoingLinks(nodeId);
 		if (incomingLinks != null) candidateLinks.addAll(incomingLinks);
 		if (outgoingLinks != null) candidateLinks.addAll(outgoingLinks);
 		
@@ -837,10 +836,9 @@ public class Alignment implements OntologyUpdateListener {
 		
 		Set<LabeledLink> candidateLinks = new HashSet<LabeledLink>();
 		List<LabeledLink> incomingLinks, outgoingLinks;
-		incomingLinks = AlignmentGraph.getInstance(ontologyManager).
-				getGraphBuilder().getLinks(target.getId(), source.getId());
-		outgoingLinks = AlignmentGraph.getInstance(ontologyManager).
-				getGraphBuilder().getLinks(source.getId(), target.getId());
+		GraphBuilder alignmentGraphBuilder = AlignmentGraph.getInstance(ontologyManager).getGraphBuilder();
+		incomingLinks = alignmentGraphBuilder.getLinks(target.getId(), source.getId());
+		outgoingLinks = alignmentGraphBuilder.getLinks(source.getId(), target.getId());
 		if (incomingLinks != null) candidateLinks.addAll(incomingLinks);
 		if (outgoingLinks != null) candidateLinks.addAll(outgoingLinks);
 
@@ -0,0 +1,77 @@
+package edu.isi.modeling.alignment;
+
+/**
+ * Immutable key made of two or three ids or uris, used by the indexes of the graph builder instead of
+ * the concatenation of the strings. A lookup only creates this small object and not a new string, and
+ * two different tuples never give the same key (e.g., "ab" + "c" and "a" + "bc").
+ */
+public final class CompositeKey {
+
+	private final String first;
+	private final String second;
+	private final String third;
+	private final int hash;
+
+	private CompositeKey(String first, String second, String third) {
+		this.first = first;
+		this.second = second;
+		this.third = third;
+		int h = hashCode(first);
+		h = 31 * h + hashCode(second);
+		h = 31 * h + hashCode(third);
+		this.hash = h;
+	}
+
+	public static CompositeKey of(String first, String second) {
+		return new CompositeKey(first, second, null);
+	}
+
+	public static CompositeKey of(String first, String second, String third) {
+		return new CompositeKey(first, second, third);
+	}
+
+	public String getFirst() {
+		return first;
+	}
+
+	public String getSecond() {
+		return second;
+	}
+
+	public String getThird() {
+		return third;
+	}
+
+	private static int hashCode(String s) {
+		return s == null ? 0 : s.hashCode();
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CompositeKey))
+			return false;
+		CompositeKey other = (CompositeKey)obj;
+		return this.hash == other.hash &&
+				equals(this.first, other.first) &&
+				equals(this.second, other.second) &&
+				equals(this.third, other.third);
+	}
+
+	@Override
+	public String toString() {
+		if (third == null)
+			return "(" + first + ", " + second + ")";
+		return "(" + first + ", " + second + ", " + third + ")";
+	}
+}
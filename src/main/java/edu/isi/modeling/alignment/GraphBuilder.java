@@ -26,7 +26,17 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.jgrapht.graph.DirectedWeightedMultigraph;
 import org.slf4j.Logger;
@@ -66,34 +76,38 @@ public class GraphBuilder {
 	
 	private NodeIdFactory nodeIdFactory;
 	
-	private HashSet<String> visitedSourceTargetPairs; 
+	private Set<CompositeKey> visitedSourceTargetPairs; // (sourceId, targetId) 
+	private Set<String> nodeIdsToUpdateLinks; // ids of the internal nodes whose links to the other internal nodes are not inferred yet
+	private ConcurrentHashMap<String, Map<String, Integer>> ontologyLinkKinds; // sourceUri --> targetUri --> kinds of the links inferred from the ontology
 
 	// HashMaps
 	
-	private HashMap<String, Node> idToNodeMap;
-	private HashMap<String, LabeledLink> idToLinkMap;
+	private Map<String, Node> idToNodeMap;
+	private Map<String, LabeledLink> idToLinkMap;
 
-	private HashMap<String, Set<Node>> uriToNodesMap;
-	private HashMap<String, Set<LabeledLink>> uriToLinksMap;
+	private Map<String, Set<Node>> uriToNodesMap;
+	private Map<String, Set<LabeledLink>> uriToLinksMap;
 	
-	private HashMap<NodeType, Set<Node>> typeToNodesMap;
-	private HashMap<LinkType, Set<LabeledLink>> typeToLinksMap;
+	private Map<NodeType, Set<Node>> typeToNodesMap;
+	private Map<LinkType, Set<LabeledLink>> typeToLinksMap;
 
-	private HashMap<LinkStatus, Set<LabeledLink>> statusToLinksMap;
+	private Map<LinkStatus, Set<LabeledLink>> statusToLinksMap;
 	
-	private HashMap<String, Set<String>> uriClosure;
+	private Map<String, Set<String>> uriClosure;
 
 	private Set<Node> forcedNodes;
 	
 	// To be used in matching semantic types with graph nodes
-	private HashSet<String> modelIds;
-	private HashMap<String, Integer> linkCountMap;
-	private HashMap<String, Integer> nodeDataPropertyCount; // nodeId + dataPropertyUri --> count
-	private HashMap<String, Set<Node>> nodeDataProperties; // nodeId + dataPropertyUri --> ColumnNode
-	private HashMap<String, Set<LabeledLink>> nodeIncomingLinks;
-	private HashMap<String, Set<LabeledLink>> nodeOutgoingLinks;
-	private HashMap<String, Set<SemanticTypeMapping>> semanticTypeMatches; // nodeUri + dataPropertyUri --> SemanticType Mapping
-	private HashMap<String, List<LabeledLink>> patternLinks;
+	private Set<String> modelIds;
+	private Map<String, Set<String>> modelLinkIds; // modelId --> ids of the links supported by the model
+	private Map<String, Integer> linkCountMap;
+	private Map<CompositeKey, Integer> nodeDataPropertyCount; // (nodeId, dataPropertyUri) --> count
+	private Map<CompositeKey, Set<Node>> nodeDataProperties; // (nodeId, dataPropertyUri) --> ColumnNode
+	private Map<String, Set<LabeledLink>> nodeIncomingLinks;
+	private Map<String, Set<LabeledLink>> nodeOutgoingLinks;
+	private Map<CompositeKey, Set<LabeledLink>> uriTripleLinks; // (sourceUri, linkUri, targetUri) --> links between internal nodes
+	private Map<CompositeKey, Set<SemanticTypeMapping>> semanticTypeMatches; // (nodeUri, dataPropertyUri) --> SemanticType Mapping
+	private Map<CompositeKey, List<LabeledLink>> patternLinks; // (sourceUri, linkUri, targetUri) --> links of the patterns
 	private int numberOfModelLinks = 0;
 
 	// Constructor
@@ -115,18 +129,22 @@ public class GraphBuilder {
 
 		this.graph = new DirectedWeightedMultigraph<Node, DefaultLink>(DefaultLink.class);
 		
-		this.visitedSourceTargetPairs = new HashSet<String>();
+		this.visitedSourceTargetPairs = new HashSet<CompositeKey>();
+		this.nodeIdsToUpdateLinks = new HashSet<String>();
+		this.ontologyLinkKinds = new ConcurrentHashMap<String, Map<String, Integer>>();
 			
 		this.modelIds = new HashSet<String>();
+		this.modelLinkIds = new HashMap<String, Set<String>>();
 		this.linkCountMap = new HashMap<String, Integer>();
-		this.nodeDataPropertyCount = new HashMap<String, Integer>();
-		this.semanticTypeMatches = new HashMap<String, Set<SemanticTypeMapping>>();
-		this.patternLinks = new HashMap<String, List<LabeledLink>>();
+		this.nodeDataPropertyCount = new HashMap<CompositeKey, Integer>();
+		this.semanticTypeMatches = new HashMap<CompositeKey, Set<SemanticTypeMapping>>();
+		this.patternLinks = new HashMap<CompositeKey, List<LabeledLink>>();
 
-		this.nodeDataProperties= new HashMap<String,Set<Node>>(); 
+		this.nodeDataProperties= new HashMap<CompositeKey,Set<Node>>(); 
 		
 		this.nodeIncomingLinks = new HashMap<String, Set<LabeledLink>>();
 		this.nodeOutgoingLinks = new HashMap<String, Set<LabeledLink>>();
+		this.uriTripleLinks = new HashMap<CompositeKey, Set<LabeledLink>>();
 		
 		this.forcedNodes = new HashSet<Node>();
 		if (addThingNode) 
@@ -141,12 +159,7 @@ public class GraphBuilder {
 			return;
 		
 		for (Node node : graph.vertexSet()) {
-			
-			this.addNode(node);
-			// building NodeIdFactory
-			if (node.getLabel() != null) {
-				nodeIdFactory.getNodeId(node.getUri());
-			}						
+			this.addNode(node); // also updates the NodeIdFactory
 		}
 		
 		Node source;
@@ -167,6 +180,51 @@ public class GraphBuilder {
 		logger.debug("graph has been loaded.");
 	}
 	
+	/**
+	 * creates an overlay of a graph builder. The overlay reads through to the nodes, the links and 
+	 * the maps of the base and only stores what is added, changed or removed after its creation, 
+	 * so it is created in constant time whatever the size of the base graph. 
+	 * The base is never modified through the overlay, and it must not be modified while the overlay is in use.
+	 * @param base
+	 */
+	public GraphBuilder(GraphBuilder base) {
+		
+		this.ontologyManager = base.ontologyManager;
+		this.nodeIdFactory = new NodeIdFactory(base.nodeIdFactory);
+
+		this.idToNodeMap = new OverlayMap<String, Node>(base.idToNodeMap);
+		this.idToLinkMap = new OverlayMap<String, LabeledLink>(base.idToLinkMap);
+		this.uriToNodesMap = new OverlayMap<String, Set<Node>>(base.uriToNodesMap);
+		this.uriToLinksMap = new OverlayMap<String, Set<LabeledLink>>(base.uriToLinksMap);
+		this.typeToNodesMap = new OverlayMap<NodeType, Set<Node>>(base.typeToNodesMap);
+		this.typeToLinksMap = new OverlayMap<LinkType, Set<LabeledLink>>(base.typeToLinksMap);
+		this.statusToLinksMap = new OverlayMap<LinkStatus, Set<LabeledLink>>(base.statusToLinksMap);
+		
+		this.uriClosure = new OverlayMap<String, Set<String>>(base.uriClosure);
+
+		this.graph = new OverlayGraph(base.graph);
+		
+		this.visitedSourceTargetPairs = new OverlaySet<CompositeKey>(base.visitedSourceTargetPairs);
+		this.nodeIdsToUpdateLinks = new OverlaySet<String>(base.nodeIdsToUpdateLinks);
+		this.ontologyLinkKinds = base.ontologyLinkKinds; // only depends on the ontology
+			
+		this.modelIds = new OverlaySet<String>(base.modelIds);
+		this.modelLinkIds = new OverlayMap<String, Set<String>>(base.modelLinkIds);
+		this.linkCountMap = new OverlayMap<String, Integer>(base.linkCountMap);
+		this.nodeDataPropertyCount = new OverlayMap<CompositeKey, Integer>(base.nodeDataPropertyCount);
+		this.semanticTypeMatches = new OverlayMap<CompositeKey, Set<SemanticTypeMapping>>(base.semanticTypeMatches);
+		this.patternLinks = new OverlayMap<CompositeKey, List<LabeledLink>>(base.patternLinks);
+		this.numberOfModelLinks = base.numberOfModelLinks;
+
+		this.nodeDataProperties = new OverlayMap<CompositeKey, Set<Node>>(base.nodeDataProperties);
+		
+		this.nodeIncomingLinks = new OverlayMap<String, Set<LabeledLink>>(base.nodeIncomingLinks);
+		this.nodeOutgoingLinks = new OverlayMap<String, Set<LabeledLink>>(base.nodeOutgoingLinks);
+		this.uriTripleLinks = new OverlayMap<CompositeKey, Set<LabeledLink>>(base.uriTripleLinks);
+		
+		this.forcedNodes = new OverlaySet<Node>(base.forcedNodes);
+	}
+	
 	public NodeIdFactory getNodeIdFactory() {
 		return nodeIdFactory;
 	}
@@ -183,31 +241,31 @@ public class GraphBuilder {
 		this.graph = graph;
 	}
 	
-	public HashMap<String, Node> getIdToNodeMap() {
+	public Map<String, Node> getIdToNodeMap() {
 		return idToNodeMap;
 	}
 
-	public HashMap<String, LabeledLink> getIdToLinkMap() {
+	public Map<String, LabeledLink> getIdToLinkMap() {
 		return idToLinkMap;
 	}
 
-	public HashMap<String, Set<Node>> getUriToNodesMap() {
+	public Map<String, Set<Node>> getUriToNodesMap() {
 		return uriToNodesMap;
 	}
 
-	public HashMap<String, Set<LabeledLink>> getUriToLinksMap() {
+	public Map<String, Set<LabeledLink>> getUriToLinksMap() {
 		return uriToLinksMap;
 	}
 
-	public HashMap<NodeType, Set<Node>> getTypeToNodesMap() {
+	public Map<NodeType, Set<Node>> getTypeToNodesMap() {
 		return typeToNodesMap;
 	}
 
-	public HashMap<LinkType, Set<LabeledLink>> getTypeToLinksMap() {
+	public Map<LinkType, Set<LabeledLink>> getTypeToLinksMap() {
 		return typeToLinksMap;
 	}
 
-	public HashMap<LinkStatus, Set<LabeledLink>> getStatusToLinksMap() {
+	public Map<LinkStatus, Set<LabeledLink>> getStatusToLinksMap() {
 		return statusToLinksMap;
 	}
 	
@@ -215,15 +273,15 @@ public class GraphBuilder {
 		return Collections.unmodifiableSet(modelIds);
 	}
 
-	public HashMap<String, Integer> getLinkCountMap() {
+	public Map<String, Integer> getLinkCountMap() {
 		return linkCountMap;
 	}
 	
-	public HashMap<String, Integer> getNodeDataPropertyCount() {
+	public Map<CompositeKey, Integer> getNodeDataPropertyCount() {
 		return nodeDataPropertyCount;
 	}
 
-	public HashMap<String, Set<SemanticTypeMapping>> getSemanticTypeMatches() {
+	public Map<CompositeKey, Set<SemanticTypeMapping>> getSemanticTypeMatches() {
 		return semanticTypeMatches;
 	}
 
@@ -231,27 +289,84 @@ public class GraphBuilder {
 		return numberOfModelLinks;
 	}
 
-	public HashMap<String, Set<Node>> getNodeDataProperties() {
+	public Map<CompositeKey, Set<Node>> getNodeDataProperties() {
 		return nodeDataProperties;
 	}
 
-	public final HashMap<String, Set<LabeledLink>> getIncomingLinksMap() {
+	public final Map<String, Set<LabeledLink>> getIncomingLinksMap() {
 		return nodeIncomingLinks;
 	}
 	
-	public final HashMap<String, Set<LabeledLink>> getOutgoingLinksMap() {
+	public final Map<String, Set<LabeledLink>> getOutgoingLinksMap() {
 		return nodeOutgoingLinks;
 	}
 	
-	public HashMap<String, List<LabeledLink>> getPatternLinks() {
+	public Map<CompositeKey, List<LabeledLink>> getPatternLinks() {
 		return patternLinks;
 	}
+	
+	/**
+	 * @return the links between internal nodes that have the same uri as the given link 
+	 * and whose ends have the same uris as its ends
+	 */
+	public Set<LabeledLink> getLinksWithSameUris(LabeledLink link) {
+		return getLinksWithSameUris(getUriTriple(link));
+	}
+	
+	/**
+	 * @param uriTriple (sourceUri, linkUri, targetUri)
+	 * @return the links between internal nodes that have these uris
+	 */
+	public Set<LabeledLink> getLinksWithSameUris(CompositeKey uriTriple) {
+		Set<LabeledLink> links = this.uriTripleLinks.get(uriTriple);
+		if (links == null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(links);
+	}
+	
+	public static CompositeKey getUriTriple(DefaultLink link) {
+		return CompositeKey.of(link.getSource().getUri(), link.getUri(), link.getTarget().getUri());
+	}
 
 	public void resetOntologyMaps() {
 		String[] currentUris = this.uriClosure.keySet().toArray(new String[0]);
 		this.uriClosure.clear();
 		for (String uri : currentUris)
 			computeUriClosure(uri);
+		// the links inferred before may have changed with the ontology
+		this.ontologyLinkKinds = new ConcurrentHashMap<String, Map<String, Integer>>();
+		Set<Node> internalNodes = this.typeToNodesMap.get(NodeType.InternalNode);
+		if (internalNodes != null)
+			for (Node n : internalNodes)
+				this.nodeIdsToUpdateLinks.add(n.getId());
+	}
+	
+	/**
+	 * takes over the state of the link inference of another graph builder that has the same nodes 
+	 * and links, e.g., the graph builder whose graph this one is created from, so the next update 
+	 * only infers the links of the nodes added after it instead of the links of all the nodes.
+	 * @param other
+	 */
+	public void copyLinkInferenceState(GraphBuilder other) {
+		if (other == null || other.ontologyManager != this.ontologyManager)
+			return;
+		this.visitedSourceTargetPairs = new HashSet<CompositeKey>(other.visitedSourceTargetPairs);
+		this.nodeIdsToUpdateLinks = new HashSet<String>(other.nodeIdsToUpdateLinks);
+		this.ontologyLinkKinds = other.ontologyLinkKinds;
+	}
+
+	/**
+	 * takes over the links of the patterns saved by another graph builder that has the same nodes 
+	 * and links (see savePatternLink), because they cannot be derived from the graph. The lists are 
+	 * copied, so saving new pattern links does not change the ones of the other graph builder.
+	 * @param other
+	 */
+	public void copyPatternLinks(GraphBuilder other) {
+		if (other == null)
+			return;
+		this.patternLinks = new HashMap<CompositeKey, List<LabeledLink>>();
+		for (Map.Entry<CompositeKey, List<LabeledLink>> entry : other.patternLinks.entrySet())
+			this.patternLinks.put(entry.getKey(), new LinkedList<LabeledLink>(entry.getValue()));
 	}
 
 	public boolean addNodeAndUpdate(Node node) {
@@ -389,16 +504,21 @@ public class GraphBuilder {
 		
 		this.graph.addVertex(node);
 		
+		if (node instanceof InternalNode) {
+			this.nodeIdFactory.addNodeId(node.getId(), node.getUri());
+			this.nodeIdsToUpdateLinks.add(node.getId());
+		}
+		
 		this.idToNodeMap.put(node.getId(), node);
 //		logger.info("Added in idToNodeMap:" + node.getId());
-		Set<Node> nodesWithSameUri = uriToNodesMap.get(node.getUri());
+		Set<Node> nodesWithSameUri = getForUpdate(this.uriToNodesMap, node.getUri());
 		if (nodesWithSameUri == null) {
 			nodesWithSameUri = new HashSet<Node>();
 			uriToNodesMap.put(node.getUri(), nodesWithSameUri);
 		}
 		nodesWithSameUri.add(node);
 		
-		Set<Node> nodesWithSameType = typeToNodesMap.get(node.getType());
+		Set<Node> nodesWithSameType = getForUpdate(this.typeToNodesMap, node.getType());
 		if (nodesWithSameType == null) {
 			nodesWithSameType = new HashSet<Node>();
 			typeToNodesMap.put(node.getType(), nodesWithSameType);
@@ -464,7 +584,7 @@ public class GraphBuilder {
 	}
 
 	protected boolean sourceIsConnectedToTarget(Node source, Node target) {
-		return this.visitedSourceTargetPairs.contains(source.getId() + target.getId());
+		return this.visitedSourceTargetPairs.contains(CompositeKey.of(source.getId(), target.getId()));
 	}
 	
 	public boolean addLink(Node source, Node target, DefaultLink link, Double weight) {
@@ -512,7 +632,7 @@ public class GraphBuilder {
 			
 		this.graph.addEdge(source, target, link);
 		
-		this.visitedSourceTargetPairs.add(source.getId() + target.getId());
+		this.visitedSourceTargetPairs.add(CompositeKey.of(source.getId(), target.getId()));
 		
 		double w = computeWeight(link);
 		
@@ -530,14 +650,14 @@ public class GraphBuilder {
 		
 		this.idToLinkMap.put(labeledLink.getId(), labeledLink);
 		
-		Set<LabeledLink> linksWithSameUri = uriToLinksMap.get(labeledLink.getUri());
+		Set<LabeledLink> linksWithSameUri = getForUpdate(this.uriToLinksMap, labeledLink.getUri());
 		if (linksWithSameUri == null) {
 			linksWithSameUri = new HashSet<LabeledLink>();
 			uriToLinksMap.put(labeledLink.getUri(), linksWithSameUri);
 		}
 		linksWithSameUri.add(labeledLink);
 				
-		Set<LabeledLink> linksWithSameType = typeToLinksMap.get(labeledLink.getType());
+		Set<LabeledLink> linksWithSameType = getForUpdate(this.typeToLinksMap, labeledLink.getType());
 		if (linksWithSameType == null) {
 			linksWithSameType = new HashSet<LabeledLink>();
 			typeToLinksMap.put(labeledLink.getType(), linksWithSameType);
@@ -552,33 +672,43 @@ public class GraphBuilder {
 			}
 		}
 
-		Set<LabeledLink> inLinks = nodeIncomingLinks.get(target.getId());
+		Set<LabeledLink> inLinks = getForUpdate(this.nodeIncomingLinks, target.getId());
 		if(inLinks == null) inLinks = new HashSet<>();
 		inLinks.add(labeledLink);
 		nodeIncomingLinks.put(target.getId(), inLinks);
 		
-		Set<LabeledLink> outLinks = nodeOutgoingLinks.get(source.getId());
+		Set<LabeledLink> outLinks = getForUpdate(this.nodeOutgoingLinks, source.getId());
 		if(outLinks == null) outLinks = new HashSet<>();
 		outLinks.add(labeledLink);
 		nodeOutgoingLinks.put(source.getId(), outLinks);
 		
+		if (source instanceof InternalNode && target instanceof InternalNode) {
+			CompositeKey key = getUriTriple(labeledLink);
+			Set<LabeledLink> linksWithSameUris = getForUpdate(this.uriTripleLinks, key);
+			if (linksWithSameUris == null) {
+				linksWithSameUris = new HashSet<LabeledLink>();
+				this.uriTripleLinks.put(key, linksWithSameUris);
+			}
+			linksWithSameUris.add(labeledLink);
+		}
+		
 		
 		if (source instanceof InternalNode && target instanceof ColumnNode) {
 
-			String key = source.getId() + link.getUri();
+			CompositeKey key = CompositeKey.of(source.getId(), link.getUri());
 			Integer count = this.nodeDataPropertyCount.get(key);
 			if (count == null) this.nodeDataPropertyCount.put(key, 1);
 			else this.nodeDataPropertyCount.put(key, count.intValue() + 1);
 			
-			Set<Node> dataPropertyColumnNodes = this.nodeDataProperties.get(key);
+			Set<Node> dataPropertyColumnNodes = getForUpdate(this.nodeDataProperties, key);
 			if (dataPropertyColumnNodes == null) {
 				dataPropertyColumnNodes = new HashSet<Node>();
 				this.nodeDataProperties.put(key, dataPropertyColumnNodes);
 			}
 			dataPropertyColumnNodes.add(target);
 			
-			key = source.getUri() + link.getUri();
-			Set<SemanticTypeMapping> SemanticTypeMappings = this.semanticTypeMatches.get(key);
+			key = CompositeKey.of(source.getUri(), link.getUri());
+			Set<SemanticTypeMapping> SemanticTypeMappings = getForUpdate(this.semanticTypeMatches, key);
 			if (SemanticTypeMappings == null) {
 				SemanticTypeMappings = new HashSet<SemanticTypeMapping>();
 				this.semanticTypeMatches.put(key, SemanticTypeMappings);
@@ -588,18 +718,92 @@ public class GraphBuilder {
 				
 		if (labeledLink.getModelIds() != null) {
 			this.modelIds.addAll(labeledLink.getModelIds());
+			for (String modelId : labeledLink.getModelIds())
+				this.indexModelLink(modelId, labeledLink.getId());
 			this.numberOfModelLinks++;
 		}
 		
-		this.updateLinkCountMap(link);
+		this.updateLinkCountMap(link, 1);
 		
 		logger.debug("exit>");		
 		return true;
 	}
 	
+	private void indexModelLink(String modelId, String linkId) {
+		Set<String> linkIds = getForUpdate(this.modelLinkIds, modelId);
+		if (linkIds == null) {
+			linkIds = new HashSet<String>();
+			this.modelLinkIds.put(modelId, linkIds);
+		}
+		linkIds.add(linkId);
+	}
+	
+	/**
+	 * @return ids of the links supported by the model
+	 */
+	public Set<String> getModelLinkIds(String modelId) {
+		Set<String> linkIds = this.modelLinkIds.get(modelId);
+		if (linkIds == null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(linkIds);
+	}
+	
+	/**
+	 * adds a model to the models supporting a link of the graph. 
+	 * The link must be modifiable (see getModifiableLink).
+	 */
+	public void addModelId(LabeledLink link, String modelId) {
+		Set<String> linkModelIds = link.getModelIds();
+		linkModelIds.add(modelId);
+		link.setModelIds(linkModelIds);
+		this.modelIds.add(modelId);
+		this.indexModelLink(modelId, link.getId());
+	}
+	
+	/**
+	 * removes a model from the models supporting a link of the graph. 
+	 * The link must be modifiable (see getModifiableLink).
+	 */
+	public void removeModelId(LabeledLink link, String modelId) {
+		link.getModelIds().remove(modelId);
+		Set<String> linkIds = getForUpdate(this.modelLinkIds, modelId);
+		if (linkIds != null) {
+			linkIds.remove(link.getId());
+			if (linkIds.isEmpty())
+				this.modelLinkIds.remove(modelId);
+		}
+	}
+	
+	/**
+	 * adds a model to the models supporting a node of the graph. 
+	 * The node must be modifiable (see getModifiableNode).
+	 */
+	public void addModelId(Node node, String modelId) {
+		Set<String> nodeModelIds = node.getModelIds();
+		nodeModelIds.add(modelId);
+		node.setModelIds(nodeModelIds);
+		this.modelIds.add(modelId);
+	}
+	
+	/**
+	 * removes a model from the models supporting a node of the graph. 
+	 * The node must be modifiable (see getModifiableNode).
+	 */
+	public void removeModelId(Node node, String modelId) {
+		node.getModelIds().remove(modelId);
+	}
+	
+	/**
+	 * forgets a model once it does not support any link or node of the graph anymore
+	 */
+	public void removeModelId(String modelId) {
+		this.modelIds.remove(modelId);
+		this.modelLinkIds.remove(modelId);
+	}
+	
 	public void savePatternLink(LabeledLink l) {
-		String key = l.getSource().getUri() + l.getUri() + l.getTarget().getUri();
-		List<LabeledLink> links = this.patternLinks.get(key);
+		CompositeKey key = getUriTriple(l);
+		List<LabeledLink> links = getForUpdate(this.patternLinks, key);
 		if (links == null) {
 			links = new LinkedList<LabeledLink>();
 			this.patternLinks.put(key, links);
@@ -664,17 +868,18 @@ public class GraphBuilder {
 		if (newStatus == oldStatus)
 			return;
 		
+		graphLink = (LabeledLink)getModifiableLink(graphLink);
 		graphLink.setStatus(newStatus);
 		link.setStatus(newStatus);
 		this.changeLinkWeight(graphLink, computeWeight(graphLink));
 		
-		Set<LabeledLink> linksWithOldStatus = this.statusToLinksMap.get(oldStatus);
+		Set<LabeledLink> linksWithOldStatus = getForUpdate(this.statusToLinksMap, oldStatus);
 		if (linksWithOldStatus != null) linksWithOldStatus.remove(graphLink);
 
 		if (newStatus == LinkStatus.Normal) // we don't need to index normal links 
 			return;
 		
-		Set<LabeledLink> linksWithNewStatus = this.statusToLinksMap.get(newStatus);
+		Set<LabeledLink> linksWithNewStatus = getForUpdate(this.statusToLinksMap, newStatus);
 		if (linksWithNewStatus == null) {
 			linksWithNewStatus = new HashSet<LabeledLink>();
 			statusToLinksMap.put(newStatus, linksWithNewStatus);
@@ -683,7 +888,150 @@ public class GraphBuilder {
 	}
 	
 	public void changeLinkWeight(DefaultLink link, double weight) {
-		this.graph.setEdgeWeight(link, weight);
+		this.graph.setEdgeWeight(getModifiableLink(link), weight);
+	}
+	
+	/**
+	 * @return true if the graph builder is an overlay and the link belongs to its base, 
+	 * so the link object is shared with the base and must not be modified
+	 */
+	protected boolean isShared(DefaultLink link) {
+		return this.graph instanceof OverlayGraph && ((OverlayGraph)this.graph).isShared(link);
+	}
+	
+	/**
+	 * @return true if the graph builder is an overlay and the node belongs to its base, 
+	 * so the node object is shared with the base and must not be modified
+	 */
+	protected boolean isShared(Node node) {
+		return this.graph instanceof OverlayGraph && ((OverlayGraph)this.graph).isShared(node);
+	}
+	
+	/**
+	 * returns the link itself, or if the link is shared with the base of an overlay, 
+	 * replaces it in the graph and in the maps by a copy with the same id and returns the copy
+	 */
+	public DefaultLink getModifiableLink(DefaultLink link) {
+		
+		if (!isShared(link))
+			return link;
+		
+		return replaceLink(link, link.getSource(), link.getTarget());
+	}
+	
+	/**
+	 * returns the node of the graph with the same id as the given node. If that node is shared with 
+	 * the base of an overlay, it is replaced in the graph and in the maps by a copy, and so are its links 
+	 * because their ends are fields of the links. The model ids of the copy can then be changed 
+	 * without changing the base.
+	 * @return the node of the graph that can be modified, null if the graph does not have the node 
+	 */
+	public Node getModifiableNode(Node node) {
+		
+		if (node == null)
+			return null;
+		
+		Node current = this.idToNodeMap.get(node.getId());
+		if (current == null || !isShared(current))
+			return current;
+		
+		Node copy = current.clone();
+		List<DefaultLink> links = new ArrayList<DefaultLink>(this.graph.edgesOf(current));
+		
+		this.graph.removeVertex(current); // also removes the links
+		this.graph.addVertex(copy);
+		
+		this.idToNodeMap.put(copy.getId(), copy);
+		replace(getForUpdate(this.uriToNodesMap, copy.getUri()), copy);
+		replace(getForUpdate(this.typeToNodesMap, copy.getType()), copy);
+		replace(this.forcedNodes, copy);
+		
+		for (DefaultLink link : links) {
+			Node source = link.getSource().equals(copy) ? copy : link.getSource();
+			Node target = link.getTarget().equals(copy) ? copy : link.getTarget();
+			replaceLink(link, source, target);
+			if (target == copy && source instanceof InternalNode && copy instanceof ColumnNode)
+				replace(getForUpdate(this.nodeDataProperties, CompositeKey.of(source.getId(), link.getUri())), copy);
+		}
+		
+		return copy;
+	}
+	
+	/**
+	 * replaces a link in the graph and in the maps by a copy with the same id and the same weight 
+	 * that goes from source to target
+	 * @return the copy
+	 */
+	protected DefaultLink replaceLink(DefaultLink link, Node source, Node target) {
+		
+		double weight = link.getWeight();
+		DefaultLink copy = link.getCopy(link.getId());
+		
+		this.graph.removeEdge(link);
+		this.graph.addEdge(source, target, copy);
+		this.graph.setEdgeWeight(copy, weight);
+		
+		if (link instanceof LabeledLink) {
+			LabeledLink labeledCopy = (LabeledLink)copy;
+			this.idToLinkMap.put(copy.getId(), labeledCopy);
+			replace(getForUpdate(this.uriToLinksMap, copy.getUri()), labeledCopy);
+			replace(getForUpdate(this.typeToLinksMap, copy.getType()), labeledCopy);
+			replace(getForUpdate(this.statusToLinksMap, labeledCopy.getStatus()), labeledCopy);
+			replace(getForUpdate(this.nodeOutgoingLinks, source.getId()), labeledCopy);
+			replace(getForUpdate(this.nodeIncomingLinks, target.getId()), labeledCopy);
+			if (source instanceof InternalNode && target instanceof InternalNode)
+				replace(getForUpdate(this.uriTripleLinks, getUriTriple(labeledCopy)), labeledCopy);
+			if (source instanceof InternalNode && target instanceof ColumnNode)
+				replace(getForUpdate(this.semanticTypeMatches, CompositeKey.of(source.getUri(), copy.getUri())), 
+						new SemanticTypeMapping(null, null, (InternalNode)source, labeledCopy, (ColumnNode)target));
+		}
+		return copy;
+	}
+	
+	// the nodes and the links are equal if they have the same id, the semantic type mappings if they have the same source and link
+	private <T> void replace(Set<T> elements, T element) {
+		if (elements != null && elements.remove(element))
+			elements.add(element);
+	}
+	
+	/**
+	 * marks the overlay maps as read-only, so the graph builder can be shared by concurrent readers 
+	 * (the reads never modify it). The graph builder must not be modified after it is frozen.
+	 */
+	public void freeze() {
+		freeze(this.idToNodeMap);
+		freeze(this.idToLinkMap);
+		freeze(this.uriToNodesMap);
+		freeze(this.uriToLinksMap);
+		freeze(this.typeToNodesMap);
+		freeze(this.typeToLinksMap);
+		freeze(this.statusToLinksMap);
+		freeze(this.uriClosure);
+		freeze(this.modelLinkIds);
+		freeze(this.linkCountMap);
+		freeze(this.nodeDataPropertyCount);
+		freeze(this.semanticTypeMatches);
+		freeze(this.patternLinks);
+		freeze(this.nodeDataProperties);
+		freeze(this.nodeIncomingLinks);
+		freeze(this.nodeOutgoingLinks);
+		freeze(this.uriTripleLinks);
+	}
+	
+	protected static void freeze(Map<?, ?> map) {
+		if (map instanceof OverlayMap)
+			((OverlayMap<?, ?>)map).freeze();
+	}
+	
+	/**
+	 * returns the value of a key of a map to be modified in place. If the map is an overlay, 
+	 * a set or a list of its base is first copied into it (see OverlayMap.getForUpdate).
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> V getForUpdate(Map<K, V> map, K key) {
+		if (map instanceof OverlayMap)
+			return ((OverlayMap<K, V>)map).getForUpdate(key);
+		return map.get(key);
 	}
 	
 	public boolean removeLink(DefaultLink link) {
@@ -711,27 +1059,64 @@ public class GraphBuilder {
 		if (link instanceof LabeledLink) {
 			this.idToLinkMap.remove(link.getId());
 	
-			Set<LabeledLink> linksWithSameUri = uriToLinksMap.get(link.getUri());
+			Set<LabeledLink> linksWithSameUri = getForUpdate(this.uriToLinksMap, link.getUri());
 			if (linksWithSameUri != null) 
 				linksWithSameUri.remove(link);
 			
-			Set<LabeledLink> linksWithSameType = typeToLinksMap.get(((LabeledLink)link).getType());
+			Set<LabeledLink> linksWithSameType = getForUpdate(this.typeToLinksMap, ((LabeledLink)link).getType());
 			if (linksWithSameType != null) 
 				linksWithSameType.remove(link);
 			
-			Set<LabeledLink> linksWithSameStatus = statusToLinksMap.get(((LabeledLink)link).getStatus());
+			Set<LabeledLink> linksWithSameStatus = getForUpdate(this.statusToLinksMap, ((LabeledLink)link).getStatus());
 			if (linksWithSameStatus != null) 
 				linksWithSameStatus.remove(link);
 			
 			Node source = link.getSource();
-			Set<LabeledLink> sourceLinks = nodeOutgoingLinks.get(source.getId());
+			Set<LabeledLink> sourceLinks = getForUpdate(this.nodeOutgoingLinks, source.getId());
 			if(sourceLinks != null)
 				sourceLinks.remove(link);
 			
 			Node target = link.getTarget();
-			Set<LabeledLink> targetLinks = nodeIncomingLinks.get(target.getId());
+			Set<LabeledLink> targetLinks = getForUpdate(this.nodeIncomingLinks, target.getId());
 			if(targetLinks != null)
 				targetLinks.remove(link);
+			
+			if (source instanceof InternalNode && target instanceof InternalNode) {
+				Set<LabeledLink> linksWithSameUris = getForUpdate(this.uriTripleLinks, getUriTriple(link));
+				if (linksWithSameUris != null)
+					linksWithSameUris.remove(link);
+			}
+			
+			if (source instanceof InternalNode && target instanceof ColumnNode) {
+				
+				CompositeKey key = CompositeKey.of(source.getId(), link.getUri());
+				Integer count = this.nodeDataPropertyCount.get(key);
+				if (count != null) {
+					if (count.intValue() <= 1) this.nodeDataPropertyCount.remove(key);
+					else this.nodeDataPropertyCount.put(key, count.intValue() - 1);
+				}
+				
+				Set<Node> dataPropertyColumnNodes = getForUpdate(this.nodeDataProperties, key);
+				if (dataPropertyColumnNodes != null) 
+					dataPropertyColumnNodes.remove(target);
+				
+				key = CompositeKey.of(source.getUri(), link.getUri());
+				Set<SemanticTypeMapping> SemanticTypeMappings = getForUpdate(this.semanticTypeMatches, key);
+				if (SemanticTypeMappings != null)
+					SemanticTypeMappings.remove(new SemanticTypeMapping(null, null, (InternalNode)source, (LabeledLink)link, (ColumnNode)target));
+			}
+			
+			Set<String> linkModelIds = ((LabeledLink)link).getModelIds();
+			if (linkModelIds != null) {
+				for (String modelId : linkModelIds) {
+					Set<String> linkIds = getForUpdate(this.modelLinkIds, modelId);
+					if (linkIds != null) 
+						linkIds.remove(link.getId());
+				}
+				this.numberOfModelLinks--;
+			}
+			
+			this.updateLinkCountMap(link, -1);
 		}
 		
 		return true;
@@ -776,12 +1161,13 @@ public class GraphBuilder {
 		// updating hashmaps
 		
 		this.idToNodeMap.remove(node.getId());
+		this.nodeIdsToUpdateLinks.remove(node.getId());
 		
-		Set<Node> nodesWithSameUri = uriToNodesMap.get(node.getUri());
+		Set<Node> nodesWithSameUri = getForUpdate(this.uriToNodesMap, node.getUri());
 		if (nodesWithSameUri != null) 
 			nodesWithSameUri.remove(node);
 		
-		Set<Node> nodesWithSameType = typeToNodesMap.get(node.getType());
+		Set<Node> nodesWithSameType = getForUpdate(this.typeToNodesMap, node.getType());
 		if (nodesWithSameType != null) 
 			nodesWithSameType.remove(node);
 		
@@ -951,7 +1337,10 @@ public class GraphBuilder {
 		logger.debug("exit>");
 	}
 
-	private void updateLinkCountMap(DefaultLink link) {
+	/**
+	 * @param delta 1 when the link is added, -1 when it is removed
+	 */
+	private void updateLinkCountMap(DefaultLink link, int delta) {
 
 		String key, sourceUri, targetUri, linkUri;
 		Integer count;
@@ -969,24 +1358,20 @@ public class GraphBuilder {
 		if (target instanceof InternalNode) {
 			key = "domain:" + sourceUri + ",link:" + linkUri + ",range:" + targetUri;
 			count = this.linkCountMap.get(key);
-			if (count == null) this.linkCountMap.put(key, 1);
-			else this.linkCountMap.put(key, count.intValue() + 1);
+			this.linkCountMap.put(key, (count == null ? 0 : count.intValue()) + delta);
 			
 			key = "range:" + targetUri + ",link:" + linkUri ;
 			count = this.linkCountMap.get(key);
-			if (count == null) this.linkCountMap.put(key, 1);
-			else this.linkCountMap.put(key, count.intValue() + 1);
+			this.linkCountMap.put(key, (count == null ? 0 : count.intValue()) + delta);
 		}
 		
 		key = "domain:" + sourceUri + ",link:" + linkUri;
 		count = this.linkCountMap.get(key);
-		if (count == null) this.linkCountMap.put(key, 1);
-		else this.linkCountMap.put(key, count.intValue() + 1);
+		this.linkCountMap.put(key, (count == null ? 0 : count.intValue()) + delta);
 
 		key = "link:" + linkUri;
 		count = this.linkCountMap.get(key);
-		if (count == null) this.linkCountMap.put(key, 1);
-		else this.linkCountMap.put(key, count.intValue() + 1);
+		this.linkCountMap.put(key, (count == null ? 0 : count.intValue()) + delta);
 	}
 
 	private HashSet<String> getUriDirectConnections(String uri) {
@@ -1028,7 +1413,7 @@ public class GraphBuilder {
 		while (count != 0) {
 			count = 0;
 			for (String s : dependentUrisMap.keySet()) {
-				Set<String> temp = this.uriClosure.get(s);
+				Set<String> temp = getForUpdate(this.uriClosure, s);
 				Set<String> dependentUris = dependentUrisMap.get(s);
 				for (String ss : dependentUris) {
 					if (!temp.contains(ss)) { temp.add(ss); count++;}
@@ -1133,154 +1518,279 @@ public class GraphBuilder {
 		logger.debug("exit>");
 	}
 	
+	// kinds of the links inferred from the ontology between two classes. The kinds of the links from 
+	// the source to the target are stored in the low 4 bits and the ones of the links from the target 
+	// to the source in the next 4 bits.
+	private static final int NO_LINK = 0;
+	private static final int DIRECT_LINK = 1;
+	private static final int INDIRECT_LINK = 2;
+	private static final int WITH_ONLY_RANGE_LINK = 3;
+	private static final int WITH_ONLY_DOMAIN_LINK = 4;
+	private static final int WITHOUT_DOMAIN_AND_RANGE_LINK = 5;
+	private static final int SUBCLASS_LINK = 6;
+	
+	// minimum number of pairs of nodes for which the links are inferred in parallel
+	private static final int MIN_PAIRS_PER_THREAD = 5000;
+	
+	// threads inferring the links of all the graph builders, created on the first parallel inference
+	private static ExecutorService linkInferenceExecutor;
+	
+	/**
+	 * adds the links inferred from the ontology between the internal nodes added since the last update
+	 * and all the internal nodes. The links between the nodes that were already in the graph are not 
+	 * inferred again, and the ontology is only queried once for each pair of classes.
+	 * The pairs are first collected, their links are inferred in parallel (see inferOntologyLinkKinds), 
+	 * and then the links are added to the graph in the order of the pairs.
+	 */
 	private void updateLinks() {
 		
 		logger.debug("<enter");
 		
 		Set<Node> nodeSet = this.typeToNodesMap.get(NodeType.InternalNode);
-		if (nodeSet == null || nodeSet.isEmpty())
+		if (nodeSet == null || nodeSet.isEmpty() || this.nodeIdsToUpdateLinks.isEmpty()) {
+			this.nodeIdsToUpdateLinks.clear();
 			return;
+		}
 		
 		List<Node> nodes = new ArrayList<Node>(nodeSet);
-		logger.debug("number of internal nodes: " + nodes.size());
+		List<String> newNodeIds = new ArrayList<String>(this.nodeIdsToUpdateLinks);
+		logger.debug("number of internal nodes: " + nodes.size() + ", number of new internal nodes: " + newNodeIds.size());
 		
-		Node source;
-		Node target;
-		String sourceUri;
-		String targetUri;
-
-		String id1 = null, id2 = null;
+		Set<String> updatedNodeIds = new HashSet<String>();
+		List<Node> sources = new ArrayList<Node>();
+		List<Node> targets = new ArrayList<Node>();
 		
-		for (int i = 0; i < nodes.size(); i++) {
+		for (String newNodeId : newNodeIds) {
 			
-			Node n1 = nodes.get(i);
-			for (int j = i+1; j < nodes.size(); j++) {
-
-				Node n2 = nodes.get(j);
+			Node n1 = this.idToNodeMap.get(newNodeId);
+			if (n1 == null)
+				continue;
+			updatedNodeIds.add(newNodeId);
+			
+			for (Node n2 : nodes) {
 
 				if (n1.equals(n2))
 					continue;
+				
+				// the pair is already done with n2 as the new node
+				if (updatedNodeIds.contains(n2.getId()))
+					continue;
 
-				if (this.visitedSourceTargetPairs.contains(n1.getId() + n2.getId()))
+				if (this.visitedSourceTargetPairs.contains(CompositeKey.of(n1.getId(), n2.getId())))
 					continue;
-				if (this.visitedSourceTargetPairs.contains(n2.getId() + n1.getId()))
+				if (this.visitedSourceTargetPairs.contains(CompositeKey.of(n2.getId(), n1.getId())))
 					continue;
 				
-				source = n1;
-				target = n2;
-
-				sourceUri = source.getUri();
-				targetUri = target.getUri();
-
-				id1 = LinkIdFactory.getLinkId(Uris.DEFAULT_LINK_URI, source.getId(), target.getId());
-				id2 = LinkIdFactory.getLinkId(Uris.DEFAULT_LINK_URI, target.getId(), source.getId());
-				CompactLink link = null; 
-
-//				boolean connected = false;
-				boolean sourceConnectedToTarget = false;
-				boolean targetConnectedToSource = false;
-				
-				// order of adding the links is based on the ascending sort of their weight value
-				
+				sources.add(n1);
+				targets.add(n2);
+			}
+		}
+		
+		int[] kinds = inferOntologyLinkKinds(sources, targets);
+		
+		for (int i = 0; i < kinds.length; i++) {
+			
+			Node n1 = sources.get(i);
+			Node n2 = targets.get(i);
+			
+			addOntologyLink(n1, n2, kinds[i] & 0xF);
+			addOntologyLink(n2, n1, kinds[i] >> 4);
+			
+			if (kinds[i] == NO_LINK) {
+				this.visitedSourceTargetPairs.add(CompositeKey.of(n1.getId(), n2.getId()));
+				logger.debug("did not put a link between (" + n1.getId() + ", " + n2.getId() + ")");
+			}
+		}
+		
+		this.nodeIdsToUpdateLinks.clear();
 
-				if (ModelingConfiguration.getPropertiesDirect()) {
-					if (this.ontologyManager.isConnectedByDirectProperty(sourceUri, targetUri)) {
-						logger.debug( sourceUri + " and " + targetUri + " are connected by a direct object property.");
-						link = new CompactObjectPropertyLink(id1, ObjectPropertyType.Direct);
-						addLink(source, target, link);
-						sourceConnectedToTarget = true;
-					}
-					if (this.ontologyManager.isConnectedByDirectProperty(targetUri, sourceUri)) {
-						logger.debug( targetUri + " and " + sourceUri + " are connected by a direct object property.");
-						link = new CompactObjectPropertyLink(id2, ObjectPropertyType.Direct);
-						addLink(target, source, link);
-						targetConnectedToSource = true;
-					}				
+		logger.debug("exit>");
+	}
+	
+	/**
+	 * infers the kinds of the links between the sources and the targets. When there are many pairs, they are 
+	 * split into chunks that are done by the threads of a shared pool (see getLinkInferenceExecutor). 
+	 * The threads only read the ontology cache and write the verdicts to their own part of the result, 
+	 * so the graph is only changed by the calling thread. If the calling thread is interrupted, it keeps 
+	 * the chunks that are done and infers the other ones itself.
+	 * @return the kinds of the links of each pair, in the order of the pairs
+	 */
+	private int[] inferOntologyLinkKinds(final List<Node> sources, final List<Node> targets) {
+		
+		final int[] kinds = new int[sources.size()];
+		
+		int numOfThreads = getNumOfLinkInferenceThreads();
+		numOfThreads = Math.max(1, Math.min(numOfThreads, kinds.length / MIN_PAIRS_PER_THREAD));
+		
+		if (numOfThreads == 1) {
+			inferOntologyLinkKinds(sources, targets, kinds, 0, kinds.length);
+			return kinds;
+		}
+		
+		long start = System.currentTimeMillis();
+		int chunkSize = (kinds.length + numOfThreads - 1) / numOfThreads;
+		ExecutorService executor = getLinkInferenceExecutor();
+		List<Future<Void>> results = new ArrayList<Future<Void>>(numOfThreads);
+		for (int i = 0; i < kinds.length; i += chunkSize) {
+			final int from = i;
+			final int to = Math.min(kinds.length, i + chunkSize);
+			results.add(executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					inferOntologyLinkKinds(sources, targets, kinds, from, to);
+					return null;
 				}
-				
-
-				if (ModelingConfiguration.getPropertiesIndirect()) {
-					if (!sourceConnectedToTarget && this.ontologyManager.isConnectedByIndirectProperty(sourceUri, targetUri)) { 
-						logger.debug( sourceUri + " and " + targetUri + " are connected by an indirect object property.");
-						link = new CompactObjectPropertyLink(id1, ObjectPropertyType.Indirect);
-						addLink(source, target, link);
-						sourceConnectedToTarget = true;
-					}
-					if (!targetConnectedToSource && this.ontologyManager.isConnectedByIndirectProperty(targetUri, sourceUri)) { 
-						logger.debug( targetUri + " and " + sourceUri + " are connected by an indirect object property.");
-						link = new CompactObjectPropertyLink(id2, ObjectPropertyType.Indirect);
-						addLink(target, source, link);
-						targetConnectedToSource = true;
-					}
+			}));
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < results.size(); i++) {
+			Future<Void> result = results.get(i);
+			// a chunk that is running goes on, it writes the same kinds as the calling thread
+			if (interrupted && !result.isDone())
+				result.cancel(false);
+			try {
+				if (!result.isCancelled()) {
+					result.get();
+					continue;
 				}
-				
+			} catch (ExecutionException e) {
+				logger.error("error in inferring the links of the graph in parallel: " + e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				interrupted = true;
+				logger.error("inferring the links of the graph is interrupted, the remaining links are inferred by the calling thread!");
+			}
+			int from = i * chunkSize;
+			inferOntologyLinkKinds(sources, targets, kinds, from, Math.min(kinds.length, from + chunkSize));
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		logger.debug("links of " + kinds.length + " pairs of nodes inferred by " + numOfThreads + 
+				" threads in " + (System.currentTimeMillis() - start) + "ms.");
+		return kinds;
+	}
+	
+	private static int getNumOfLinkInferenceThreads() {
+		int numOfThreads = ModelingConfiguration.getLinkInferenceThreads();
+		if (numOfThreads <= 0)
+			numOfThreads = Runtime.getRuntime().availableProcessors();
+		return numOfThreads;
+	}
+	
+	/**
+	 * returns the pool shared by the link inferences of all the graph builders. Its size is the number of 
+	 * threads configured when it is created, and its threads stop when they are idle for a while.
+	 */
+	private static synchronized ExecutorService getLinkInferenceExecutor() {
+		if (linkInferenceExecutor == null) {
+			int numOfThreads = getNumOfLinkInferenceThreads();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(numOfThreads, numOfThreads, 
+					60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "link-inference");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			linkInferenceExecutor = executor;
+		}
+		return linkInferenceExecutor;
+	}
+	
+	private void inferOntologyLinkKinds(List<Node> sources, List<Node> targets, int[] kinds, int from, int to) {
+		for (int i = from; i < to; i++)
+			kinds[i] = getOntologyLinkKinds(sources.get(i).getUri(), targets.get(i).getUri());
+	}
+	
+	private void addOntologyLink(Node source, Node target, int kind) {
+		
+		if (kind == NO_LINK)
+			return;
+		
+		String id = LinkIdFactory.getLinkId(Uris.DEFAULT_LINK_URI, source.getId(), target.getId());
+		CompactLink link;
+		switch (kind) {
+			case DIRECT_LINK: link = new CompactObjectPropertyLink(id, ObjectPropertyType.Direct); break;
+			case INDIRECT_LINK: link = new CompactObjectPropertyLink(id, ObjectPropertyType.Indirect); break;
+			case WITH_ONLY_RANGE_LINK: link = new CompactObjectPropertyLink(id, ObjectPropertyType.WithOnlyRange); break;
+			case WITH_ONLY_DOMAIN_LINK: link = new CompactObjectPropertyLink(id, ObjectPropertyType.WithOnlyDomain); break;
+			case WITHOUT_DOMAIN_AND_RANGE_LINK: link = new CompactObjectPropertyLink(id, ObjectPropertyType.WithoutDomainAndRange); break;
+			default: link = new CompactSubClassLink(id); break;
+		}
+		logger.debug(source.getUri() + " and " + target.getUri() + " are connected by a link of type " + kind);
+		addLink(source, target, link);
+	}
+	
+	/**
+	 * @return the kinds of the links inferred from the ontology between two classes, 
+	 * computed once for each ordered pair of classes
+	 */
+	private int getOntologyLinkKinds(String sourceUri, String targetUri) {
+		
+		Map<String, Integer> targetKinds = this.ontologyLinkKinds.get(sourceUri);
+		if (targetKinds == null) {
+			targetKinds = new ConcurrentHashMap<String, Integer>();
+			Map<String, Integer> existing = this.ontologyLinkKinds.putIfAbsent(sourceUri, targetKinds);
+			if (existing != null) targetKinds = existing;
+		}
+		
+		Integer kinds = targetKinds.get(targetUri);
+		if (kinds == null) {
+			kinds = computeOntologyLinkKinds(sourceUri, targetUri);
+			targetKinds.put(targetUri, kinds);
+		}
+		return kinds.intValue();
+	}
+	
+	private int computeOntologyLinkKinds(String sourceUri, String targetUri) {
+		
+		int sourceToTarget = NO_LINK;
+		int targetToSource = NO_LINK;
+		
+		// order of adding the links is based on the ascending sort of their weight value
 
-				if (ModelingConfiguration.getPropertiesWithOnlyRange()) {
-					if (!sourceConnectedToTarget && this.ontologyManager.isConnectedByDomainlessProperty(sourceUri, targetUri)) { 
-						logger.debug( sourceUri + " and " + targetUri + " are connected by an object property whose range is " + sourceUri + " or " + targetUri);
-						link = new CompactObjectPropertyLink(id1, ObjectPropertyType.WithOnlyRange);
-						addLink(source, target, link);
-						sourceConnectedToTarget = true;
-					}
+		if (ModelingConfiguration.getPropertiesDirect()) {
+			if (this.ontologyManager.isConnectedByDirectProperty(sourceUri, targetUri))
+				sourceToTarget = DIRECT_LINK;
+			if (this.ontologyManager.isConnectedByDirectProperty(targetUri, sourceUri))
+				targetToSource = DIRECT_LINK;
+		}
 
-					if (!targetConnectedToSource && this.ontologyManager.isConnectedByDomainlessProperty(targetUri, sourceUri)) { 
-						logger.debug( targetUri + " and " + sourceUri + " are connected by an object property whose range is " + targetUri + " or " + sourceUri);
-						link = new CompactObjectPropertyLink(id2, ObjectPropertyType.WithOnlyRange);
-						addLink(target, source, link);
-						targetConnectedToSource = true;
-					}
-				}
-				
-				if (ModelingConfiguration.getPropertiesWithOnlyDomain()) {
-					if (!sourceConnectedToTarget && this.ontologyManager.isConnectedByRangelessProperty(sourceUri, targetUri)) { 
-						logger.debug( sourceUri + " and " + targetUri + " are connected by an object property whose domain is " + sourceUri + " or " + targetUri);
-						link = new CompactObjectPropertyLink(id1, ObjectPropertyType.WithOnlyDomain);
-						addLink(source, target, link);
-						sourceConnectedToTarget = true;
-					}
-					if (!targetConnectedToSource && this.ontologyManager.isConnectedByRangelessProperty(targetUri, sourceUri)) { 
-						logger.debug( targetUri + " and " + sourceUri + " are connected by an object property whose domain is " + targetUri + " or " + sourceUri);
-						link = new CompactObjectPropertyLink(id2, ObjectPropertyType.WithOnlyDomain);
-						addLink(target, source, link);
-						targetConnectedToSource = true;
-					}
-				}
-				
-				if (ModelingConfiguration.getPropertiesWithoutDomainRange() && !sourceConnectedToTarget && !targetConnectedToSource) {
-					if (this.ontologyManager.isConnectedByDomainlessAndRangelessProperty(sourceUri, targetUri)) {// ||
-	//						this.ontologyManager.isConnectedByDomainlessAndRangelessProperty(targetUri, sourceUri)) { 
-						link = new CompactObjectPropertyLink(id1, ObjectPropertyType.WithoutDomainAndRange);
-						addLink(source, target, link);
-						link = new CompactObjectPropertyLink(id2, ObjectPropertyType.WithoutDomainAndRange);
-						addLink(target, source, link);
-						sourceConnectedToTarget = true;
-						targetConnectedToSource = true;
-					}
-				}
+		if (ModelingConfiguration.getPropertiesIndirect()) {
+			if (sourceToTarget == NO_LINK && this.ontologyManager.isConnectedByIndirectProperty(sourceUri, targetUri))
+				sourceToTarget = INDIRECT_LINK;
+			if (targetToSource == NO_LINK && this.ontologyManager.isConnectedByIndirectProperty(targetUri, sourceUri))
+				targetToSource = INDIRECT_LINK;
+		}
 
-				if (!sourceConnectedToTarget && ModelingConfiguration.getPropertiesSubClass()) {
-					if (this.ontologyManager.isSubClass(sourceUri, targetUri, false)) {
-						logger.debug( sourceUri + " and " + targetUri + " are connected by a subClassOf relation.");
-						link = new CompactSubClassLink(id1);
-						addLink(source, target, link);
-						sourceConnectedToTarget = true;
-					}
-					if (!targetConnectedToSource && this.ontologyManager.isSubClass(targetUri, sourceUri, false)) {
-						logger.debug( targetUri + " and " + sourceUri + " are connected by a subClassOf relation.");
-						link = new CompactSubClassLink(id2);
-						addLink(target, source, link);
-						targetConnectedToSource = true;
-					}
-				}
-				
-				if (!sourceConnectedToTarget && !targetConnectedToSource) {
-					this.visitedSourceTargetPairs.add(n1.getId() + n2.getId());
-					logger.debug("did not put a link between (" + n1.getId() + ", " + n2.getId() + ")");
-				}
+		if (ModelingConfiguration.getPropertiesWithOnlyRange()) {
+			if (sourceToTarget == NO_LINK && this.ontologyManager.isConnectedByDomainlessProperty(sourceUri, targetUri))
+				sourceToTarget = WITH_ONLY_RANGE_LINK;
+			if (targetToSource == NO_LINK && this.ontologyManager.isConnectedByDomainlessProperty(targetUri, sourceUri))
+				targetToSource = WITH_ONLY_RANGE_LINK;
+		}
+		
+		if (ModelingConfiguration.getPropertiesWithOnlyDomain()) {
+			if (sourceToTarget == NO_LINK && this.ontologyManager.isConnectedByRangelessProperty(sourceUri, targetUri))
+				sourceToTarget = WITH_ONLY_DOMAIN_LINK;
+			if (targetToSource == NO_LINK && this.ontologyManager.isConnectedByRangelessProperty(targetUri, sourceUri))
+				targetToSource = WITH_ONLY_DOMAIN_LINK;
+		}
+		
+		if (ModelingConfiguration.getPropertiesWithoutDomainRange() && sourceToTarget == NO_LINK && targetToSource == NO_LINK) {
+			if (this.ontologyManager.isConnectedByDomainlessAndRangelessProperty(sourceUri, targetUri)) {
+				sourceToTarget = WITHOUT_DOMAIN_AND_RANGE_LINK;
+				targetToSource = WITHOUT_DOMAIN_AND_RANGE_LINK;
 			}
 		}
 
-		logger.debug("exit>");
+		if (sourceToTarget == NO_LINK && ModelingConfiguration.getPropertiesSubClass()) {
+			if (this.ontologyManager.isSubClass(sourceUri, targetUri, false))
+				sourceToTarget = SUBCLASS_LINK;
+			if (targetToSource == NO_LINK && this.ontologyManager.isSubClass(targetUri, sourceUri, false))
+				targetToSource = SUBCLASS_LINK;
+		}
+		
+		return sourceToTarget | (targetToSource << 4);
 	}
 	
 	public List<LabeledLink> getPossibleLinks(String sourceId, String targetId) {
@@ -1,10 +1,13 @@
 package edu.isi.modeling.alignment;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -18,6 +21,7 @@ import edu.isi.modeling.common.Uris;
 import edu.isi.modeling.learner.SemanticTypeMapping;
 import edu.isi.modeling.learner.SteinerNodes;
 import edu.isi.modeling.ontology.OntologyManager;
+import edu.isi.modeling.rep.CompactLink;
 import edu.isi.modeling.rep.CompactObjectPropertyLink;
 import edu.isi.modeling.rep.DefaultLink;
 import edu.isi.modeling.rep.InternalNode;
@@ -27,11 +31,14 @@ import edu.isi.modeling.rep.LinkStatus;
 import edu.isi.modeling.rep.Node;
 import edu.isi.modeling.rep.ObjectPropertyLink;
 import edu.isi.modeling.rep.ObjectPropertyType;
-import edu.isi.modeling.steiner.topk.CustomizedBANKS;
+import edu.isi.modeling.steiner.topk.CompactSteinerGraph;
 import edu.isi.modeling.steiner.topk.Fact;
 import edu.isi.modeling.steiner.topk.ResultGraph;
+import edu.isi.modeling.steiner.topk.SearchBudget;
 import edu.isi.modeling.steiner.topk.SteinerEdge;
 import edu.isi.modeling.steiner.topk.SteinerNode;
+import edu.isi.modeling.steiner.topk.SteinerSolver;
+import edu.isi.modeling.steiner.topk.SteinerSolvers;
 import edu.isi.modeling.webserver.ContextParametersRegistry;
 import edu.isi.modeling.webserver.ContextParameterMap;
 import edu.isi.modeling.webserver.ContextParameterMap.ContextParameter;
@@ -41,8 +48,14 @@ public class GraphBuilderTopK extends GraphBuilder {
 	
 	static Logger logger = LoggerFactory.getLogger(GraphBuilderTopK.class);
 
-	private HashMap<SteinerNode, TreeSet<SteinerEdge>> topKGraph;
-	private HashMap<String, SteinerNode> topKGraphNodes;
+	private Map<SteinerNode, TreeSet<SteinerEdge>> topKGraph;
+	private Map<String, SteinerNode> topKGraphNodes;
+	
+	// frozen copy of the top-k graph used by the searches, rebuilt after the graph changes
+	private volatile CompactSteinerGraph compactTopKGraph;
+	// the graph builder this one is an overlay of, null if it is not an overlay
+	private GraphBuilderTopK base;
+	private volatile boolean frozen;
 	
 	public GraphBuilderTopK(OntologyManager ontologyManager, boolean addThingNode) { 
 		super(ontologyManager, addThingNode);
@@ -56,20 +69,70 @@ public class GraphBuilderTopK extends GraphBuilder {
 		if (topKGraphNodes == null) topKGraphNodes = new HashMap<String, SteinerNode>();
 	}
 	
-	public HashMap<SteinerNode, TreeSet<SteinerEdge>> getTopKGraph() {
+	/**
+	 * creates an overlay of a graph builder (see GraphBuilder(GraphBuilder)). The top-k graph 
+	 * of the overlay also reads through to the one of the base.
+	 * @param base
+	 */
+	public GraphBuilderTopK(GraphBuilderTopK base) {
+		super(base);
+		this.base = base;
+		topKGraph = new OverlayMap<SteinerNode, TreeSet<SteinerEdge>>(base.getTopKGraph());
+		topKGraphNodes = new OverlayMap<String, SteinerNode>(base.getTopKGraphNodes());
+	}
+	
+	public Map<SteinerNode, TreeSet<SteinerEdge>> getTopKGraph() {
 		if (topKGraph == null)
 			topKGraph = new HashMap<SteinerNode, TreeSet<SteinerEdge>>();
 		return topKGraph;
 	}
 
-	public HashMap<String, SteinerNode> getTopKGraphNodes() {
+	public Map<String, SteinerNode> getTopKGraphNodes() {
 		if (topKGraphNodes == null)
 			topKGraphNodes = new HashMap<String, SteinerNode>();
 		return topKGraphNodes;
 	}
 	
+	/**
+	 * returns the compact version of the top-k graph. It is built once for each version 
+	 * of the graph and is shared by all the searches until the graph changes again.
+	 * An overlay that is not frozen (e.g., the one of a model learner) uses the compact graph 
+	 * of its base if it has not changed the top-k graph, and otherwise only extends it with 
+	 * the nodes whose incoming edges it has changed, so the cost depends on the changes of 
+	 * the overlay and not on the size of the graph.
+	 * @return
+	 */
+	public CompactSteinerGraph getCompactTopKGraph() {
+		CompactSteinerGraph g = this.compactTopKGraph;
+		if (g == null) {
+			synchronized (this) {
+				g = this.compactTopKGraph;
+				if (g == null) {
+					g = buildCompactTopKGraph();
+					this.compactTopKGraph = g;
+				}
+			}
+		}
+		return g;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private CompactSteinerGraph buildCompactTopKGraph() {
+		if (this.base != null && !this.frozen) {
+			OverlayMap<SteinerNode, TreeSet<SteinerEdge>> overlay = (OverlayMap<SteinerNode, TreeSet<SteinerEdge>>)this.topKGraph;
+			CompactSteinerGraph baseGraph = this.base.getCompactTopKGraph();
+			if (overlay.hasNoChanges())
+				return baseGraph;
+			// an extension is not extended again, e.g., when the base is not frozen either
+			if (!baseGraph.isExtension())
+				return CompactSteinerGraph.extend(baseGraph, overlay.getChanges());
+		}
+		return CompactSteinerGraph.build(this.getTopKGraph());
+	}
+	
 	public boolean addNode(Node node) {
 		if (super.addNode(node)) {
+			this.compactTopKGraph = null;
 			SteinerNode n = new SteinerNode(node.getId());
 			getTopKGraphNodes().put(n.getNodeId(), n);
 			getTopKGraph().put(n, new TreeSet<SteinerEdge>());
@@ -80,6 +143,7 @@ public class GraphBuilderTopK extends GraphBuilder {
 	
 	public boolean addLink(Node source, Node target, DefaultLink link) {
 		if (super.addLink(source, target, link)) {
+			this.compactTopKGraph = null;
 			SteinerNode n1 = new SteinerNode(source.getId());
 			SteinerNode n2 = new SteinerNode(target.getId());
 			SteinerEdge e = new SteinerEdge(n1, link.getId(), n2, (float)link.getWeight());
@@ -88,7 +152,7 @@ public class GraphBuilderTopK extends GraphBuilder {
 				e.setForced(((LabeledLink)link).getStatus() == LinkStatus.ForcedByUser);
 			}
 //			getTopKGraph().get(n1).add(e);
-			getTopKGraph().get(n2).add(e); // each node only stores its incoming links
+			getForUpdate(getTopKGraph(), n2).add(e); // each node only stores its incoming links
 			return true;
 		} else
 			return false;
@@ -96,6 +160,7 @@ public class GraphBuilderTopK extends GraphBuilder {
 	
 	public boolean addLink(Node source, Node target, DefaultLink link, Double weight) {
 		if (super.addLink(source, target, link, weight)) {
+			this.compactTopKGraph = null;
 			SteinerNode n1 = new SteinerNode(source.getId());
 			SteinerNode n2 = new SteinerNode(target.getId());
 			SteinerEdge e = new SteinerEdge(n1, link.getId(), n2, (float)weight.doubleValue());
@@ -103,7 +168,7 @@ public class GraphBuilderTopK extends GraphBuilder {
 				e.setModelIds(((LabeledLink)link).getModelIds());
 			}
 //			getTopKGraph().get(n1).add(e);
-			getTopKGraph().get(n2).add(e); // each node only stores its incoming links
+			getForUpdate(getTopKGraph(), n2).add(e); // each node only stores its incoming links
 			return true;
 		} else
 			return false;
@@ -111,16 +176,42 @@ public class GraphBuilderTopK extends GraphBuilder {
 	
 	public boolean removeLink(DefaultLink link) {
 		if (super.removeLink(link)) {
+			this.compactTopKGraph = null;
 			SteinerNode n1 = new SteinerNode(link.getSource().getId());
 			SteinerNode n2 = new SteinerNode(link.getTarget().getId());
 			SteinerEdge e = new SteinerEdge(n1, link.getId(), n2, (float)link.getWeight());
 //			getTopKGraph().get(n1).remove(e);
-			getTopKGraph().get(n2).remove(e);
+			getForUpdate(getTopKGraph(), n2).remove(e);
 			return true;
 		} else
 			return false;
 	}
 	
+	public boolean removeNode(Node node) {
+		// the compact links are not removed one by one, they go away with the node
+		List<DefaultLink> outgoingCompactLinks = new ArrayList<DefaultLink>();
+		if (node != null && this.getGraph().containsVertex(node))
+			for (DefaultLink l : this.getGraph().outgoingEdgesOf(node))
+				if (l instanceof CompactLink)
+					outgoingCompactLinks.add(l);
+		
+		if (!super.removeNode(node))
+			return false;
+		
+		this.compactTopKGraph = null;
+		for (DefaultLink l : outgoingCompactLinks) {
+			SteinerNode n1 = new SteinerNode(l.getSource().getId());
+			SteinerNode n2 = new SteinerNode(l.getTarget().getId());
+			TreeSet<SteinerEdge> incomingEdges = getForUpdate(getTopKGraph(), n2);
+			if (incomingEdges != null)
+				incomingEdges.remove(new SteinerEdge(n1, l.getId(), n2, (float)l.getWeight()));
+		}
+		SteinerNode n = getTopKGraphNodes().remove(node.getId());
+		if (n != null)
+			getTopKGraph().remove(n);
+		return true;
+	}
+	
 	public void changeLinkStatus(LabeledLink link, LinkStatus status) {
 		super.changeLinkStatus(link, status);
 		if (status == LinkStatus.PreferredByUI)
@@ -130,27 +221,64 @@ public class GraphBuilderTopK extends GraphBuilder {
 		SteinerNode n2 = new SteinerNode(link.getTarget().getId());
 		SteinerEdge e = new SteinerEdge(n1, link.getId(), n2, (float)link.getWeight());
 		
-		if (getTopKGraph().get(n2).remove(e)) {
+		if (getForUpdate(getTopKGraph(), n2).remove(e)) {
+			this.compactTopKGraph = null;
 			if (link instanceof LabeledLink) {
 				e.setModelIds(((LabeledLink)link).getModelIds());
 				e.setForced(status == LinkStatus.ForcedByUser);
 			}
-			getTopKGraph().get(n2).add(e);
+			getForUpdate(getTopKGraph(), n2).add(e);
 		}
 	}
 	
 	public void changeLinkWeight(DefaultLink link, double weight) {
+		link = getModifiableLink(link);
 		super.changeLinkWeight(link, weight);
 		SteinerNode n1 = new SteinerNode(link.getSource().getId());
 		SteinerNode n2 = new SteinerNode(link.getTarget().getId());
 		SteinerEdge e = new SteinerEdge(n1, link.getId(), n2, (float)weight);
 		
-		if (getTopKGraph().get(n2).remove(e)) {
+		if (getForUpdate(getTopKGraph(), n2).remove(e)) {
+			this.compactTopKGraph = null;
 			if (link instanceof LabeledLink) {
 				e.setModelIds(((LabeledLink)link).getModelIds());
 				e.setForced(((LabeledLink)link).getStatus() == LinkStatus.ForcedByUser);
 			}
-			getTopKGraph().get(n2).add(e);
+			getForUpdate(getTopKGraph(), n2).add(e);
+		}
+	}
+
+	protected DefaultLink replaceLink(DefaultLink link, Node source, Node target) {
+		DefaultLink copy = super.replaceLink(link, source, target);
+		// the steiner edge keeps the model ids of the link it was created from
+		SteinerNode n1 = new SteinerNode(source.getId());
+		SteinerNode n2 = new SteinerNode(target.getId());
+		SteinerEdge e = new SteinerEdge(n1, copy.getId(), n2, (float)copy.getWeight());
+		TreeSet<SteinerEdge> incomingEdges = getForUpdate(getTopKGraph(), n2);
+		if (incomingEdges != null && incomingEdges.remove(e)) {
+			this.compactTopKGraph = null;
+			if (copy instanceof LabeledLink) {
+				e.setModelIds(((LabeledLink)copy).getModelIds());
+				e.setForced(((LabeledLink)copy).getStatus() == LinkStatus.ForcedByUser);
+			}
+			incomingEdges.add(e);
+		}
+		return copy;
+	}
+	
+	/**
+	 * freezes the graph builder (see GraphBuilder.freeze). The compact graph of a frozen builder is 
+	 * built from scratch, so the overlays of a published version extend it and do not rebuild it.
+	 */
+	public void freeze() {
+		super.freeze();
+		freeze(this.getTopKGraph());
+		freeze(this.getTopKGraphNodes());
+		synchronized (this) {
+			this.frozen = true;
+			CompactSteinerGraph g = this.compactTopKGraph;
+			if (g != null && g.isExtension())
+				this.compactTopKGraph = null;
 		}
 	}
 
@@ -160,6 +288,34 @@ public class GraphBuilderTopK extends GraphBuilder {
 			Integer maxPermutations,
 			boolean onlyAddInternalNodes) 
 		throws Exception {
+		return getTopKSteinerTrees(steinerNodes, k, recursiveLevel, maxPermutations, onlyAddInternalNodes, null);
+	}
+	
+	/**
+	 * @param solverName name of the Steiner tree solver (see SteinerSolvers), null for the solver in modeling.properties
+	 */
+	public List<DirectedWeightedMultigraph<Node, LabeledLink>> getTopKSteinerTrees(Set<Node> steinerNodes, 
+			int k, 
+			Integer recursiveLevel,
+			Integer maxPermutations,
+			boolean onlyAddInternalNodes,
+			String solverName) 
+		throws Exception {
+		return getTopKSteinerTrees(steinerNodes, k, recursiveLevel, maxPermutations, onlyAddInternalNodes, solverName, null);
+	}
+	
+	/**
+	 * @param solverName name of the Steiner tree solver (see SteinerSolvers), null for the solver in modeling.properties
+	 * @param budget limits of the search, null if there is no limit
+	 */
+	public List<DirectedWeightedMultigraph<Node, LabeledLink>> getTopKSteinerTrees(Set<Node> steinerNodes, 
+			int k, 
+			Integer recursiveLevel,
+			Integer maxPermutations,
+			boolean onlyAddInternalNodes,
+			String solverName,
+			SearchBudget budget) 
+		throws Exception {
 		
 		if (steinerNodes == null) {
 			logger.error("no steiner node specified!");
@@ -203,21 +359,25 @@ public class GraphBuilderTopK extends GraphBuilder {
 //		}
 		
 
-//		BANKSfromMM N = new BANKSfromMM(terminals, recursiveLevel, maxPermutations, ontologyManager.getContextId());
-//		BANKSfromMM.graph = this.getTopKGraph();
-//		BANKSfromMM.nodes = this.getTopKGraphNodes();
+//		BANKSfromMM N = new BANKSfromMM(terminals, this.getTopKGraph(), this.getTopKGraphNodes(), recursiveLevel, maxPermutations);
 
-		CustomizedBANKS N = new CustomizedBANKS(terminals, recursiveLevel, maxPermutations, ontologyManager.getContextId());
-		CustomizedBANKS.graph = this.getTopKGraph();
-		CustomizedBANKS.nodes = this.getTopKGraphNodes();
+		SteinerSolver solver = SteinerSolvers.getSolver(solverName);
+		if (solver == null) {
+			logger.error("no steiner tree solver with the name " + solverName + "!");
+			return null;
+		}
+		
+		// the search only reads the compact graph, so concurrent searches over the same graph do not interfere
+		Queue<ResultGraph> resultQueue = solver.getTopKTrees(terminals, 
+				this.getCompactTopKGraph(), 
+				k, recursiveLevel, maxPermutations, budget);
 		
 		List<DirectedWeightedMultigraph<Node, LabeledLink>> results = new 
 				LinkedList<DirectedWeightedMultigraph<Node, LabeledLink>>();
 		
-		N.getTopKTrees(k);
 		DirectedWeightedMultigraph<Node, LabeledLink> processedTree = null;
 		
-		if (terminals.size() > 0 && N.getResultQueue().isEmpty()) { 
+		if (terminals.size() > 0 && resultQueue.isEmpty()) { 
 			// No edge in the tree, we still want to return a graph with only nodes
 			// no solution found! --> return a tree with just terminal nodes
 //			ResultGraph emptyTree = new ResultGraph();
@@ -225,7 +385,7 @@ public class GraphBuilderTopK extends GraphBuilder {
 //			if (processedTree != null) results.add(processedTree);
 		}
 		
-		for(ResultGraph tree: N.getResultQueue()){
+		for(ResultGraph tree: resultQueue){
 //			System.out.println(tree.getScore());
 			processedTree = getLabeledSteinerTree(tree, terminals);
 			if (processedTree != null) results.add(processedTree);
@@ -241,9 +401,32 @@ public class GraphBuilderTopK extends GraphBuilder {
 			Integer maxPermutations,
 			boolean onlyAddInternalNodes) 
 			throws Exception {
+		return getTopKSteinerTrees(steinerNodes, k, recursiveLevel, maxPermutations, onlyAddInternalNodes, null);
+	}
+	
+	public List<DirectedWeightedMultigraph<Node, LabeledLink>> getTopKSteinerTrees(
+			SteinerNodes steinerNodes, 
+			int k, 
+			Integer recursiveLevel,
+			Integer maxPermutations,
+			boolean onlyAddInternalNodes,
+			String solverName) 
+			throws Exception {
+		return getTopKSteinerTrees(steinerNodes, k, recursiveLevel, maxPermutations, onlyAddInternalNodes, solverName, null);
+	}
+	
+	public List<DirectedWeightedMultigraph<Node, LabeledLink>> getTopKSteinerTrees(
+			SteinerNodes steinerNodes, 
+			int k, 
+			Integer recursiveLevel,
+			Integer maxPermutations,
+			boolean onlyAddInternalNodes,
+			String solverName,
+			SearchBudget budget) 
+			throws Exception {
 
 		List<DirectedWeightedMultigraph<Node, LabeledLink>> results = 
-				getTopKSteinerTrees(steinerNodes.getNodes(), k, recursiveLevel, maxPermutations, onlyAddInternalNodes);
+				getTopKSteinerTrees(steinerNodes.getNodes(), k, recursiveLevel, maxPermutations, onlyAddInternalNodes, solverName, budget);
 		
 		// adding data property links
 		if (results != null && onlyAddInternalNodes) {
@@ -291,7 +474,7 @@ public class GraphBuilderTopK extends GraphBuilder {
 			source = this.getIdToNodeMap().get(f.source().name());
 			target = this.getIdToNodeMap().get(f.destination().name());
 
-			if (LinkIdFactory.getLinkUri(f.label().name).equals(Uris.DEFAULT_LINK_URI)) {
+			if (LinkIdFactory.hasLinkUri(f.label().name, Uris.DEFAULT_LINK_URI)) {
 				String id = LinkIdFactory.getLinkId(Uris.DEFAULT_LINK_URI, source.getId(), target.getId());					
 				l = new CompactObjectPropertyLink(id, ObjectPropertyType.None);
 			}
@@ -299,6 +482,9 @@ public class GraphBuilderTopK extends GraphBuilder {
 			
 			if (l == null) {
 				logger.error("this should not happen! there is a bug!");
+			} else if (isShared(l)) {
+				// adding the link to the tree changes its weight, so the link of the base is not used
+				l = l.getCopy(l.getId());
 			}
 			
 			weight = f.weight();
@@ -400,10 +586,13 @@ public class GraphBuilderTopK extends GraphBuilder {
 		for (DirectedWeightedMultigraph<Node, LabeledLink> tree : trees) {
 			System.out.println(GraphUtil.labeledGraphToString(tree));
 		}
+		
+		trees = gbtk.getTopKSteinerTrees(steinerNodes, 10, null, null, false, SteinerSolvers.DPBF);
+		for (DirectedWeightedMultigraph<Node, LabeledLink> tree : trees) {
+			System.out.println(GraphUtil.labeledGraphToString(tree));
+		}
 
-//		DPBFfromMM N = new DPBFfromMM(terminals);
-//		N.graph = gbtk.getTopKGraph();
-//		N.nodes = gbtk.getTopKGraphNodes();
+//		DPBFfromMM N = new DPBFfromMM(terminals, gbtk.getTopKGraph(), gbtk.getTopKGraphNodes());
 //		
 //		long startTime=System.currentTimeMillis();
 //		N.getTopKTrees(3);
@@ -0,0 +1,543 @@
+package edu.isi.modeling.alignment;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jgrapht.graph.DirectedWeightedMultigraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.isi.modeling.rep.ClassInstanceLink;
+import edu.isi.modeling.rep.ColumnNode;
+import edu.isi.modeling.rep.ColumnSubClassLink;
+import edu.isi.modeling.rep.CompactObjectPropertyLink;
+import edu.isi.modeling.rep.CompactSubClassLink;
+import edu.isi.modeling.rep.DataPropertyLink;
+import edu.isi.modeling.rep.DataPropertyOfColumnLink;
+import edu.isi.modeling.rep.DefaultLink;
+import edu.isi.modeling.rep.InternalNode;
+import edu.isi.modeling.rep.Label;
+import edu.isi.modeling.rep.LabeledLink;
+import edu.isi.modeling.rep.LinkKeyInfo;
+import edu.isi.modeling.rep.LinkStatus;
+import edu.isi.modeling.rep.LinkType;
+import edu.isi.modeling.rep.LiteralNode;
+import edu.isi.modeling.rep.ModelIdSet;
+import edu.isi.modeling.rep.Node;
+import edu.isi.modeling.rep.NodeType;
+import edu.isi.modeling.rep.ObjectPropertyLink;
+import edu.isi.modeling.rep.ObjectPropertySpecializationLink;
+import edu.isi.modeling.rep.ObjectPropertyType;
+import edu.isi.modeling.rep.SemanticType;
+import edu.isi.modeling.rep.SemanticType.Origin;
+import edu.isi.modeling.rep.SubClassLink;
+
+/**
+ * Reads and writes the alignment graph in a compact binary format that is loaded in a single pass
+ * from a memory-mapped file. The file has the same content as the json export (see GraphUtil.exportJson):
+ *
+ * header:		magic, format version, sequence number of the last logged change included in the snapshot
+ * strings:		count, then the length and the utf-8 bytes of each string (uris, ids, enum names, ...)
+ * models:		count, then the string index of each model id (a bit of the model bitmaps)
+ * nodes:		count, then the fixed part of each node (type, id, label), its model bitmap
+ * 				and the fields of the column nodes and the literal nodes
+ * links:		count, then the fixed part of each link (type, id, source and target node indexes, weight,
+ * 				label, object property type, hNodeId, specialized link, status, key info), its model bitmap
+ * 				and whether it is a propagated link (only since the format version 3)
+ *
+ * The strings are referred to by their indexes, -1 for null. A bitmap is the number of its 64-bit words
+ * followed by the words, -1 words for null.
+ */
+public class GraphSnapshotUtil {
+
+	private static Logger logger = LoggerFactory.getLogger(GraphSnapshotUtil.class);
+
+	private static final int MAGIC = 0x4B414742; // KAGB
+	private static final int FORMAT_VERSION = 3;
+	// the links of the snapshots of this version are read as not propagated
+	private static final int FORMAT_VERSION_WITHOUT_PROPAGATED_LINKS = 2;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void exportSnapshot(DirectedWeightedMultigraph<Node, DefaultLink> graph, String filename, 
+			long logSequence) throws IOException {
+
+		logger.info("exporting the graph snapshot ...");
+		long start = System.currentTimeMillis();
+
+		StringTable strings = new StringTable();
+		TreeSet<String> sortedModelIds = new TreeSet<String>();
+		for (Node n : graph.vertexSet()) {
+			if (n.getModelIds() != null) sortedModelIds.addAll(n.getModelIds());
+			strings.collect(n);
+		}
+		for (DefaultLink l : graph.edgeSet()) {
+			if (l instanceof LabeledLink && ((LabeledLink)l).getModelIds() != null)
+				sortedModelIds.addAll(((LabeledLink)l).getModelIds());
+			strings.collect(l);
+		}
+		HashMap<String, Integer> modelIndexes = new HashMap<String, Integer>();
+		for (String modelId : sortedModelIds) {
+			modelIndexes.put(modelId, modelIndexes.size());
+			strings.add(modelId);
+		}
+
+		// the snapshot replaces the previous one only once it is complete and synced to the disk
+		File file = new File(filename);
+		File tempFile = new File(filename + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tempFile);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(logSequence);
+
+			out.writeInt(strings.list.size());
+			for (String s : strings.list) {
+				byte[] bytes = s.getBytes(UTF8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(sortedModelIds.size());
+			for (String modelId : sortedModelIds)
+				out.writeInt(strings.indexOf(modelId));
+
+			HashMap<Node, Integer> nodeIndexes = new HashMap<Node, Integer>();
+			out.writeInt(graph.vertexSet().size());
+			for (Node n : graph.vertexSet()) {
+				nodeIndexes.put(n, nodeIndexes.size());
+				writeNode(out, n, strings, modelIndexes);
+			}
+
+			out.writeInt(graph.edgeSet().size());
+			for (DefaultLink l : graph.edgeSet())
+				writeLink(out, l, nodeIndexes.get(l.getSource()), nodeIndexes.get(l.getTarget()), strings, modelIndexes);
+			
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(file.getAbsoluteFile().getParentFile());
+
+		logger.info("export is done in " + (System.currentTimeMillis() - start) + "ms.");
+	}
+
+	/**
+	 * syncs the entries of a directory to the disk, so a file moved into it is still there after a crash
+	 */
+	private static void syncDirectory(File directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			// some platforms (e.g., windows) cannot open a directory, the move is not synced there
+			logger.debug("cannot open the directory " + directory + " to sync it: " + e.getMessage());
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param logSequence if not null, receives the sequence number of the last logged change included in the snapshot
+	 * @return the graph stored in the file, or null if the file is not a snapshot of the current format
+	 */
+	public static DirectedWeightedMultigraph<Node, DefaultLink> importSnapshot(String filename, 
+			long[] logSequence) throws IOException {
+
+		long start = System.currentTimeMillis();
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (in.remaining() < 8 || in.getInt() != MAGIC) {
+				logger.error("the file " + filename + " is not a graph snapshot");
+				return null;
+			}
+			int version = in.getInt();
+			if (version != FORMAT_VERSION && version != FORMAT_VERSION_WITHOUT_PROPAGATED_LINKS) {
+				logger.error("the graph snapshot " + filename + " has the format version " + version +
+						", expected version is " + FORMAT_VERSION);
+				return null;
+			}
+			long sequence = in.getLong();
+			if (logSequence != null) logSequence[0] = sequence;
+
+			String[] strings = new String[in.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] bytes = new byte[in.getInt()];
+				in.get(bytes);
+				strings[i] = new String(bytes, UTF8);
+			}
+
+			String[] modelIds = new String[in.getInt()];
+			for (int i = 0; i < modelIds.length; i++)
+				modelIds[i] = strings[in.getInt()];
+
+			DirectedWeightedMultigraph<Node, DefaultLink> graph =
+					new DirectedWeightedMultigraph<Node, DefaultLink>(LabeledLink.class);
+
+			Node[] nodes = new Node[in.getInt()];
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = readNode(in, strings, modelIds);
+				if (nodes[i] != null) graph.addVertex(nodes[i]);
+			}
+
+			int numOfLinks = in.getInt();
+			for (int i = 0; i < numOfLinks; i++) {
+				Node source = nodes[in.getInt(in.position() + 8)];
+				Node target = nodes[in.getInt(in.position() + 12)];
+				double weight = in.getDouble(in.position() + 16);
+				DefaultLink l = readLink(in, strings, modelIds, version);
+				if (l != null && source != null && target != null) {
+					graph.addEdge(source, target, l);
+					graph.setEdgeWeight(l, weight);
+				}
+			}
+
+			logger.info("the graph snapshot is loaded in " + (System.currentTimeMillis() - start) + "ms.");
+			return graph;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void writeNode(DataOutputStream out, Node node, StringTable strings,
+			HashMap<String, Integer> modelIndexes) throws IOException {
+
+		out.writeInt(strings.indexOf(node.getType()));
+		out.writeInt(strings.indexOf(node.getId()));
+		out.writeInt(strings.indexOf(node.getLabel()));
+		writeModelIds(out, node.getModelIds(), modelIndexes);
+
+		if (node instanceof ColumnNode) {
+			ColumnNode cn = (ColumnNode) node;
+			out.writeInt(strings.indexOf(cn.getHNodeId()));
+			out.writeInt(strings.indexOf(cn.getColumnName()));
+			out.writeInt(strings.indexOf(cn.getRdfLiteralType()));
+			writeSemanticTypes(out, cn.getUserSemanticTypes(), strings);
+			writeSemanticTypes(out, cn.getLearnedSemanticTypes(), strings);
+		} else if (node instanceof LiteralNode) {
+			LiteralNode ln = (LiteralNode) node;
+			out.writeInt(strings.indexOf(ln.getValue()));
+			out.writeInt(strings.indexOf(ln.getDatatype()));
+			out.writeBoolean(ln.isUri());
+		}
+	}
+
+	private static Node readNode(ByteBuffer in, String[] strings, String[] modelIds) {
+
+		String type = string(strings, in.getInt());
+		String id = string(strings, in.getInt());
+		Label label = label(strings, in.getInt());
+		Set<String> nodeModelIds = readModelIds(in, modelIds);
+
+		Node n = null;
+		if (NodeType.InternalNode.name().equals(type)) {
+			n = new InternalNode(id, label);
+		} else if (NodeType.ColumnNode.name().equals(type)) {
+			String hNodeId = string(strings, in.getInt());
+			String columnName = string(strings, in.getInt());
+			Label rdfLiteralType = label(strings, in.getInt());
+			List<SemanticType> userSemanticTypes = readSemanticTypes(in, strings);
+			List<SemanticType> learnedSemanticTypes = readSemanticTypes(in, strings);
+			n = new ColumnNode(id, hNodeId, columnName, rdfLiteralType);
+			if (userSemanticTypes != null)
+				for (SemanticType st : userSemanticTypes)
+					((ColumnNode)n).assignUserType(st);
+			((ColumnNode)n).setLearnedSemanticTypes(learnedSemanticTypes);
+		} else if (NodeType.LiteralNode.name().equals(type)) {
+			String value = string(strings, in.getInt());
+			Label datatype = label(strings, in.getInt());
+			boolean isUri = in.get() != 0;
+			n = new LiteralNode(id, value, datatype, isUri);
+		} else {
+			logger.error("cannot instanciate a node from the type: " + type);
+			return null;
+		}
+
+		n.setModelIds(nodeModelIds);
+		return n;
+	}
+
+	private static void writeLink(DataOutputStream out, DefaultLink link, int sourceIndex, int targetIndex,
+			StringTable strings, HashMap<String, Integer> modelIndexes) throws IOException {
+
+		Label label = null;
+		ObjectPropertyType objectPropertyType = null;
+		String hNodeId = null;
+		String specializedLinkId = null;
+		LinkStatus status = null;
+		LinkKeyInfo keyInfo = null;
+		Set<String> modelIds = null;
+		boolean propagated = false;
+
+		if (link instanceof CompactObjectPropertyLink)
+			objectPropertyType = ((CompactObjectPropertyLink)link).getObjectPropertyType();
+		if (link instanceof LabeledLink) {
+			LabeledLink l = (LabeledLink)link;
+			label = l.getLabel();
+			status = l.getStatus();
+			keyInfo = l.getKeyType();
+			modelIds = l.getModelIds();
+			propagated = l.isPropagated();
+			if (l instanceof ObjectPropertyLink)
+				objectPropertyType = ((ObjectPropertyLink)l).getObjectPropertyType();
+			if (l instanceof DataPropertyOfColumnLink) {
+				hNodeId = ((DataPropertyOfColumnLink)l).getSpecializedColumnHNodeId();
+				specializedLinkId = ((DataPropertyOfColumnLink)l).getSpecializedLinkId();
+			}
+			if (l instanceof ObjectPropertySpecializationLink)
+				specializedLinkId = ((ObjectPropertySpecializationLink)l).getSpecializedLinkId();
+		}
+
+		out.writeInt(strings.indexOf(link.getType()));
+		out.writeInt(strings.indexOf(link.getId()));
+		out.writeInt(sourceIndex);
+		out.writeInt(targetIndex);
+		out.writeDouble(link.getWeight());
+		out.writeInt(strings.indexOf(label));
+		out.writeInt(strings.indexOf(objectPropertyType));
+		out.writeInt(strings.indexOf(hNodeId));
+		out.writeInt(strings.indexOf(specializedLinkId));
+		out.writeInt(strings.indexOf(status));
+		out.writeInt(strings.indexOf(keyInfo));
+		writeModelIds(out, modelIds, modelIndexes);
+		out.writeBoolean(propagated);
+	}
+
+	private static DefaultLink readLink(ByteBuffer in, String[] strings, String[] modelIds, int version) {
+
+		String type = string(strings, in.getInt());
+		String id = string(strings, in.getInt());
+		in.getInt(); // source
+		in.getInt(); // target
+		in.getDouble(); // weight
+		Label label = label(strings, in.getInt());
+		String objectPropertyType = string(strings, in.getInt());
+		String hNodeId = string(strings, in.getInt());
+		String specializedLinkId = string(strings, in.getInt());
+		String status = string(strings, in.getInt());
+		String keyInfo = string(strings, in.getInt());
+		Set<String> linkModelIds = readModelIds(in, modelIds);
+		boolean propagated = version != FORMAT_VERSION_WITHOUT_PROPAGATED_LINKS && in.get() != 0;
+
+		DefaultLink l = null;
+		if (LinkType.ClassInstanceLink.name().equals(type)) {
+			l = new ClassInstanceLink(id, keyInfo == null ? null : LinkKeyInfo.valueOf(keyInfo));
+		} else if (LinkType.ColumnSubClassLink.name().equals(type)) {
+			l = new ColumnSubClassLink(id);
+		} else if (LinkType.DataPropertyLink.name().equals(type)) {
+			l = new DataPropertyLink(id, label);
+		} else if (LinkType.DataPropertyOfColumnLink.name().equals(type)) {
+			l = new DataPropertyOfColumnLink(id, hNodeId, specializedLinkId);
+		} else if (LinkType.ObjectPropertyLink.name().equals(type)) {
+			l = new ObjectPropertyLink(id, label,
+					objectPropertyType == null ? null : ObjectPropertyType.valueOf(objectPropertyType));
+		} else if (LinkType.ObjectPropertySpecializationLink.name().equals(type)) {
+			l = new ObjectPropertySpecializationLink(id, specializedLinkId);
+		} else if (LinkType.SubClassLink.name().equals(type)) {
+			l = new SubClassLink(id);
+		} else if (LinkType.CompactObjectPropertyLink.name().equals(type)) {
+			l = new CompactObjectPropertyLink(id,
+					objectPropertyType == null ? null : ObjectPropertyType.valueOf(objectPropertyType));
+		} else if (LinkType.CompactSubClassLink.name().equals(type)) {
+			l = new CompactSubClassLink(id);
+		} else {
+			logger.error("cannot instanciate a link from the type: " + type);
+			return null;
+		}
+
+		if (l instanceof LabeledLink) {
+			((LabeledLink)l).setStatus(status == null ? null : LinkStatus.valueOf(status));
+			((LabeledLink)l).setModelIds(linkModelIds);
+			((LabeledLink)l).setPropagated(propagated);
+		}
+		return l;
+	}
+
+	private static void writeSemanticTypes(DataOutputStream out, List<SemanticType> semanticTypes,
+			StringTable strings) throws IOException {
+
+		if (semanticTypes == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(semanticTypes.size());
+		for (SemanticType st : semanticTypes) {
+			out.writeInt(strings.indexOf(st.getHNodeId()));
+			out.writeInt(strings.indexOf(st.getDomain()));
+			out.writeInt(strings.indexOf(st.getType()));
+			out.writeInt(strings.indexOf(st.getOrigin()));
+			out.writeDouble(st.getConfidenceScore() == null ? Double.NaN : st.getConfidenceScore().doubleValue());
+		}
+	}
+
+	private static List<SemanticType> readSemanticTypes(ByteBuffer in, String[] strings) {
+
+		int size = in.getInt();
+		if (size < 0) return null;
+		List<SemanticType> semanticTypes = new ArrayList<SemanticType>(size);
+		for (int i = 0; i < size; i++) {
+			String hNodeId = string(strings, in.getInt());
+			Label domain = label(strings, in.getInt());
+			Label type = label(strings, in.getInt());
+			String origin = string(strings, in.getInt());
+			double confidenceScore = in.getDouble();
+			semanticTypes.add(new SemanticType(hNodeId, type, domain,
+					origin == null ? null : Origin.valueOf(origin),
+					Double.isNaN(confidenceScore) ? null : confidenceScore));
+		}
+		return semanticTypes;
+	}
+
+	private static void writeModelIds(DataOutputStream out, Set<String> modelIds,
+			HashMap<String, Integer> modelIndexes) throws IOException {
+
+		if (modelIds == null) {
+			out.writeInt(-1);
+			return;
+		}
+		long[] words = new long[(modelIndexes.size() + 63) >>> 6];
+		int numOfWords = 0;
+		for (String modelId : modelIds) {
+			int index = modelIndexes.get(modelId);
+			words[index >>> 6] |= 1L << index;
+			numOfWords = Math.max(numOfWords, (index >>> 6) + 1);
+		}
+		out.writeInt(numOfWords);
+		for (int i = 0; i < numOfWords; i++)
+			out.writeLong(words[i]);
+	}
+
+	private static Set<String> readModelIds(ByteBuffer in, String[] modelIds) {
+
+		int numOfWords = in.getInt();
+		if (numOfWords < 0) return null;
+		Set<String> result = new ModelIdSet();
+		for (int i = 0; i < numOfWords; i++) {
+			long word = in.getLong();
+			while (word != 0) {
+				int bit = Long.numberOfTrailingZeros(word);
+				result.add(modelIds[(i << 6) + bit]);
+				word &= word - 1;
+			}
+		}
+		return result;
+	}
+
+	private static String string(String[] strings, int index) {
+		return index < 0 ? null : strings[index];
+	}
+
+	private static Label label(String[] strings, int index) {
+		return index < 0 ? null : new Label(strings[index]);
+	}
+
+	/**
+	 * strings of the snapshot in the order they are first seen
+	 */
+	private static class StringTable {
+
+		private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+		private final List<String> list = new ArrayList<String>();
+
+		void add(String s) {
+			if (s != null && !indexes.containsKey(s)) {
+				indexes.put(s, list.size());
+				list.add(s);
+			}
+		}
+
+		int indexOf(String s) {
+			return s == null ? -1 : indexes.get(s);
+		}
+
+		int indexOf(Label label) {
+			return label == null ? -1 : indexOf(label.getUri());
+		}
+
+		int indexOf(Enum<?> e) {
+			return e == null ? -1 : indexOf(e.name());
+		}
+
+		void add(Label label) {
+			if (label != null) add(label.getUri());
+		}
+
+		void add(Enum<?> e) {
+			if (e != null) add(e.name());
+		}
+
+		void add(List<SemanticType> semanticTypes) {
+			if (semanticTypes == null) return;
+			for (SemanticType st : semanticTypes) {
+				add(st.getHNodeId());
+				add(st.getDomain());
+				add(st.getType());
+				add(st.getOrigin());
+			}
+		}
+
+		void collect(Node n) {
+			add(n.getType());
+			add(n.getId());
+			add(n.getLabel());
+			if (n instanceof ColumnNode) {
+				ColumnNode cn = (ColumnNode) n;
+				add(cn.getHNodeId());
+				add(cn.getColumnName());
+				add(cn.getRdfLiteralType());
+				add(cn.getUserSemanticTypes());
+				add(cn.getLearnedSemanticTypes());
+			} else if (n instanceof LiteralNode) {
+				LiteralNode ln = (LiteralNode) n;
+				add(ln.getValue());
+				add(ln.getDatatype());
+			}
+		}
+
+		void collect(DefaultLink link) {
+			add(link.getType());
+			add(link.getId());
+			if (link instanceof CompactObjectPropertyLink)
+				add(((CompactObjectPropertyLink)link).getObjectPropertyType());
+			if (link instanceof LabeledLink) {
+				LabeledLink l = (LabeledLink)link;
+				add(l.getLabel());
+				add(l.getStatus());
+				add(l.getKeyType());
+				if (l instanceof ObjectPropertyLink)
+					add(((ObjectPropertyLink)l).getObjectPropertyType());
+				if (l instanceof DataPropertyOfColumnLink) {
+					add(((DataPropertyOfColumnLink)l).getSpecializedColumnHNodeId());
+					add(((DataPropertyOfColumnLink)l).getSpecializedLinkId());
+				}
+				if (l instanceof ObjectPropertySpecializationLink)
+					add(((ObjectPropertySpecializationLink)l).getSpecializedLinkId());
+			}
+		}
+	}
+}
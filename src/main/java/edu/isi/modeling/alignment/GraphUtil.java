@@ -59,6 +59,7 @@ import edu.isi.modeling.rep.LinkKeyInfo;
 import edu.isi.modeling.rep.LinkStatus;
 import edu.isi.modeling.rep.LinkType;
 import edu.isi.modeling.rep.LiteralNode;
+import edu.isi.modeling.rep.ModelIdSet;
 import edu.isi.modeling.rep.Node;
 import edu.isi.modeling.rep.NodeType;
 import edu.isi.modeling.rep.ObjectPropertyLink;
@@ -633,6 +634,8 @@ public class GraphUtil {
 			writer.name("modelIds");
 			if (!writeLinkAnnotations || l.getModelIds() == null) writer.value(nullStr);
 			else writeModelIds(writer, l.getModelIds());
+			if (l.isPropagated())
+				writer.name("propagated").value(true);
 		}
 		writer.endObject();
 	}
@@ -836,6 +839,7 @@ public class GraphUtil {
 		LinkStatus status = null;
 		LinkKeyInfo keyInfo = null;
 		Set<String> modelIds = null;
+		boolean propagated = false;
 		if (weight == null) weight = new Double[1];
 
 		reader.beginObject();
@@ -859,6 +863,8 @@ public class GraphUtil {
 				keyInfo = LinkKeyInfo.valueOf(reader.nextString());
 			} else if (key.equals("modelIds") && reader.peek() != JsonToken.NULL) {
 				modelIds = readModelIds(reader);
+			} else if (key.equals("propagated") && reader.peek() != JsonToken.NULL) {
+				propagated = reader.nextBoolean();
 			} else if (key.equals("weight") && reader.peek() != JsonToken.NULL) {
 				weight[0] = new Double(reader.nextDouble());
 			} else {
@@ -894,6 +900,7 @@ public class GraphUtil {
     	if (l instanceof LabeledLink) {
 	    	((LabeledLink)l).setStatus(status);
 	    	((LabeledLink)l).setModelIds(modelIds);
+	    	((LabeledLink)l).setPropagated(propagated);
     	}
     	return l;
 	}
@@ -963,7 +970,7 @@ public class GraphUtil {
 	
 	private static Set<String> readModelIds(JsonReader reader) throws IOException {
 		
-		Set<String> modelIds = new HashSet<String>();
+		Set<String> modelIds = new ModelIdSet();
 		
 		reader.beginArray();
 	    while (reader.hasNext()) {
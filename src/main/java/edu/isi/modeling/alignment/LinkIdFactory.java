@@ -23,6 +23,8 @@ package edu.isi.modeling.alignment;
 
 import java.util.HashMap;
 
+import edu.isi.modeling.common.UriDictionary;
+
 public class LinkIdFactory {
 
 	private HashMap<String, Integer> linksUris = new HashMap<String, Integer>();
@@ -52,28 +54,75 @@ public class LinkIdFactory {
 		return sourceId + separator + uri + separator + targetId;
 	}
 	
+	/**
+	 * @return the uri of the link, as the canonical instance of the UriDictionary
+	 */
 	public static String getLinkUri(String linkId) {
-		String[] parts = linkId.split(separator);
-		if (parts != null && parts.length == 3)
-			return parts[1];
-		else
+		int second = getSecondSeparator(linkId);
+		if (second < 0)
 			return null;
+		return UriDictionary.intern(linkId.substring(linkId.indexOf(separator) + separator.length(), second));
+	}
+	
+	/**
+	 * checks the uri of the link without extracting it from the id
+	 */
+	public static boolean hasLinkUri(String linkId, String uri) {
+		int second = getSecondSeparator(linkId);
+		if (second < 0 || uri == null)
+			return false;
+		int start = linkId.indexOf(separator) + separator.length();
+		return second - start == uri.length() && linkId.regionMatches(start, uri, 0, uri.length());
 	}
 	
 	public static String getLinkSourceId(String linkId) {
-		String[] parts = linkId.split(separator);
-		if (parts != null && parts.length == 3)
-			return parts[0];
-		else
+		int second = getSecondSeparator(linkId);
+		if (second < 0)
 			return null;
+		return linkId.substring(0, linkId.indexOf(separator));
 	}
 	
 	public static String getLinkTargetId(String linkId) {
-		String[] parts = linkId.split(separator);
-		if (parts != null && parts.length == 3)
-			return parts[2];
-		else
+		int second = getSecondSeparator(linkId);
+		if (second < 0)
 			return null;
+		return linkId.substring(second + separator.length(), getTargetEnd(linkId, second));
+	}
+	
+	/**
+	 * finds the parts of a link id (sourceId---uri---targetId) with indexOf instead of splitting 
+	 * it with a regular expression. The ids that split(separator) would not cut in three parts are rejected.
+	 * @return the index of the separator before the target id, or -1 if the id does not have three parts
+	 */
+	private static int getSecondSeparator(String linkId) {
+		if (linkId == null)
+			return -1;
+		int first = linkId.indexOf(separator);
+		if (first < 0)
+			return -1;
+		int second = linkId.indexOf(separator, first + separator.length());
+		if (second < 0)
+			return -1;
+		if (getTargetEnd(linkId, second) < 0)
+			return -1;
+		return second;
+	}
+	
+	/**
+	 * @return the end of the target id, or -1 if the target id is empty or followed by something else 
+	 * than separators (split drops the trailing empty parts)
+	 */
+	private static int getTargetEnd(String linkId, int second) {
+		int start = second + separator.length();
+		int end = linkId.indexOf(separator, start);
+		if (end < 0)
+			end = linkId.length();
+		if (end == start)
+			return -1;
+		for (int i = end; i < linkId.length(); i += separator.length())
+			if (!linkId.startsWith(separator, i))
+				return -1;
+		return end;
 	}
 	
 	public boolean duplicateUri(String uriString) {
@@ -22,11 +22,22 @@
 package edu.isi.modeling.alignment;
 
 import java.util.HashMap;
+import java.util.Map;
 
 public class NodeIdFactory {
 
-	private HashMap<String, Integer> nodeUris = new HashMap<String, Integer>();
+	private Map<String, Integer> nodeUris;
 	
+	public NodeIdFactory() {
+		this.nodeUris = new HashMap<String, Integer>();
+	}
+	
+	/**
+	 * creates a factory that continues the numbering of the base factory without modifying it
+	 */
+	NodeIdFactory(NodeIdFactory base) {
+		this.nodeUris = new OverlayMap<String, Integer>(base.nodeUris);
+	}
 
 	public String getNodeId(String uri) {
 		
@@ -0,0 +1,360 @@
+package edu.isi.modeling.alignment;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.jgrapht.Graphs;
+import org.jgrapht.graph.DirectedWeightedMultigraph;
+
+import edu.isi.modeling.rep.DefaultLink;
+import edu.isi.modeling.rep.Node;
+
+/**
+ * A graph that reads through to a base graph and keeps the nodes and the links added to it in a
+ * graph of its own, so it is created in constant time and the base graph is never modified.
+ * The base nodes that are the ends of the added links are also added to the own graph, but they
+ * are only counted once. The base nodes and links removed from the overlay are hidden. A base node 
+ * that is removed and added again stays hidden in the base and is kept in the own graph, so a node 
+ * can be replaced by a copy with the same id.
+ * The base must not change while the overlay is in use.
+ *
+ * The links are stored in the graphs that contain them (their ends and weights are fields of the links),
+ * so the weight of a base link cannot be changed. GraphBuilder replaces such a link by a copy before
+ * changing it.
+ */
+class OverlayGraph extends DirectedWeightedMultigraph<Node, DefaultLink> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final DirectedWeightedMultigraph<Node, DefaultLink> base;
+	private final DirectedWeightedMultigraph<Node, DefaultLink> own;
+	private final HashSet<Node> hiddenNodes;
+	private final HashSet<DefaultLink> hiddenLinks;
+
+	OverlayGraph(DirectedWeightedMultigraph<Node, DefaultLink> base) {
+		super(DefaultLink.class);
+		this.base = base;
+		this.own = new DirectedWeightedMultigraph<Node, DefaultLink>(DefaultLink.class);
+		this.hiddenNodes = new HashSet<Node>();
+		this.hiddenLinks = new HashSet<DefaultLink>();
+	}
+
+	private boolean inBase(Node v) {
+		return base.containsVertex(v) && !hiddenNodes.contains(v);
+	}
+
+	private boolean inBase(DefaultLink e) {
+		return !own.containsEdge(e) && !hiddenLinks.contains(e) && base.containsEdge(e);
+	}
+
+	/**
+	 * @return true if the link belongs to the base graph, so it is shared with the other overlays of the base
+	 */
+	boolean isShared(DefaultLink e) {
+		return inBase(e);
+	}
+
+	/**
+	 * @return true if the node belongs to the base graph, so it is shared with the other overlays of the base
+	 */
+	boolean isShared(Node v) {
+		return inBase(v);
+	}
+
+	private void addToOwn(Node v) {
+		if (!own.containsVertex(v))
+			own.addVertex(v);
+	}
+
+	@Override
+	public boolean containsVertex(Node v) {
+		return own.containsVertex(v) || inBase(v);
+	}
+
+	@Override
+	public boolean containsEdge(DefaultLink e) {
+		return own.containsEdge(e) || inBase(e);
+	}
+
+	@Override
+	public boolean containsEdge(Node sourceVertex, Node targetVertex) {
+		return getEdge(sourceVertex, targetVertex) != null;
+	}
+
+	@Override
+	public boolean addVertex(Node v) {
+		if (v == null) throw new NullPointerException();
+		if (containsVertex(v)) return false;
+		return own.addVertex(v);
+	}
+
+	@Override
+	public DefaultLink addEdge(Node sourceVertex, Node targetVertex) {
+		assertVertexInGraph(sourceVertex);
+		assertVertexInGraph(targetVertex);
+		addToOwn(sourceVertex);
+		addToOwn(targetVertex);
+		return own.addEdge(sourceVertex, targetVertex);
+	}
+
+	@Override
+	public boolean addEdge(Node sourceVertex, Node targetVertex, DefaultLink e) {
+		if (e == null) throw new NullPointerException();
+		if (containsEdge(e)) return false;
+		assertVertexInGraph(sourceVertex);
+		assertVertexInGraph(targetVertex);
+		addToOwn(sourceVertex);
+		addToOwn(targetVertex);
+		return own.addEdge(sourceVertex, targetVertex, e);
+	}
+
+	private void assertVertexInGraph(Node v) {
+		if (!containsVertex(v))
+			throw new IllegalArgumentException("no such vertex in graph: " + v);
+	}
+
+	@Override
+	public boolean removeEdge(DefaultLink e) {
+		if (own.removeEdge(e)) return true;
+		if (!inBase(e)) return false;
+		return hiddenLinks.add(e);
+	}
+
+	@Override
+	public DefaultLink removeEdge(Node sourceVertex, Node targetVertex) {
+		DefaultLink e = getEdge(sourceVertex, targetVertex);
+		if (e != null) removeEdge(e);
+		return e;
+	}
+
+	@Override
+	public boolean removeAllEdges(Collection<? extends DefaultLink> edges) {
+		boolean modified = false;
+		for (DefaultLink e : new ArrayList<DefaultLink>(edges))
+			modified |= removeEdge(e);
+		return modified;
+	}
+
+	@Override
+	public Set<DefaultLink> removeAllEdges(Node sourceVertex, Node targetVertex) {
+		Set<DefaultLink> removedEdges = getAllEdges(sourceVertex, targetVertex);
+		if (removedEdges != null) removeAllEdges(removedEdges);
+		return removedEdges;
+	}
+
+	@Override
+	public boolean removeVertex(Node v) {
+		if (!containsVertex(v)) return false;
+		removeAllEdges(edgesOf(v));
+		own.removeVertex(v);
+		if (base.containsVertex(v))
+			hiddenNodes.add(v);
+		return true;
+	}
+
+	@Override
+	public boolean removeAllVertices(Collection<? extends Node> vertices) {
+		boolean modified = false;
+		for (Node v : new ArrayList<Node>(vertices))
+			modified |= removeVertex(v);
+		return modified;
+	}
+
+	@Override
+	public Set<DefaultLink> getAllEdges(Node sourceVertex, Node targetVertex) {
+		if (!containsVertex(sourceVertex) || !containsVertex(targetVertex)) return null;
+		Set<DefaultLink> edges = new LinkedHashSet<DefaultLink>();
+		if (inBase(sourceVertex) && inBase(targetVertex))
+			for (DefaultLink e : base.getAllEdges(sourceVertex, targetVertex))
+				if (!hiddenLinks.contains(e)) edges.add(e);
+		if (own.containsVertex(sourceVertex) && own.containsVertex(targetVertex))
+			edges.addAll(own.getAllEdges(sourceVertex, targetVertex));
+		return edges;
+	}
+
+	@Override
+	public DefaultLink getEdge(Node sourceVertex, Node targetVertex) {
+		Set<DefaultLink> edges = getAllEdges(sourceVertex, targetVertex);
+		if (edges == null || edges.isEmpty()) return null;
+		return edges.iterator().next();
+	}
+
+	@Override
+	public Node getEdgeSource(DefaultLink e) {
+		return own.containsEdge(e) ? own.getEdgeSource(e) : base.getEdgeSource(e);
+	}
+
+	@Override
+	public Node getEdgeTarget(DefaultLink e) {
+		return own.containsEdge(e) ? own.getEdgeTarget(e) : base.getEdgeTarget(e);
+	}
+
+	@Override
+	public double getEdgeWeight(DefaultLink e) {
+		return own.containsEdge(e) ? own.getEdgeWeight(e) : base.getEdgeWeight(e);
+	}
+
+	@Override
+	public void setEdgeWeight(DefaultLink e, double weight) {
+		if (!own.containsEdge(e))
+			throw new UnsupportedOperationException("the link " + e.getId() + " is shared with the base graph");
+		own.setEdgeWeight(e, weight);
+	}
+
+	@Override
+	public Set<DefaultLink> incomingEdgesOf(Node vertex) {
+		return union(inBase(vertex) ? base.incomingEdgesOf(vertex) : null,
+				own.containsVertex(vertex) ? own.incomingEdgesOf(vertex) : null, vertex);
+	}
+
+	@Override
+	public Set<DefaultLink> outgoingEdgesOf(Node vertex) {
+		return union(inBase(vertex) ? base.outgoingEdgesOf(vertex) : null,
+				own.containsVertex(vertex) ? own.outgoingEdgesOf(vertex) : null, vertex);
+	}
+
+	@Override
+	public Set<DefaultLink> edgesOf(Node vertex) {
+		Set<DefaultLink> edges = new LinkedHashSet<DefaultLink>(incomingEdgesOf(vertex));
+		edges.addAll(outgoingEdgesOf(vertex));
+		return edges;
+	}
+
+	@Override
+	public int inDegreeOf(Node vertex) {
+		return incomingEdgesOf(vertex).size();
+	}
+
+	@Override
+	public int outDegreeOf(Node vertex) {
+		return outgoingEdgesOf(vertex).size();
+	}
+
+	private Set<DefaultLink> union(Set<DefaultLink> baseEdges, Set<DefaultLink> ownEdges, Node vertex) {
+		if (baseEdges == null && ownEdges == null)
+			throw new IllegalArgumentException("no such vertex in graph: " + vertex);
+		if (ownEdges == null && hiddenLinks.isEmpty())
+			return baseEdges;
+		Set<DefaultLink> edges = new LinkedHashSet<DefaultLink>();
+		if (baseEdges != null)
+			for (DefaultLink e : baseEdges)
+				if (!hiddenLinks.contains(e)) edges.add(e);
+		if (ownEdges != null)
+			edges.addAll(ownEdges);
+		return edges;
+	}
+
+	@Override
+	public Set<Node> vertexSet() {
+		return new AbstractSet<Node>() {
+			@Override
+			public Iterator<Node> iterator() {
+				return new UnionIterator<Node>(base.vertexSet().iterator(), own.vertexSet().iterator()) {
+					boolean acceptBase(Node v) { return !hiddenNodes.contains(v); }
+					boolean acceptOwn(Node v) { return !inBase(v); }
+				};
+			}
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof Node && containsVertex((Node)o);
+			}
+			@Override
+			public int size() {
+				int size = base.vertexSet().size() - hiddenNodes.size();
+				for (Node v : own.vertexSet())
+					if (!inBase(v)) size++;
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public Set<DefaultLink> edgeSet() {
+		return new AbstractSet<DefaultLink>() {
+			@Override
+			public Iterator<DefaultLink> iterator() {
+				return new UnionIterator<DefaultLink>(base.edgeSet().iterator(), own.edgeSet().iterator()) {
+					boolean acceptBase(DefaultLink e) { return !hiddenLinks.contains(e); }
+					boolean acceptOwn(DefaultLink e) { return true; }
+				};
+			}
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof DefaultLink && containsEdge((DefaultLink)o);
+			}
+			@Override
+			public int size() {
+				// a hidden base link may have been replaced by an own link with the same id
+				return base.edgeSet().size() - hiddenLinks.size() + own.edgeSet().size();
+			}
+		};
+	}
+
+	/**
+	 * @return a plain graph with the nodes and the links of the overlay
+	 */
+	@Override
+	public Object clone() {
+		DirectedWeightedMultigraph<Node, DefaultLink> copy = 
+				new DirectedWeightedMultigraph<Node, DefaultLink>(DefaultLink.class);
+		Graphs.addGraph(copy, this);
+		return copy;
+	}
+
+	/**
+	 * iterates over the accepted elements of the base and then over the accepted elements of the own graph
+	 */
+	private static abstract class UnionIterator<T> implements Iterator<T> {
+
+		private final Iterator<T> baseIterator;
+		private final Iterator<T> ownIterator;
+		private T next = null;
+		private boolean hasNext = false;
+
+		UnionIterator(Iterator<T> baseIterator, Iterator<T> ownIterator) {
+			this.baseIterator = baseIterator;
+			this.ownIterator = ownIterator;
+		}
+
+		abstract boolean acceptBase(T t);
+		abstract boolean acceptOwn(T t);
+
+		@Override
+		public boolean hasNext() {
+			if (hasNext) return true;
+			while (baseIterator.hasNext()) {
+				T t = baseIterator.next();
+				if (acceptBase(t)) {
+					next = t;
+					return hasNext = true;
+				}
+			}
+			while (ownIterator.hasNext()) {
+				T t = ownIterator.next();
+				if (acceptOwn(t)) {
+					next = t;
+					return hasNext = true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			hasNext = false;
+			return next;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
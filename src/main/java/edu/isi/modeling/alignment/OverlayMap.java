@@ -0,0 +1,214 @@
+package edu.isi.modeling.alignment;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A map that reads through to a base map and keeps its own changes apart, so it is created
+ * in constant time and the base is never modified. The base must not change while the overlay is in use.
+ *
+ * get() reads through to the base, so the collections stored as values (sets and lists) it returns
+ * may be the ones of the base and must not be modified. A caller that changes a value in place gets it
+ * with getForUpdate(), which copies the value of the base into the overlay the first time, so the reads
+ * do not modify the overlay and only the values that are written end up in getChanges().
+ *
+ * Once the overlay is frozen, it must not be modified anymore and getForUpdate() fails,
+ * so it can be shared by concurrent readers.
+ */
+class OverlayMap<K, V> extends AbstractMap<K, V> {
+
+	private final Map<K, V> base;
+	// entries added or replaced in the overlay
+	private final HashMap<K, V> own;
+	// keys of the base that are removed in the overlay
+	private final HashSet<K> removed;
+	// number of keys of the base that are in own or in removed
+	private int shadowed;
+	private boolean frozen;
+
+	OverlayMap(Map<K, V> base) {
+		this.base = base;
+		this.own = new HashMap<K, V>();
+		this.removed = new HashSet<K>();
+		this.shadowed = 0;
+		this.frozen = false;
+	}
+	
+	void freeze() {
+		this.frozen = true;
+	}
+
+	/**
+	 * @return the entries added or replaced in the overlay (including the values copied by getForUpdate()), 
+	 * and the keys of the base that are removed in the overlay mapped to null
+	 */
+	Map<K, V> getChanges() {
+		HashMap<K, V> changes = new HashMap<K, V>(own);
+		for (K key : removed)
+			changes.put(key, null);
+		return changes;
+	}
+
+	/**
+	 * @return true if the overlay has no entry of its own and does not remove any entry of the base
+	 */
+	boolean hasNoChanges() {
+		return own.isEmpty() && removed.isEmpty();
+	}
+
+	private boolean isShadowed(Object key) {
+		return own.containsKey(key) || removed.contains(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (own.containsKey(key)) return true;
+		return !removed.contains(key) && base.containsKey(key);
+	}
+
+	@Override
+	public V get(Object key) {
+		if (own.containsKey(key)) return own.get(key);
+		if (removed.contains(key)) return null;
+		return base.get(key);
+	}
+
+	/**
+	 * returns the value of a key to be modified in place. A set or a list of the base is copied 
+	 * into the overlay the first time, so the base is not modified.
+	 */
+	V getForUpdate(K key) {
+		if (frozen)
+			throw new IllegalStateException("a frozen overlay cannot be modified");
+		if (own.containsKey(key)) return own.get(key);
+		if (removed.contains(key)) return null;
+		V value = base.get(key);
+		if (value instanceof Set || value instanceof List) {
+			value = copy(value);
+			own.put(key, value);
+			shadowed++;
+		}
+		return value;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		V previous;
+		if (own.containsKey(key)) {
+			previous = own.get(key);
+		} else if (removed.remove(key)) {
+			previous = null;
+		} else {
+			previous = base.get(key);
+			if (base.containsKey(key))
+				shadowed++;
+		}
+		own.put(key, value);
+		return previous;
+	}
+
+	@Override
+	public V remove(Object key) {
+		if (own.containsKey(key)) {
+			V previous = own.remove(key);
+			if (base.containsKey(key))
+				removed.add(castKey(key));
+			return previous;
+		}
+		if (removed.contains(key) || !base.containsKey(key))
+			return null;
+		removed.add(castKey(key));
+		shadowed++;
+		return base.get(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private K castKey(Object key) {
+		return (K)key;
+	}
+
+	@Override
+	public void clear() {
+		own.clear();
+		removed.addAll(base.keySet());
+		shadowed = base.size();
+	}
+
+	@Override
+	public int size() {
+		return own.size() + base.size() - shadowed;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+			@Override
+			public int size() {
+				return OverlayMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * iterates over the entries of the overlay and then over the entries of the base that are not shadowed
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		private final Iterator<Map.Entry<K, V>> ownIterator = own.entrySet().iterator();
+		private final Iterator<Map.Entry<K, V>> baseIterator = base.entrySet().iterator();
+		private Map.Entry<K, V> next = null;
+
+		@Override
+		public boolean hasNext() {
+			if (next != null) return true;
+			if (ownIterator.hasNext()) {
+				next = ownIterator.next();
+				return true;
+			}
+			while (baseIterator.hasNext()) {
+				Map.Entry<K, V> e = baseIterator.next();
+				if (!isShadowed(e.getKey())) {
+					next = new AbstractMap.SimpleImmutableEntry<K, V>(e);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Map.Entry<K, V> e = next;
+			next = null;
+			return e;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("use OverlayMap.remove(key)");
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private V copy(V value) {
+		if (value instanceof SortedSet)
+			return (V)new TreeSet((SortedSet)value);
+		if (value instanceof Set)
+			return (V)new HashSet((Set)value);
+		return (V)new LinkedList((List)value);
+	}
+}
@@ -0,0 +1,100 @@
+package edu.isi.modeling.alignment;
+
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A set that reads through to a base set and keeps its own changes apart, so it is created
+ * in constant time and the base is never modified. The base must not change while the overlay is in use.
+ */
+class OverlaySet<E> extends AbstractSet<E> {
+
+	private final Set<E> base;
+	// elements added in the overlay that are not in the base
+	private final HashSet<E> own;
+	// elements of the base that are removed in the overlay
+	private final HashSet<E> removed;
+
+	OverlaySet(Set<E> base) {
+		this.base = base;
+		this.own = new HashSet<E>();
+		this.removed = new HashSet<E>();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (own.contains(o)) return true;
+		return !removed.contains(o) && base.contains(o);
+	}
+
+	@Override
+	public boolean add(E e) {
+		if (base.contains(e))
+			return removed.remove(e);
+		return own.add(e);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean remove(Object o) {
+		if (own.remove(o)) return true;
+		if (!base.contains(o)) return false;
+		return removed.add((E)o);
+	}
+
+	@Override
+	public void clear() {
+		own.clear();
+		removed.addAll(base);
+	}
+
+	@Override
+	public int size() {
+		return base.size() - removed.size() + own.size();
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+
+			private final Iterator<E> ownIterator = own.iterator();
+			private final Iterator<E> baseIterator = base.iterator();
+			private E next = null;
+			private boolean hasNext = false;
+
+			@Override
+			public boolean hasNext() {
+				if (hasNext) return true;
+				if (ownIterator.hasNext()) {
+					next = ownIterator.next();
+					hasNext = true;
+					return true;
+				}
+				while (baseIterator.hasNext()) {
+					E e = baseIterator.next();
+					if (!removed.contains(e)) {
+						next = e;
+						hasNext = true;
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public E next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				hasNext = false;
+				return next;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("use OverlaySet.remove(element)");
+			}
+		};
+	}
+}
@@ -784,6 +784,13 @@ public class SemanticModel {
 	}
 	
 	public static String writeJsonToString(List<SemanticModel> models, boolean printAbstract) throws Exception {
+		return writeJsonToString(models, printAbstract, null);
+	}
+	
+	/**
+	 * @param partial written next to the models when it is not null, true if the models are not the complete results
+	 */
+	public static String writeJsonToString(List<SemanticModel> models, boolean printAbstract, Boolean partial) throws Exception {
 		
 		OutputStream out = new ByteArrayOutputStream(); 
 		JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
@@ -802,6 +809,10 @@ public class SemanticModel {
 						m.writeModel(writer);
 			
 			writer.endArray();			
+			
+			if (partial != null)
+				writer.name("partial").value(partial.booleanValue());
+			
 			writer.endObject();
 
 			writer.close();
@@ -3,4 +3,5 @@ package edu.isi.modeling.common;
 public interface ResponseJsonKey {
 	public static String MESSAGE = "message";
 	public static String ERROR = "error";
+	public static String STATUS = "status";
 }
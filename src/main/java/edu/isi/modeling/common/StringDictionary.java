@@ -0,0 +1,80 @@
+package edu.isi.modeling.common;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only dictionary that gives each string a dense int handle (0, 1, 2, ... in the order the 
+ * strings are added) and a canonical instance. It is thread-safe, the lookups do not lock.
+ */
+public class StringDictionary {
+
+	private final ConcurrentHashMap<String, Integer> handles;
+	private volatile String[] strings;
+	private int size;
+
+	public StringDictionary() {
+		this.handles = new ConcurrentHashMap<String, Integer>();
+		this.strings = new String[1024];
+		this.size = 0;
+	}
+
+	/**
+	 * @return the handle of the string, a new one if the string is not in the dictionary yet
+	 */
+	public int getHandle(String s) {
+		if (s == null)
+			return -1;
+		Integer handle = handles.get(s);
+		if (handle != null)
+			return handle.intValue();
+		return add(s);
+	}
+
+	/**
+	 * @return the handle of the string, or -1 if the string is not in the dictionary
+	 */
+	public int lookupHandle(Object s) {
+		if (s == null)
+			return -1;
+		Integer handle = handles.get(s);
+		return handle == null ? -1 : handle.intValue();
+	}
+
+	/**
+	 * @return the string of a handle returned by getHandle
+	 */
+	public String getString(int handle) {
+		if (handle < 0)
+			return null;
+		return strings[handle];
+	}
+
+	/**
+	 * @return the canonical instance of the string
+	 */
+	public String intern(String s) {
+		if (s == null)
+			return null;
+		Integer handle = handles.get(s);
+		if (handle != null)
+			return strings[handle.intValue()];
+		return strings[add(s)];
+	}
+
+	public int size() {
+		return handles.size();
+	}
+
+	private synchronized int add(String s) {
+		Integer handle = handles.get(s);
+		if (handle != null)
+			return handle.intValue();
+		if (size == strings.length)
+			strings = Arrays.copyOf(strings, size * 2);
+		// the string is stored before its handle is published, so a handle read from the map is always valid
+		strings[size] = s;
+		handles.put(s, size);
+		return size++;
+	}
+}
@@ -0,0 +1,49 @@
+package edu.isi.modeling.common;
+
+/**
+ * Process-wide dictionary of the uris (and other strings repeated in many objects, e.g., namespaces
+ * and prefixes). Each string gets a dense int handle and a canonical instance, so the labels of the
+ * thousands of nodes and links that have the same uri share one string instead of keeping their own
+ * copy, and comparing two canonical strings stops at the reference check.
+ * The dictionary only grows, it is meant for the strings of the ontology and of the models,
+ * not for the ids of the objects created by every request.
+ */
+public class UriDictionary {
+
+	private static final StringDictionary uris = new StringDictionary();
+
+	private UriDictionary() {
+	}
+
+	/**
+	 * @return the handle of the string, a new one if the string is not in the dictionary yet
+	 */
+	public static int getHandle(String s) {
+		return uris.getHandle(s);
+	}
+
+	/**
+	 * @return the handle of the string, or -1 if the string is not in the dictionary
+	 */
+	public static int lookupHandle(String s) {
+		return uris.lookupHandle(s);
+	}
+
+	/**
+	 * @return the string of a handle returned by getHandle
+	 */
+	public static String getString(int handle) {
+		return uris.getString(handle);
+	}
+
+	/**
+	 * @return the canonical instance of the string
+	 */
+	public static String intern(String s) {
+		return uris.intern(s);
+	}
+
+	public static int size() {
+		return uris.size();
+	}
+}
@@ -59,6 +59,11 @@ public class ModelingConfiguration {
 	private static Integer numCandidateMappings;
 	private static Integer mappingBranchingFactor;
 	private static Integer topKSteinerTree;
+	private static Boolean parallelSteinerSearch;
+	private static Integer steinerSearchBatchSize;
+	private static Long steinerSearchTimeout;
+	private static Long steinerSearchMaxEdges;
+	private static String steinerSolver;
 
 
 	private static Double scoringConfidenceCoefficient;
@@ -67,6 +72,11 @@ public class ModelingConfiguration {
 
 	private static Boolean learnerEnabled;
 	private static Boolean addOntologyPaths;
+	private static Integer modelLoadingThreads;
+	private static Boolean exportGraphJson;
+	private static Integer graphLogCompactionThreshold;
+	private static Long graphExportInterval;
+	private static Integer linkInferenceThreads;
 //	private static Boolean learnAlignmentEnabled;
 	private static Boolean multipleSamePropertyPerNode;
 	
@@ -130,11 +140,34 @@ public class ModelingConfiguration {
 			"" + newLine + 
 			"add.ontology.paths=false" + newLine + 
 			"" + newLine + 
+			"# number of threads parsing the json models when the alignment graph is built, 0 for the number of processors" + newLine + 
+			"model.loading.threads=0" + newLine + 
+			"# the alignment graph is saved in a binary snapshot (graph.bin), also export it to graph.json on every change" + newLine + 
+			"export.graph.json=false" + newLine + 
+			"# the changes of the alignment graph are logged (graph.log) and saved in the snapshot after this number of changes" + newLine + 
+			"graph.log.compaction.threshold=100" + newLine + 
+			"# the json and graphviz exports of the alignment graph are written in the background, at most once per interval (milliseconds)" + newLine + 
+			"graph.export.interval=5000" + newLine + 
+			"# number of threads inferring the links of the alignment graph from the ontology, 0 for the number of processors" + newLine + 
+			"link.inference.threads=0" + newLine + 
+			"" + newLine + 
 //			"learn.alignment.enabled=false" + newLine + 
 //			"" + newLine + 
 			"mapping.branching.factor=50" + newLine + 
 			"num.candidate.mappings=10" + newLine + 
 			"topk.steiner.tree=10" + newLine + 
+			"# algorithm computing the top-k Steiner trees: banks or dpbf (exact, for up to 12 terminals)" + newLine + 
+			"topk.steiner.solver=banks" + newLine + 
+			"# expand the iterators of the top-k Steiner tree search in parallel. Each mode returns the same trees in every run," + newLine + 
+			"# but the two modes expand the nodes in a different order and can return different trees." + newLine + 
+			"# The parallel searches of all the requests share one pool of threads, so a large search can delay the others," + newLine + 
+			"# and the budget of a parallel search is only checked between rounds (see topk.steiner.search.batch.size)" + newLine + 
+			"topk.steiner.search.parallel=false" + newLine + 
+			"# number of nodes each iterator expands in a round of the parallel search" + newLine + 
+			"topk.steiner.search.batch.size=16" + newLine + 
+			"# default budget of the top-k Steiner tree searches of a request, 0 for no limit (the results found so far are returned as partial)" + newLine + 
+			"topk.steiner.search.timeout=0" + newLine + 
+			"topk.steiner.search.max.edges=0" + newLine + 
 			"multiple.same.property.per.node=false" + newLine + 
 			"" + newLine + 
 			"# scoring coefficients, should be in range [0..1]" + newLine + 
@@ -165,6 +198,16 @@ public class ModelingConfiguration {
 
 			addOntologyPaths = Boolean.parseBoolean(modelingProperties.getProperty("add.ontology.paths", "true"));
 			
+			modelLoadingThreads = Integer.parseInt(modelingProperties.getProperty("model.loading.threads", "0"));
+			
+			exportGraphJson = Boolean.parseBoolean(modelingProperties.getProperty("export.graph.json", "false"));
+			
+			graphLogCompactionThreshold = Integer.parseInt(modelingProperties.getProperty("graph.log.compaction.threshold", "100"));
+			
+			graphExportInterval = Long.parseLong(modelingProperties.getProperty("graph.export.interval", "5000"));
+			
+			linkInferenceThreads = Integer.parseInt(modelingProperties.getProperty("link.inference.threads", "0"));
+			
 			thingNode = Boolean.parseBoolean(modelingProperties.getProperty("thing.node", "false"));
 
 			nodeClosure = Boolean.parseBoolean(modelingProperties.getProperty("node.closure", "true"));
@@ -187,6 +230,16 @@ public class ModelingConfiguration {
 
 			topKSteinerTree = Integer.parseInt(modelingProperties.getProperty("topk.steiner.tree", "20"));
 
+			steinerSolver = modelingProperties.getProperty("topk.steiner.solver", "banks");
+
+			parallelSteinerSearch = Boolean.parseBoolean(modelingProperties.getProperty("topk.steiner.search.parallel", "false"));
+
+			steinerSearchBatchSize = Integer.parseInt(modelingProperties.getProperty("topk.steiner.search.batch.size", "16"));
+
+			steinerSearchTimeout = Long.parseLong(modelingProperties.getProperty("topk.steiner.search.timeout", "0"));
+
+			steinerSearchMaxEdges = Long.parseLong(modelingProperties.getProperty("topk.steiner.search.max.edges", "0"));
+
 			multipleSamePropertyPerNode = Boolean.parseBoolean(modelingProperties.getProperty("multiple.same.property.per.node", "false"));
 
 			scoringConfidenceCoefficient = Double.parseDouble(modelingProperties.getProperty("scoring.confidence.coefficient", "1"));
@@ -351,6 +404,66 @@ public class ModelingConfiguration {
 		return topKSteinerTree;
 	}
 
+	public static String getSteinerSolver() {
+		if (steinerSolver == null)
+			load();
+		return steinerSolver;
+	}
+
+	public static boolean isParallelSteinerSearch() {
+		if (parallelSteinerSearch == null)
+			load();
+		return parallelSteinerSearch;
+	}
+
+	public static Integer getSteinerSearchBatchSize() {
+		if (steinerSearchBatchSize == null)
+			load();
+		return steinerSearchBatchSize;
+	}
+
+	public static Long getSteinerSearchTimeout() {
+		if (steinerSearchTimeout == null)
+			load();
+		return steinerSearchTimeout;
+	}
+
+	public static Long getSteinerSearchMaxEdges() {
+		if (steinerSearchMaxEdges == null)
+			load();
+		return steinerSearchMaxEdges;
+	}
+
+	public static Integer getModelLoadingThreads() {
+		if (modelLoadingThreads == null)
+			load();
+		return modelLoadingThreads;
+	}
+
+	public static Boolean getExportGraphJson() {
+		if (exportGraphJson == null)
+			load();
+		return exportGraphJson;
+	}
+
+	public static Integer getGraphLogCompactionThreshold() {
+		if (graphLogCompactionThreshold == null)
+			load();
+		return graphLogCompactionThreshold;
+	}
+
+	public static Long getGraphExportInterval() {
+		if (graphExportInterval == null)
+			load();
+		return graphExportInterval;
+	}
+
+	public static Integer getLinkInferenceThreads() {
+		if (linkInferenceThreads == null)
+			load();
+		return linkInferenceThreads;
+	}
+
 	public static Double getScoringConfidenceCoefficient() {
 		if (scoringConfidenceCoefficient == null)
 			load();
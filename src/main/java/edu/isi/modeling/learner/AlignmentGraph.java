@@ -24,22 +24,36 @@ package edu.isi.modeling.learner;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jgrapht.graph.DirectedWeightedMultigraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Sets;
 
+import edu.isi.modeling.alignment.CompositeKey;
 import edu.isi.modeling.alignment.GraphBuilder;
 import edu.isi.modeling.alignment.GraphBuilderTopK;
+import edu.isi.modeling.alignment.GraphSnapshotUtil;
 import edu.isi.modeling.alignment.GraphUtil;
 import edu.isi.modeling.alignment.GraphVizLabelType;
 import edu.isi.modeling.alignment.GraphVizUtil;
@@ -56,22 +70,74 @@ import edu.isi.modeling.rep.InternalNode;
 import edu.isi.modeling.rep.Label;
 import edu.isi.modeling.rep.LabeledLink;
 import edu.isi.modeling.rep.LinkStatus;
+import edu.isi.modeling.rep.ModelIdSet;
 import edu.isi.modeling.rep.Node;
 import edu.isi.modeling.rep.NodeSupportingModelsComparator;
 import edu.isi.modeling.webserver.ContextParameterMap;
 import edu.isi.modeling.webserver.ContextParameterMap.ContextParameter;
 import edu.isi.modeling.webserver.ContextParametersRegistry;
 
+/**
+ * The alignment graph is published in versions. The readers (suggestions, model learners) take the 
+ * last published version and never see it change. A writer builds the next version as an overlay of 
+ * the last one, copying the nodes and the links before changing them, and publishes it by swapping 
+ * a single reference. The writers are serialized, and a writer that fails publishes nothing.
+ */
 public class AlignmentGraph {
 
 	private static Logger logger = LoggerFactory.getLogger(AlignmentGraph.class);
 	
-	private static ConcurrentHashMap<OntologyManager, AlignmentGraph> instances = new ConcurrentHashMap<OntologyManager, AlignmentGraph>();
+	// the next version is built from a plain copy of the graph after this number of overlays
+	private static final int MAX_OVERLAY_DEPTH = 16;
+	
+	// the instances are loaded once, all the callers wait for the same load
+	private static ConcurrentHashMap<OntologyManager, FutureTask<AlignmentGraph>> instances = new ConcurrentHashMap<OntologyManager, FutureTask<AlignmentGraph>>();
+	// threads parsing the json models of all the instances, created on the first load from the json repository
+	private static ExecutorService modelLoadingExecutor;
 	protected OntologyManager ontologyManager;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>();
+	private final Object writeLock = new Object();
+	// graph builder of the version being built, only used while holding the write lock
 	protected GraphBuilder graphBuilder;
-	protected NodeIdFactory nodeIdFactory; 
-	protected long lastUpdateTime;
+	private int overlayDepth;
 	protected int totalNumberOfKnownModels;
+	// changes made after the last snapshot, null if the graph is not persisted
+	private AlignmentGraphLog log;
+	// writes the json and graphviz exports in the background, null if the graph is not persisted, 
+	// while it is loaded and once it is closed
+	private volatile AlignmentGraphExporter exporter;
+	
+	/**
+	 * A published version of the alignment graph. Its graph builder is never modified, 
+	 * so it can be read by any number of threads without locking.
+	 */
+	public static class Snapshot {
+		
+		private final long version;
+		private final GraphBuilder graphBuilder;
+		private final long updateTime;
+		// number of overlays between the graph builder and a plain graph builder
+		private final int overlayDepth;
+		
+		private Snapshot(long version, GraphBuilder graphBuilder, long updateTime, int overlayDepth) {
+			this.version = version;
+			this.graphBuilder = graphBuilder;
+			this.updateTime = updateTime;
+			this.overlayDepth = overlayDepth;
+		}
+		
+		public long getVersion() {
+			return version;
+		}
+		
+		public GraphBuilder getGraphBuilder() {
+			return graphBuilder;
+		}
+		
+		public long getUpdateTime() {
+			return updateTime;
+		}
+	}
 	
 	private final String getGraphJsonName()
 	{
@@ -83,26 +149,176 @@ public class AlignmentGraph {
 		ContextParameterMap contextParameters = ContextParametersRegistry.getInstance().getContextParameters(ontologyManager.getContextId());
 		return contextParameters.getParameterValue(ContextParameter.ALIGNMENT_GRAPH_DIRECTORY) + "graph.dot";
 	}
+	private final String getGraphSnapshotName()
+	{
+		ContextParameterMap contextParameters = ContextParametersRegistry.getInstance().getContextParameters(ontologyManager.getContextId());
+		return contextParameters.getParameterValue(ContextParameter.ALIGNMENT_GRAPH_DIRECTORY) + "graph.bin";
+	}
+	private final String getGraphLogName()
+	{
+		ContextParameterMap contextParameters = ContextParametersRegistry.getInstance().getContextParameters(ontologyManager.getContextId());
+		return contextParameters.getParameterValue(ContextParameter.ALIGNMENT_GRAPH_DIRECTORY) + "graph.log";
+	}
 
+	public enum State {
+		NotStarted,
+		Loading,
+		Ready,
+		Failed
+	}
+	
+	/**
+	 * returns the alignment graph of the ontology manager, and loads it in the calling thread if nobody has 
+	 * started loading it. If the graph is being loaded, waits until the load is done.
+	 * @return null if the graph cannot be loaded
+	 */
 	public static AlignmentGraph getInstance(OntologyManager ontologyManager) {
-		AlignmentGraph instance = null;
-		AlignmentGraph previousInstance = null;
-		if (!instances.containsKey(ontologyManager)) {
-			try {
-				instance = new AlignmentGraph(ontologyManager);
-				previousInstance = instances.putIfAbsent(ontologyManager, instance);
-				if(previousInstance != null)
-					instance = previousInstance;
-			} catch (IOException e) {
-				logger.error("error in importing the main learning graph!", e);
-				return null;
+		FutureTask<AlignmentGraph> loader = getLoader(ontologyManager, false);
+		try {
+			return loader.get();
+		} catch (ExecutionException e) {
+			logger.error("error in importing the main learning graph!", e.getCause());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("interrupted while waiting for the main learning graph!");
+			return null;
+		}
+	}
+	
+	/**
+	 * returns the alignment graph of the ontology manager without waiting for it or starting to load it
+	 * @return null if the graph is not loaded (see getState)
+	 */
+	public static AlignmentGraph getLoadedInstance(OntologyManager ontologyManager) {
+		FutureTask<AlignmentGraph> loader = instances.get(ontologyManager);
+		if (loader == null || !loader.isDone() || hasFailed(loader))
+			return null;
+		try {
+			return loader.get();
+		} catch (ExecutionException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+	
+	/**
+	 * starts loading the alignment graph of the ontology manager in a background thread, 
+	 * unless it is already loaded or being loaded
+	 */
+	public static Future<AlignmentGraph> loadInBackground(OntologyManager ontologyManager) {
+		return getLoader(ontologyManager, true);
+	}
+	
+	/**
+	 * @return whether the alignment graph of the ontology manager is ready, without waiting for it
+	 */
+	public static State getState(OntologyManager ontologyManager) {
+		FutureTask<AlignmentGraph> loader = instances.get(ontologyManager);
+		if (loader == null) return State.NotStarted;
+		if (!loader.isDone()) return State.Loading;
+		return hasFailed(loader) ? State.Failed : State.Ready;
+	}
+	
+	/**
+	 * @return the load of the alignment graph, a load that failed is started again
+	 */
+	private static FutureTask<AlignmentGraph> getLoader(final OntologyManager ontologyManager, boolean inBackground) {
+		while (true) {
+			FutureTask<AlignmentGraph> loader = instances.get(ontologyManager);
+			if (loader != null && !hasFailed(loader))
+				return loader;
+			
+			FutureTask<AlignmentGraph> newLoader = new FutureTask<AlignmentGraph>(new Callable<AlignmentGraph>() {
+				public AlignmentGraph call() throws Exception {
+					return new AlignmentGraph(ontologyManager);
+				}
+			});
+			boolean installed = loader == null ? 
+					instances.putIfAbsent(ontologyManager, newLoader) == null : 
+					instances.replace(ontologyManager, loader, newLoader);
+			if (!installed)
+				continue;
+			
+			if (inBackground) {
+				Thread t = new Thread(newLoader, "alignment-graph-loader");
+				t.setDaemon(true);
+				t.start();
+			} else {
+				newLoader.run();
 			}
+			return newLoader;
 		}
-		else
-		{
-			instance = instances.get(ontologyManager);
+	}
+	
+	/**
+	 * drops the alignment graph of the ontology manager, e.g., when the ontology manager is replaced. 
+	 * The pending exports are written and the background exporter is stopped. A load in progress is 
+	 * not interrupted, its graph is closed once it is done.
+	 */
+	public static void unload(OntologyManager ontologyManager) {
+		final FutureTask<AlignmentGraph> loader = instances.remove(ontologyManager);
+		if (loader == null)
+			return;
+		if (loader.isDone()) {
+			close(loader);
+			return;
+		}
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				close(loader);
+			}
+		}, "alignment-graph-unloader");
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	private static void close(FutureTask<AlignmentGraph> loader) {
+		AlignmentGraph alignmentGraph;
+		try {
+			alignmentGraph = loader.get();
+		} catch (ExecutionException e) {
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		alignmentGraph.close();
+	}
+	
+	/**
+	 * writes the pending exports, stops the background exporter and closes the log
+	 */
+	private void close() {
+		synchronized (this.writeLock) {
+			if (this.exporter != null) {
+				this.exporter.close();
+				this.exporter = null;
+			}
+			if (this.log != null) {
+				try {
+					this.log.close();
+				} catch (IOException e) {
+					logger.error("error in closing the log of the alignment graph!", e);
+				}
+			}
+		}
+	}
+	
+	private static boolean hasFailed(Future<AlignmentGraph> loader) {
+		if (!loader.isDone())
+			return false;
+		try {
+			loader.get();
+			return false;
+		} catch (ExecutionException e) {
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
-		return instance;
 	}
 
 	public static AlignmentGraph getEmptyInstance(OntologyManager ontologyManager) {
@@ -119,34 +335,81 @@ public class AlignmentGraph {
 		
 		this.ontologyManager = ontologyManager;
 		this.totalNumberOfKnownModels = 0;
+		this.log = new AlignmentGraphLog(getGraphLogName());
+		
+		DirectedWeightedMultigraph<Node, DefaultLink> graph = null;
+		long[] logSequence = new long[1];
+		boolean fromSnapshot = false;
+		// the json export may be older than the snapshot, so it is not used in place of a snapshot that cannot be read
+		if (new File(getGraphSnapshotName()).exists()) {
+			logger.info("loading the alignment graph from the snapshot ...");
+			try {
+				graph = GraphSnapshotUtil.importSnapshot(getGraphSnapshotName(), logSequence);
+			} catch (Exception e) {
+				throw new IOException("the alignment graph snapshot " + getGraphSnapshotName() + " cannot be read, " + 
+						"remove it and the log " + getGraphLogName() + " to build the graph from the json repository", e);
+			}
+			if (graph == null)
+				throw new IOException("the alignment graph snapshot " + getGraphSnapshotName() + " cannot be read, " + 
+						"remove it and the log " + getGraphLogName() + " to build the graph from the json repository");
+			fromSnapshot = true;
+		}
 		
-		File file = new File(getGraphJsonName());
-		if (!file.exists()) {
+		// the logged changes are only replayed on top of the snapshot they follow
+		List<AlignmentGraphLog.Record> records = this.log.read(fromSnapshot ? logSequence[0] : 0);
+		if (!fromSnapshot && !records.isEmpty())
+			throw new IOException("the alignment graph snapshot " + getGraphSnapshotName() + " is missing, " + 
+					"the " + records.size() + " changes of the log " + getGraphLogName() + " cannot be replayed");
+		
+		if (!fromSnapshot && new File(getGraphJsonName()).exists()) {
+			logger.info("loading the alignment graph from json ...");
+			graph = GraphUtil.importJson(getGraphJsonName());
+		}
+		
+		if (graph == null) {
 			this.initializeFromJsonRepository();
 		} else {
-			logger.info("loading the alignment graph ...");
-			DirectedWeightedMultigraph<Node, DefaultLink> graph =
-					GraphUtil.importJson(getGraphJsonName());
 			this.graphBuilder = new GraphBuilderTopK(ontologyManager, graph);
-			this.nodeIdFactory = this.graphBuilder.getNodeIdFactory();
+			this.overlayDepth = 0;
+			// the count is not saved with the graph, every model of the graph supports some of its nodes or links
+			this.totalNumberOfKnownModels = this.graphBuilder.getModelIds().size();
+			this.publish();
+			if (!fromSnapshot)
+				this.exportSnapshot();
+			else if (!records.isEmpty())
+				this.replayLog(records);
 			logger.info("loading is done!");
 		}
-		if (this.graphBuilder.getGraph() != null) {
-			logger.info("number of nodes: " + this.graphBuilder.getGraph().vertexSet().size());
-			logger.info("number of links: " + this.graphBuilder.getGraph().edgeSet().size());
+		GraphBuilder gb = this.getGraphBuilder();
+		if (gb.getGraph() != null) {
+			logger.info("number of nodes: " + gb.getGraph().vertexSet().size());
+			logger.info("number of links: " + gb.getGraph().edgeSet().size());
 		}
-		this.lastUpdateTime = System.currentTimeMillis();
+		
+		// the exporter is only started once the graph is loaded, a load that fails leaves nothing running
+		this.exporter = new AlignmentGraphExporter(this, ModelingConfiguration.getGraphExportInterval());
 	}
 	
 	protected AlignmentGraph(OntologyManager ontologyManager, boolean emptyInstance) {
 		this.ontologyManager = ontologyManager;
 		this.graphBuilder = new GraphBuilderTopK(ontologyManager, false);
-		this.nodeIdFactory = this.graphBuilder.getNodeIdFactory();
-		this.lastUpdateTime = System.currentTimeMillis();
+		this.overlayDepth = 0;
+		this.publish();
 	}
 	
+	/**
+	 * @return the last published version of the graph
+	 */
+	public Snapshot getSnapshot() {
+		return this.snapshot.get();
+	}
+	
+	/**
+	 * @return the graph builder of the last published version, it must not be modified 
+	 * (see GraphBuilderTopK(GraphBuilderTopK) to make changes on top of it)
+	 */
 	public GraphBuilder getGraphBuilder() {
-		return this.graphBuilder;
+		return this.getSnapshot().getGraphBuilder();
 	}
 	
 	public GraphBuilder getGraphBuilderClone() {
@@ -155,58 +418,340 @@ public class AlignmentGraph {
 		return clonedGraphBuilder;
 	}
 	
+	/**
+	 * @return a copy of the node id factory of the last published version
+	 */
 	public NodeIdFactory getNodeIdFactory() {
-		return this.nodeIdFactory;
+		return this.getGraphBuilder().getNodeIdFactory().clone();
 	}
 	
 	public long getLastUpdateTime() {
-		return this.lastUpdateTime;
+		return this.getSnapshot().getUpdateTime();
+	}
+	
+	/**
+	 * starts a new version as an overlay of the last published one. 
+	 * Every few versions, the overlay is put on top of a plain copy of the graph, so the reads 
+	 * do not go through a long chain of overlays. The copy shares its nodes with the published 
+	 * version, but they are not modified because the changes go to the overlay. The state that 
+	 * cannot be derived from the graph (the link inference and the pattern links) is copied too.
+	 */
+	private void beginUpdate() {
+		Snapshot current = this.getSnapshot();
+		GraphBuilderTopK base = (GraphBuilderTopK)current.getGraphBuilder();
+		int depth = current.overlayDepth;
+		if (depth >= MAX_OVERLAY_DEPTH) {
+			GraphBuilderTopK flattened = new GraphBuilderTopK(this.ontologyManager, base.getGraph());
+			flattened.copyLinkInferenceState(base);
+			flattened.copyPatternLinks(base);
+			base = flattened;
+			depth = 0;
+		}
+		this.graphBuilder = new GraphBuilderTopK(base);
+		this.overlayDepth = depth + 1;
+	}
+	
+	/**
+	 * publishes the graph builder of the version being built as the next version
+	 */
+	private void publish() {
+		this.graphBuilder.freeze();
+		Snapshot current = this.getSnapshot();
+		long version = current == null ? 1 : current.getVersion() + 1;
+		this.snapshot.set(new Snapshot(version, this.graphBuilder, System.currentTimeMillis(), this.overlayDepth));
+		this.graphBuilder = null;
 	}
 	
 	public void initializeFromJsonRepository() {
+		synchronized (this.writeLock) {
+			this.buildFromJsonRepository();
+			this.publish();
+			this.compactLog();
+			this.export();
+		}
+		logger.info("initialization is done!");
+	}
+	
+	private void buildFromJsonRepository() {
 		logger.info("initializing the graph from models in the json repository ...");
 		ContextParameterMap contextParameters = ContextParametersRegistry.getInstance().getContextParameters(ontologyManager.getContextId());
 		this.graphBuilder = new GraphBuilderTopK(ontologyManager, false);
-		this.nodeIdFactory = new NodeIdFactory();
+		this.overlayDepth = 0;
+		this.totalNumberOfKnownModels = 0;
 		
 		Set<InternalNode> addedNodes = new HashSet<InternalNode>();
 		Set<InternalNode> temp;
 		File ff = new File(contextParameters.getParameterValue(ContextParameter.JSON_MODELS_DIR));
-		if (ff.exists()) {
-			File[] files = ff.listFiles();
-			
-			for (File f : files) {
-				if (f.getName().endsWith(".json")) {
-					try {
-						SemanticModel model = SemanticModel.readJson(f.getAbsolutePath());
-						if (model != null) {
-							temp = this.addModel(model, PatternWeightSystem.JWSPaperFormula);
-							if (temp != null) addedNodes.addAll(temp);
-						}
-					} catch (Exception e) {
-						logger.error(e.getMessage());
-					}
+		if (!ff.exists())
+			return;
+		
+		List<File> files = new ArrayList<File>();
+		File[] listedFiles = ff.listFiles();
+		if (listedFiles != null)
+			for (File f : listedFiles)
+				if (f.getName().endsWith(".json"))
+					files.add(f);
+		// the models are added in the order of their file names, so the node ids do not depend on the parsing order
+		Collections.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				return f1.getName().compareTo(f2.getName());
+			}
+		});
+		
+		long start = System.currentTimeMillis();
+		List<SemanticModel> models = this.readJsonModels(files);
+		long parsingTime = System.currentTimeMillis() - start;
+		
+		start = System.currentTimeMillis();
+		for (int i = 0; i < files.size(); i++) {
+			SemanticModel model = models.get(i);
+			if (model == null) continue;
+			try {
+				temp = this.addModelToGraph(model, PatternWeightSystem.JWSPaperFormula);
+				if (temp != null) addedNodes.addAll(temp);
+			} catch (Exception e) {
+				logger.error("error in adding the model " + files.get(i).getName() + " to the graph: " + e.getMessage());
+			}
+		}
+		long mergingTime = System.currentTimeMillis() - start;
+		
+		logger.info("number of json models: " + files.size() + 
+				", parsing time: " + parsingTime + "ms" + 
+				", merging time: " + mergingTime + "ms");
+	}
+	
+	/**
+	 * parses the json models with the threads of a shared pool (see getModelLoadingExecutor). 
+	 * If the calling thread is interrupted, it keeps the models that are parsed and parses the other ones itself.
+	 * @return the models in the order of the files, null for the files that cannot be read
+	 */
+	private List<SemanticModel> readJsonModels(List<File> files) {
+		
+		List<SemanticModel> models = new ArrayList<SemanticModel>(files.size());
+		ExecutorService executor = getModelLoadingExecutor();
+		List<Future<SemanticModel>> results = new ArrayList<Future<SemanticModel>>(files.size());
+		for (final File f : files) {
+			results.add(executor.submit(new Callable<SemanticModel>() {
+				public SemanticModel call() throws Exception {
+					return SemanticModel.readJson(f.getAbsolutePath());
 				}
+			}));
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < files.size(); i++) {
+			Future<SemanticModel> result = results.get(i);
+			if (interrupted && !result.isDone())
+				result.cancel(false);
+			try {
+				if (!result.isCancelled()) {
+					models.add(result.get());
+					continue;
+				}
+			} catch (ExecutionException e) {
+				logger.error("error in reading the model " + files.get(i).getName() + ": " + e.getCause().getMessage());
+				models.add(null);
+				continue;
+			} catch (InterruptedException e) {
+				interrupted = true;
+				logger.error("reading the json models is interrupted, the remaining models are read by the calling thread!");
 			}
+			SemanticModel model = null;
+			try {
+				model = SemanticModel.readJson(files.get(i).getAbsolutePath());
+			} catch (Exception e) {
+				logger.error("error in reading the model " + files.get(i).getName() + ": " + e.getMessage());
+			}
+			models.add(model);
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return models;
+	}
+	
+	/**
+	 * returns the pool shared by the loads of all the instances. Its size is the number of threads 
+	 * configured when it is created (see ModelingConfiguration.getModelLoadingThreads), 
+	 * and its threads stop when they are idle for a while.
+	 */
+	private static synchronized ExecutorService getModelLoadingExecutor() {
+		if (modelLoadingExecutor == null) {
+			int numOfThreads = ModelingConfiguration.getModelLoadingThreads();
+			if (numOfThreads <= 0)
+				numOfThreads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(numOfThreads, numOfThreads, 
+					60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "json-model-loader");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			modelLoadingExecutor = executor;
+		}
+		return modelLoadingExecutor;
+	}
+	
+	/**
+	 * logs a change of the version being built and publishes the version. 
+	 * The log is compacted into a snapshot once it has enough changes, or if the change cannot be logged.
+	 * @param models the models of the change, they are logged after the other arguments
+	 */
+	private void logAndPublish(AlignmentGraphLog.Operation operation, List<SemanticModel> models, String... arguments) {
+		boolean logged = false;
+		if (this.log != null) {
+			try {
+				if (models != null) {
+					int numOfArguments = arguments.length;
+					arguments = Arrays.copyOf(arguments, numOfArguments + models.size());
+					for (int i = 0; i < models.size(); i++)
+						arguments[numOfArguments + i] = models.get(i).writeJsonToString();
+				}
+				this.log.append(operation, arguments);
+				logged = true;
+			} catch (Exception e) {
+				logger.error("error in logging the change of the alignment graph!", e);
+			}
+		}
+		this.publish();
+		if (this.log != null && 
+				(!logged || this.log.size() >= ModelingConfiguration.getGraphLogCompactionThreshold()))
+			this.compactLog();
+	}
+	
+	/**
+	 * saves the last published version in a snapshot, which includes all the logged changes, and empties the log. 
+	 * The log is only emptied once the snapshot and its directory entry are synced to the disk, 
+	 * if the snapshot cannot be saved the log is kept.
+	 */
+	private void compactLog() {
+		if (this.log == null)
+			return;
+		try {
+			GraphSnapshotUtil.exportSnapshot(this.getGraphBuilder().getGraph(), getGraphSnapshotName(), 
+					this.log.getLastSequence());
+			this.log.clear();
+		} catch (Exception e) {
+			logger.error("error in exporting the alignment graph snapshot!", e);
+		}
+	}
+	
+	/**
+	 * applies the changes logged after the snapshot the graph is loaded from
+	 */
+	private void replayLog(List<AlignmentGraphLog.Record> records) {
+		logger.info("replaying " + records.size() + " changes from the log ...");
+		synchronized (this.writeLock) {
+			this.beginUpdate();
+			for (AlignmentGraphLog.Record record : records) {
+				try {
+					this.apply(record);
+				} catch (Exception e) {
+					logger.error("error in replaying the change " + record.getSequence() + " of the log!", e);
+				}
+			}
+			this.publish();
+			this.compactLog();
+		}
+	}
+	
+	private void apply(AlignmentGraphLog.Record record) throws IOException {
+		String[] arguments = record.getArguments();
+		SemanticModel model;
+		switch (record.getOperation()) {
+		case AddModel:
+			model = SemanticModel.readJsonFromString(arguments[2]);
+			this.addModelToGraph(model, PatternWeightSystem.valueOf(arguments[0]));
+			if (Boolean.parseBoolean(arguments[1]))
+				this.updateGraphUsingOntology(model);
+			break;
+		case RemoveModel:
+			this.removeModelFromGraph(arguments[1], PatternWeightSystem.valueOf(arguments[0]));
+			break;
+		case ReplaceModel:
+			model = SemanticModel.readJsonFromString(arguments[1]);
+			this.removeModelFromGraph(model.getId(), PatternWeightSystem.valueOf(arguments[0]));
+			this.addModelToGraph(model, PatternWeightSystem.valueOf(arguments[0]));
+			this.updateGraphUsingOntology(model);
+			break;
+		case AddModels:
+			List<SemanticModel> models = new ArrayList<SemanticModel>();
+			for (int i = 1; i < arguments.length; i++)
+				models.add(SemanticModel.readJsonFromString(arguments[i]));
+			this.addModelsToGraph(models, PatternWeightSystem.valueOf(arguments[0]), null);
+			break;
+		case AddLodPattern:
+			this.addLodPatternToGraph(SemanticModel.readJsonFromString(arguments[0]));
+			break;
+		case UpdateUsingOntology:
+			Set<InternalNode> nodes = new HashSet<InternalNode>();
+			for (String id : arguments) {
+				Node n = this.graphBuilder.getIdToNodeMap().get(id);
+				if (n instanceof InternalNode) nodes.add((InternalNode)n);
+			}
+			this.graphBuilder.addClosureAndUpdateLinks(nodes, null);
+			break;
+		}
+	}
+	
+	/**
+	 * requests the json (if enabled) and graphviz exports of the last published version, 
+	 * they are written in the background (see AlignmentGraphExporter)
+	 */
+	private void export() {
+		if (this.exporter != null)
+			this.exporter.requestExport();
+		else
+			this.export(this.getSnapshot());
+	}
+	
+	void export(Snapshot snapshot) {
+		DirectedWeightedMultigraph<Node, DefaultLink> graph = snapshot.getGraphBuilder().getGraph();
+		if (ModelingConfiguration.getExportGraphJson())
+			this.exportJson(graph);
+		this.exportGraphviz(graph);
+	}
+	
+	/**
+	 * writes the pending json and graphviz exports now
+	 * @return false if there was nothing to export
+	 */
+	public boolean flushExports() {
+		AlignmentGraphExporter exporter = this.exporter;
+		if (exporter != null)
+			return exporter.flush();
+		this.export(this.getSnapshot());
+		return true;
+	}
+	
+	/**
+	 * saves the last published version in the snapshot that is loaded at startup
+	 */
+	public void exportSnapshot() {
+		synchronized (this.writeLock) {
+			this.compactLog();
 		}
-				
-		this.exportJson();
-		this.exportGraphviz();
-		this.lastUpdateTime = System.currentTimeMillis();
-		logger.info("initialization is done!");
 	}
 	
 	public void exportJson() {
+		this.exportJson(this.getGraphBuilder().getGraph());
+	}
+	
+	private void exportJson(DirectedWeightedMultigraph<Node, DefaultLink> graph) {
 		try {
-			GraphUtil.exportJson(this.graphBuilder.getGraph(), getGraphJsonName(), true, true);
+			GraphUtil.exportJson(graph, getGraphJsonName(), true, true);
 		} catch (Exception e) {
 			logger.error("error in exporting the alignment graph to json!");
 		}
 	}
 	
 	public void exportGraphviz() {
+		this.exportGraphviz(this.getGraphBuilder().getGraph());
+	}
+	
+	private void exportGraphviz(DirectedWeightedMultigraph<Node, DefaultLink> graph) {
 		try {
-			GraphVizUtil.exportJGraphToGraphviz(this.graphBuilder.getGraph(), 
+			GraphVizUtil.exportJGraphToGraphviz(graph, 
 					"main graph", 
 					true, 
 					GraphVizLabelType.LocalId,
@@ -220,15 +765,22 @@ public class AlignmentGraph {
 	}
 	
 	public void addModelAndUpdate(SemanticModel model, PatternWeightSystem weightSystem) {
-		this.addModel(model, weightSystem);
-		this.updateGraphUsingOntology(model);
+		synchronized (this.writeLock) {
+			this.beginUpdate();
+			this.addModelToGraph(model, weightSystem);
+			this.updateGraphUsingOntology(model);
+			this.logAndPublish(AlignmentGraphLog.Operation.AddModel, Collections.singletonList(model), weightSystem.name(), "true");
+		}
 	}
 	
 	public void addModelAndUpdateAndExport(SemanticModel model, PatternWeightSystem weightSystem) {
-		this.addModel(model, weightSystem);
-		this.updateGraphUsingOntology(model);
-		this.exportJson();
-		this.exportGraphviz();
+		synchronized (this.writeLock) {
+			this.beginUpdate();
+			this.addModelToGraph(model, weightSystem);
+			this.updateGraphUsingOntology(model);
+			this.logAndPublish(AlignmentGraphLog.Operation.AddModel, Collections.singletonList(model), weightSystem.name(), "true");
+			this.export();
+		}
 	}
 	
 	private void updateGraphUsingOntology(SemanticModel model) {
@@ -237,30 +789,40 @@ public class AlignmentGraph {
 	}
 	
 	public void updateGraphUsingOntology(Set<InternalNode> nodes) {
-		if (ModelingConfiguration.getAddOntologyPaths())
+		if (!ModelingConfiguration.getAddOntologyPaths())
+			return;
+		synchronized (this.writeLock) {
+			this.beginUpdate();
 			this.graphBuilder.addClosureAndUpdateLinks(nodes, null);
+			List<String> nodeIds = new ArrayList<String>();
+			if (nodes != null)
+				for (InternalNode n : nodes)
+					nodeIds.add(n.getId());
+			this.logAndPublish(AlignmentGraphLog.Operation.UpdateUsingOntology, null, nodeIds.toArray(new String[0]));
+		}
 	}
 	
 	public boolean contains(DirectedWeightedMultigraph<Node, LabeledLink> graph) {
 		
-		if (graph == null || this.graphBuilder == null || this.graphBuilder.getGraph() == null)
+		GraphBuilder gb = this.getGraphBuilder();
+		if (graph == null || gb == null || gb.getGraph() == null)
 			return false;
 		
-		Set<String> commonModelIds = null;
+		ModelIdSet commonModelIds = null;
 		LabeledLink matchedLink = null;
 		boolean firstVisit = true;
 		for (LabeledLink l : graph.edgeSet()) {
-			matchedLink = this.graphBuilder.getIdToLinkMap().get(l.getId());
+			matchedLink = gb.getIdToLinkMap().get(l.getId());
 			if (matchedLink == null)
 				return false;
 			if (firstVisit) {
-				commonModelIds = matchedLink.getModelIds();
+				commonModelIds = ModelIdSet.of(matchedLink.getModelIds());
 				firstVisit = false;
 			} else {
 				if (commonModelIds == null || matchedLink.getModelIds() == null)
 					return false;
-				commonModelIds = Sets.intersection(matchedLink.getModelIds(), commonModelIds);
-				if (commonModelIds.size() == 0) // no intersection
+				commonModelIds = commonModelIds.intersection(ModelIdSet.of(matchedLink.getModelIds()));
+				if (commonModelIds.isEmpty()) // no intersection
 					return false;
 			}
 		}
@@ -290,7 +852,7 @@ public class AlignmentGraph {
 			int graphNodeCount = matchedNodes == null ? 0 : matchedNodes.size();
 			
 			for (int i = 0; i < modelNodeCount - graphNodeCount; i++) {
-				String id = this.nodeIdFactory.getNodeId(uri);
+				String id = this.graphBuilder.getNodeIdFactory().getNodeId(uri);
 				Node n = new InternalNode(id, new Label(uri));
 				if (this.graphBuilder.addNode(n))
 					addedNodes.add((InternalNode)n);
@@ -346,7 +908,7 @@ public class AlignmentGraph {
 		if (internalNodeMapping == null || internalNodeMapping.isEmpty()) 
 			return null;
 
-		HashMap<String,List<Node>> dataPropertyColumnNodes = new HashMap<String,List<Node>>();
+		HashMap<CompositeKey,List<Node>> dataPropertyColumnNodes = new HashMap<CompositeKey,List<Node>>();
 		
 		HashMap<Node,Node> columnNodeMapping = new HashMap<Node,Node>();
 		
@@ -361,7 +923,7 @@ public class AlignmentGraph {
 					Node domain = l.getSource();
 					Node mappedNode = internalNodeMapping.get(domain);
 					String linkUri =  l.getUri(); 
-					String key =  mappedNode.getId() + linkUri;
+					CompositeKey key = CompositeKey.of(mappedNode.getId(), linkUri);
 					
 					List<Node> sortedMatchedNodes;
 					if (dataPropertyColumnNodes.containsKey(key)) { 
@@ -390,9 +952,22 @@ public class AlignmentGraph {
 		return columnNodeMapping;
 	}
 	
+	/**
+	 * weight of a pattern link in the JWS paper formula: wl - x/(n+1), where wl = 1, x is the number 
+	 * of models supporting the link and n is the total number of models. The links to the column nodes 
+	 * keep the pattern link weight.
+	 */
+	private double getJWSWeight(Node target, int numOfPatterns) {
+		if (!(target instanceof InternalNode))
+			return ModelingParams.PATTERN_LINK_WEIGHT;
+		return ModelingParams.PATTERN_LINK_WEIGHT - 
+				((double) numOfPatterns / (double) (this.totalNumberOfKnownModels + 1));
+	}
+	
 	private void addLinks(SemanticModel model, 
 			HashMap<Node, Node> internalNodeMapping, 
 			HashMap<Node, Node> columnNodeMapping,
+			Set<InternalNode> addedInternalNodes,
 			PatternWeightSystem weightSystem) {
 		
 		if (model == null) 
@@ -407,6 +982,9 @@ public class AlignmentGraph {
 		if (internalNodeMapping != null) mapping.putAll(internalNodeMapping);
 		if (columnNodeMapping != null) mapping.putAll(columnNodeMapping);
 		
+		// links between internal nodes to copy to the other nodes having the uris of their ends
+		List<LabeledLink> linksToPropagate = new ArrayList<LabeledLink>();
+		
 		for (LabeledLink e : model.getGraph().edgeSet()) {
 			
 			source = e.getSource();
@@ -424,9 +1002,14 @@ public class AlignmentGraph {
 				continue;
 			}
 			
+			// the nodes and the links may be shared with the published version, so they are copied before being changed
+			n1 = this.graphBuilder.getModifiableNode(n1);
+			n2 = this.graphBuilder.getModifiableNode(n2);
+			
 			String id = LinkIdFactory.getLinkId(e.getUri(), n1.getId(), n2.getId());
 			LabeledLink l = this.graphBuilder.getIdToLinkMap().get(id);
 			if (l != null) {
+				l = (LabeledLink)this.graphBuilder.getModifiableLink(l);
 				int numOfPatterns = l.getModelIds().size();
 				if (weightSystem == PatternWeightSystem.OriginalWeights) {
 					double currentW = l.getWeight();
@@ -434,23 +1017,13 @@ public class AlignmentGraph {
 					if (newW < currentW)
 						this.graphBuilder.changeLinkWeight(l, newW);
 				} else if (weightSystem == PatternWeightSystem.JWSPaperFormula) {
-					if (n2 instanceof InternalNode) {
-						// wl - x/(n+1)
-						// wl = 1
-						// x = (numOfPatterns + 1)
-						// n = totalNumberOfPatterns
-						this.graphBuilder.changeLinkWeight(l, ModelingParams.PATTERN_LINK_WEIGHT - 
-								((double) (numOfPatterns + 1) / (double) (this.totalNumberOfKnownModels + 1) ));
-//						this.graphBuilder.changeLinkWeight(l, ModelingParams.PATTERN_LINK_WEIGHT - (0.00001 * numOfPatterns) );
-					} else {
-						this.graphBuilder.changeLinkWeight(l, ModelingParams.PATTERN_LINK_WEIGHT);
-					}
+					this.graphBuilder.changeLinkWeight(l, this.getJWSWeight(n2, numOfPatterns + 1));
 				} else {
 					this.graphBuilder.changeLinkWeight(l, ModelingParams.PATTERN_LINK_WEIGHT);
 				}
-				l.getModelIds().add(modelId);
-				n1.getModelIds().add(modelId);
-				n2.getModelIds().add(modelId);
+				this.graphBuilder.addModelId(l, modelId);
+				this.graphBuilder.addModelId(n1, modelId);
+				this.graphBuilder.addModelId(n2, modelId);
 			} else {
 //					System.out.println("added links: " + i);
 //					i++;
@@ -472,39 +1045,84 @@ public class AlignmentGraph {
 					if (!this.graphBuilder.addLink(n1, n2, link, ModelingParams.PATTERN_LINK_WEIGHT)) continue;
 				}
 
-				n1.getModelIds().add(modelId);
-				n2.getModelIds().add(modelId);
+				this.graphBuilder.addModelId(n1, modelId);
+				this.graphBuilder.addModelId(n2, modelId);
 				
+				if (n1 instanceof InternalNode && n2 instanceof InternalNode)
+					linksToPropagate.add(link);
 			}
 		}
 		
-		DefaultLink[] graphLinks = this.graphBuilder.getGraph().edgeSet().toArray(new DefaultLink[0]); 
-		for (DefaultLink e : graphLinks) {
-			source = e.getSource();
-			target = e.getTarget();
-			if (source instanceof InternalNode && 
-					target instanceof InternalNode &&
-					e instanceof LabeledLink) {
-				LabeledLink l = (LabeledLink)e;
-				Set<Node> nodesWithSourceUri = this.graphBuilder.getUriToNodesMap().get(source.getUri());
-				Set<Node> nodesWithTargetUri = this.graphBuilder.getUriToNodesMap().get(target.getUri());
-				if (nodesWithSourceUri == null || nodesWithTargetUri == null) continue;
-				for (Node nn1 : nodesWithSourceUri) {
-					for (Node nn2 : nodesWithTargetUri) {
-						if (nn1.equals(source) && nn2.equals(target)) continue;
-						if (nn1.equals(nn2)) continue;
-						String id = LinkIdFactory.getLinkId(l.getUri(), nn1.getId(), nn2.getId());
-						LabeledLink newLink = l.copy(id);
-						newLink.setModelIds(null);
-						this.graphBuilder.addLink(nn1, nn2, newLink, ModelingParams.PATTERN_LINK_WEIGHT);
-					}
+		// a new node also gets the links of the other nodes with the same uri. 
+		// all the nodes with the same uri have the same kinds of links, so one of them is enough.
+		if (addedInternalNodes != null) {
+			for (InternalNode n : addedInternalNodes) {
+				Set<Node> nodesWithSameUri = this.graphBuilder.getUriToNodesMap().get(n.getUri());
+				if (nodesWithSameUri == null) continue;
+				for (Node other : nodesWithSameUri) {
+					if (addedInternalNodes.contains(other)) continue;
+					for (DefaultLink l : this.graphBuilder.getGraph().edgesOf(other))
+						if (l instanceof LabeledLink && 
+								l.getSource() instanceof InternalNode && 
+								l.getTarget() instanceof InternalNode)
+							linksToPropagate.add((LabeledLink)l);
+					break;
+				}
+			}
+		}
+		
+		this.propagateLinks(linksToPropagate);
+	}
+	
+	/**
+	 * copies each link between every two nodes having the uris of its source and its target, 
+	 * if they are not already connected by a link with the same uri. The links with the same uris 
+	 * are only processed once, and not at all if every pair of nodes already has one.
+	 */
+	private void propagateLinks(List<LabeledLink> links) {
+		
+		Set<CompositeKey> visitedUris = new HashSet<CompositeKey>();
+		for (LabeledLink l : links) {
+			
+			Node source = l.getSource();
+			Node target = l.getTarget();
+			if (!visitedUris.add(CompositeKey.of(source.getUri(), l.getUri(), target.getUri())))
+				continue;
+			
+			Set<Node> nodesWithSourceUri = this.graphBuilder.getUriToNodesMap().get(source.getUri());
+			Set<Node> nodesWithTargetUri = this.graphBuilder.getUriToNodesMap().get(target.getUri());
+			if (nodesWithSourceUri == null || nodesWithTargetUri == null) continue;
+			
+			int numOfPairs = nodesWithSourceUri.size() * nodesWithTargetUri.size();
+			if (source.getUri().equals(target.getUri()))
+				numOfPairs -= nodesWithSourceUri.size();
+			if (this.graphBuilder.getLinksWithSameUris(l).size() == numOfPairs)
+				continue;
+			
+			for (Node nn1 : nodesWithSourceUri) {
+				for (Node nn2 : nodesWithTargetUri) {
+					if (nn1.equals(nn2)) continue;
+					String id = LinkIdFactory.getLinkId(l.getUri(), nn1.getId(), nn2.getId());
+					if (this.graphBuilder.getIdToLinkMap().containsKey(id)) continue;
+					LabeledLink newLink = l.copy(id);
+					newLink.setModelIds(null);
+					newLink.setPropagated(true);
+					this.graphBuilder.addLink(nn1, nn2, newLink, ModelingParams.PATTERN_LINK_WEIGHT);
 				}
 			}
 		}
-
 	}
 	
 	public Set<InternalNode> addModel(SemanticModel model, PatternWeightSystem weightSystem) {
+		synchronized (this.writeLock) {
+			this.beginUpdate();
+			Set<InternalNode> addedInternalNodes = this.addModelToGraph(model, weightSystem);
+			this.logAndPublish(AlignmentGraphLog.Operation.AddModel, Collections.singletonList(model), weightSystem.name(), "false");
+			return addedInternalNodes;
+		}
+	}
+	
+	private Set<InternalNode> addModelToGraph(SemanticModel model, PatternWeightSystem weightSystem) {
 				
 		// adding the patterns to the graph
 		
@@ -530,13 +1148,179 @@ public class AlignmentGraph {
 
 		HashMap<Node, Node> columnNodeMapping = this.getColumnNodeMapping(model, internalNodeMapping);
 		
-		this.addLinks(model, internalNodeMapping, columnNodeMapping, weightSystem);
+		this.addLinks(model, internalNodeMapping, columnNodeMapping, addedInternalNodes, weightSystem);
 
-		this.lastUpdateTime = System.currentTimeMillis();
 		return addedInternalNodes;
 	}
+	
+	public boolean removeModelAndExport(String modelId, PatternWeightSystem weightSystem) {
+		synchronized (this.writeLock) {
+			this.beginUpdate();
+			if (!this.removeModelFromGraph(modelId, weightSystem)) {
+				this.graphBuilder = null;
+				return false;
+			}
+			this.logAndPublish(AlignmentGraphLog.Operation.RemoveModel, null, weightSystem.name(), modelId);
+			this.export();
+			return true;
+		}
+	}
+	
+	/**
+	 * adds a batch of models in a single version of the graph, the models that are already in the graph are replaced. 
+	 * The graph is updated using the ontology (see updateGraphUsingOntology) and exported once for all the models.
+	 * All the models are logged, including the ones that are not added: a model that fails may have already 
+	 * removed its previous version and added a part of the new one, and replaying the record fails on it 
+	 * at the same point, so the replayed graph is the same as the published one.
+	 * @return the errors of the models that are not added, by position in the list of models
+	 */
+	public Map<Integer, String> addModelsAndUpdateAndExport(List<SemanticModel> models, PatternWeightSystem weightSystem) {
+		Map<Integer, String> errors = new HashMap<Integer, String>();
+		synchronized (this.writeLock) {
+			this.beginUpdate();
+			this.addModelsToGraph(models, weightSystem, errors);
+			this.logAndPublish(AlignmentGraphLog.Operation.AddModels, models, weightSystem.name());
+			this.export();
+		}
+		return errors;
+	}
+	
+	/**
+	 * @param errors if not null, receives the errors of the models that are not added, by position in the list of models
+	 */
+	private void addModelsToGraph(List<SemanticModel> models, PatternWeightSystem weightSystem, 
+			Map<Integer, String> errors) {
+		
+		Set<InternalNode> internalNodes = new HashSet<InternalNode>();
+		for (int i = 0; i < models.size(); i++) {
+			SemanticModel model = models.get(i);
+			try {
+				this.removeModelFromGraph(model.getId(), weightSystem);
+				this.addModelToGraph(model, weightSystem);
+				internalNodes.addAll(model.getInternalNodes());
+			} catch (Exception e) {
+				logger.error("error in adding the model " + model.getId() + " to the graph!", e);
+				if (errors != null)
+					errors.put(i, e.getMessage() == null ? e.toString() : e.getMessage());
+			}
+		}
+		
+		// the closure of the nodes of all the models is added at once
+		if (ModelingConfiguration.getAddOntologyPaths() && !internalNodes.isEmpty())
+			this.graphBuilder.addClosureAndUpdateLinks(internalNodes, null);
+	}
+	
+	/**
+	 * replaces the version of a model that is already in the graph by a new one
+	 */
+	public void replaceModelAndUpdateAndExport(SemanticModel model, PatternWeightSystem weightSystem) {
+		synchronized (this.writeLock) {
+			this.beginUpdate();
+			this.removeModelFromGraph(model.getId(), weightSystem);
+			this.addModelToGraph(model, weightSystem);
+			this.updateGraphUsingOntology(model);
+			this.logAndPublish(AlignmentGraphLog.Operation.ReplaceModel, Collections.singletonList(model), weightSystem.name());
+			this.export();
+		}
+	}
+	
+	/**
+	 * removes the support of a model from the links and the nodes of the graph, in time proportional 
+	 * to the size of the model. The JWS weights of the links that are still supported by other models 
+	 * are recomputed, and the links and the nodes that are not supported by any model anymore are removed. 
+	 * The links propagated between the other nodes with the same uris (see propagateLinks) are removed 
+	 * once no link with the same uris is left to propagate them. 
+	 * The ontology links of the removed nodes go away with them. 
+	 * The graph may still differ from the one built from the repository without the model, 
+	 * because the removal knowingly keeps: 
+	 * the ontology links and nodes that are not attached to a removed node, 
+	 * the links propagated from the same uris as a link of another model or an ontology link, 
+	 * the pattern links saved by the lod patterns, 
+	 * and the weights of the other links if the weight system is not JWSPaperFormula.
+	 * @return false if the graph does not have the model
+	 */
+	private boolean removeModelFromGraph(String modelId, PatternWeightSystem weightSystem) {
+		
+		if (modelId == null || !this.graphBuilder.getModelIds().contains(modelId))
+			return false;
+		
+		if (this.totalNumberOfKnownModels > 0)
+			this.totalNumberOfKnownModels --;
+		
+		Set<String> linkIds = new HashSet<String>(this.graphBuilder.getModelLinkIds(modelId));
+		Set<String> nodeIds = new HashSet<String>();
+		Set<CompositeKey> uriTriples = new HashSet<CompositeKey>();
+		for (String id : linkIds) {
+			LabeledLink l = this.graphBuilder.getIdToLinkMap().get(id);
+			if (l == null) continue;
+			nodeIds.add(l.getSource().getId());
+			nodeIds.add(l.getTarget().getId());
+			if (l.getSource() instanceof InternalNode && l.getTarget() instanceof InternalNode)
+				uriTriples.add(GraphBuilder.getUriTriple(l));
+		}
+		
+		// the nodes first, because copying a node also copies its links
+		for (String id : nodeIds) {
+			Node n = this.graphBuilder.getModifiableNode(this.graphBuilder.getIdToNodeMap().get(id));
+			if (n != null) 
+				this.graphBuilder.removeModelId(n, modelId);
+		}
+		
+		for (String id : linkIds) {
+			LabeledLink l = this.graphBuilder.getIdToLinkMap().get(id);
+			if (l == null) continue;
+			l = (LabeledLink)this.graphBuilder.getModifiableLink(l);
+			this.graphBuilder.removeModelId(l, modelId);
+			int numOfPatterns = l.getModelIds().size();
+			if (numOfPatterns == 0) 
+				this.graphBuilder.removeLink(l);
+			else if (weightSystem == PatternWeightSystem.JWSPaperFormula)
+				this.graphBuilder.changeLinkWeight(l, this.getJWSWeight(l.getTarget(), numOfPatterns));
+			// the original weights cannot be recomputed, the other weights do not depend on the models
+		}
+		
+		for (String id : nodeIds) {
+			Node n = this.graphBuilder.getIdToNodeMap().get(id);
+			if (n != null && n.getModelIds().isEmpty())
+				this.graphBuilder.removeNode(n);
+		}
+		
+		for (CompositeKey uriTriple : uriTriples) {
+			List<LabeledLink> propagatedLinks = new ArrayList<LabeledLink>();
+			boolean propagated = true;
+			for (LabeledLink l : this.graphBuilder.getLinksWithSameUris(uriTriple)) {
+				if (!isPropagatedLink(l)) {
+					propagated = false;
+					break;
+				}
+				propagatedLinks.add(l);
+			}
+			if (propagated)
+				for (LabeledLink l : propagatedLinks)
+					this.graphBuilder.removeLink(l);
+		}
+		
+		this.graphBuilder.removeModelId(modelId);
+		return true;
+	}
+	
+	/**
+	 * @return true if the link is a copy made by propagateLinks that no model has used since
+	 */
+	private static boolean isPropagatedLink(LabeledLink l) {
+		return l.isPropagated() && (l.getModelIds() == null || l.getModelIds().isEmpty());
+	}
 
 	public Set<InternalNode> addLodPattern(SemanticModel model) {
+		synchronized (this.writeLock) {
+			this.beginUpdate();
+			Set<InternalNode> addedNodes = this.addLodPatternToGraph(model);
+			this.logAndPublish(AlignmentGraphLog.Operation.AddLodPattern, Collections.singletonList(model));
+			return addedNodes;
+		}
+	}
+	
+	private Set<InternalNode> addLodPatternToGraph(SemanticModel model) {
 		
 		Set<InternalNode> addedNodes = new HashSet<InternalNode>();
 		
@@ -549,7 +1333,8 @@ public class AlignmentGraph {
 		Node n1, n2;
 		
 		String sourceUri, targetUri, linkUri; 
-		String id, key;
+		String id;
+		CompositeKey key;
 		
 		Set<String> mappedLinks = new HashSet<String>();
 		Set<String> mappedNodes = new HashSet<String>();
@@ -563,7 +1348,7 @@ public class AlignmentGraph {
 		idSortedLinks.addAll(model.getGraph().edgeSet());
 		Collections.sort(idSortedLinks);
 		for (LabeledLink l : idSortedLinks) {
-			key = l.getSource().getUri() + l.getUri() + l.getTarget().getUri();
+			key = CompositeKey.of(l.getSource().getUri(), l.getUri(), l.getTarget().getUri());
 			if (this.graphBuilder.getPatternLinks().get(key) != null) {
 				sortedLinks.add(l);
 			}
@@ -600,7 +1385,7 @@ public class AlignmentGraph {
 			n1 = mapping.get(source);
 			n2 = mapping.get(target);
 
-			key = sourceUri + linkUri + targetUri;
+			key = CompositeKey.of(sourceUri, linkUri, targetUri);
 
 //			if (target.getId().contains("E52_Time-Span2")) {
 //				System.out.println(GraphUtil.labeledGraphToString(model.getGraph()));
@@ -609,7 +1394,8 @@ public class AlignmentGraph {
 
 			List<LabeledLink> matchedLinks = null;
 			if (n1 == null && n2 == null) {
-				matchedLinks = this.graphBuilder.getPatternLinks().get(key); 
+				// the links are sorted in place
+				matchedLinks = GraphBuilder.getForUpdate(this.graphBuilder.getPatternLinks(), key); 
 				if (matchedLinks != null && !matchedLinks.isEmpty()) {
 					Collections.sort(matchedLinks);
 					for (LabeledLink l : matchedLinks) {
@@ -671,7 +1457,7 @@ public class AlignmentGraph {
 								sortedMatchedNodes.remove(0);
 								continue;
 							}
-							Set<DefaultLink> outLinks = this.getGraphBuilder().getGraph().outgoingEdgesOf(sortedMatchedNodes.get(0));
+							Set<DefaultLink> outLinks = this.graphBuilder.getGraph().outgoingEdgesOf(sortedMatchedNodes.get(0));
 							boolean okLink = true;
 							if (outLinks != null) {
 								for (DefaultLink dl : outLinks) {
@@ -696,7 +1482,7 @@ public class AlignmentGraph {
 					}
 				}
 				if (n1 == null) {
-					id = this.nodeIdFactory.getNodeId(sourceUri);
+					id = this.graphBuilder.getNodeIdFactory().getNodeId(sourceUri);
 					n1 = new InternalNode(id, new Label(sourceUri));
 					if (this.graphBuilder.addNode(n1)) {
 						mapping.put(source, n1);
@@ -726,7 +1512,7 @@ public class AlignmentGraph {
 								sortedMatchedNodes.remove(0);
 								continue;
 							}
-							Set<DefaultLink> inLinks = this.getGraphBuilder().getGraph().incomingEdgesOf(sortedMatchedNodes.get(0));
+							Set<DefaultLink> inLinks = this.graphBuilder.getGraph().incomingEdgesOf(sortedMatchedNodes.get(0));
 							boolean okLink = true;
 							if (inLinks != null) {
 								for (DefaultLink dl : inLinks) {
@@ -751,7 +1537,7 @@ public class AlignmentGraph {
 					}
 				}
 				if (n2 == null) {
-					id = this.nodeIdFactory.getNodeId(targetUri);
+					id = this.graphBuilder.getNodeIdFactory().getNodeId(targetUri);
 //					if (id.contains("E55_Type10"))
 //						System.out.println("break");
 					n2 = new InternalNode(id, new Label(targetUri));
@@ -769,13 +1555,17 @@ public class AlignmentGraph {
 //				System.out.println(GraphUtil.labeledGraphToString(model.getGraph()));
 //				System.out.println("debug");
 //			}
+			n1 = this.graphBuilder.getModifiableNode(n1);
+			n2 = this.graphBuilder.getModifiableNode(n2);
+			
 			id = LinkIdFactory.getLinkId(e.getUri(), n1.getId(), n2.getId());
 			LabeledLink l = this.graphBuilder.getIdToLinkMap().get(id);
 			if (l != null) {
+				l = (LabeledLink)this.graphBuilder.getModifiableLink(l);
 				this.graphBuilder.changeLinkWeight(l, ModelingParams.PATTERN_LINK_WEIGHT);
-				l.getModelIds().add(modelId);
-				n1.getModelIds().add(modelId);
-				n2.getModelIds().add(modelId);
+				this.graphBuilder.addModelId(l, modelId);
+				this.graphBuilder.addModelId(n1, modelId);
+				this.graphBuilder.addModelId(n2, modelId);
 			} else {
 
 				LabeledLink link = e.copy(id);
@@ -793,8 +1583,8 @@ public class AlignmentGraph {
 				if (!this.graphBuilder.addLink(n1, n2, link, ModelingParams.PATTERN_LINK_WEIGHT)) continue;
 
 				this.graphBuilder.savePatternLink(link);
-				n1.getModelIds().add(modelId);
-				n2.getModelIds().add(modelId);
+				this.graphBuilder.addModelId(n1, modelId);
+				this.graphBuilder.addModelId(n2, modelId);
 			}
 		}
 		
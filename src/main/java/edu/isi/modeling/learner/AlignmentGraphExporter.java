@@ -0,0 +1,111 @@
+package edu.isi.modeling.learner;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the exports of the alignment graph (json and graphviz) in a background thread, so the
+ * requests changing the graph do not wait for them. The export requests made while an export is
+ * waiting are coalesced: the exports are written at most once per interval, always from the last
+ * published version. The pending exports are written when the JVM shuts down, or when the exporter is closed.
+ */
+class AlignmentGraphExporter {
+
+	private static Logger logger = LoggerFactory.getLogger(AlignmentGraphExporter.class);
+
+	private final AlignmentGraph alignmentGraph;
+	// minimum time between two exports in milliseconds
+	private final long interval;
+	private final ScheduledExecutorService executor;
+	private final Thread shutdownHook;
+	// an export is requested and not written yet
+	private final AtomicBoolean pending;
+	// an export task is scheduled and has not started yet
+	private final AtomicBoolean scheduled;
+	private volatile long lastExportTime;
+
+	private final Runnable exportTask = new Runnable() {
+		public void run() {
+			scheduled.set(false);
+			try {
+				flush();
+			} catch (Exception e) {
+				logger.error("error in exporting the alignment graph!", e);
+			}
+		}
+	};
+
+	AlignmentGraphExporter(AlignmentGraph alignmentGraph, long interval) {
+		this.alignmentGraph = alignmentGraph;
+		this.interval = Math.max(0, interval);
+		this.pending = new AtomicBoolean(false);
+		this.scheduled = new AtomicBoolean(false);
+		this.lastExportTime = 0;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "alignment-graph-exporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.shutdownHook = new Thread("alignment-graph-export-flush") {
+			public void run() {
+				flush();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+	}
+
+	/**
+	 * stops the background thread, removes the shutdown hook and writes the pending exports
+	 */
+	void close() {
+		try {
+			Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+		} catch (IllegalStateException e) {
+			// the JVM is shutting down, the hook writes the pending exports
+			return;
+		}
+		this.executor.shutdownNow();
+		flush();
+	}
+
+	/**
+	 * schedules an export of the last published version, unless one is already scheduled
+	 */
+	void requestExport() {
+		this.pending.set(true);
+		if (!this.scheduled.compareAndSet(false, true))
+			return;
+		long delay = Math.max(0, this.lastExportTime + this.interval - System.currentTimeMillis());
+		try {
+			this.executor.schedule(exportTask, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			this.scheduled.set(false);
+			flush();
+		}
+	}
+
+	/**
+	 * writes the pending exports now, in the calling thread
+	 * @return false if there was nothing to export
+	 */
+	synchronized boolean flush() {
+		if (!this.pending.getAndSet(false))
+			return false;
+		AlignmentGraph.Snapshot snapshot = this.alignmentGraph.getSnapshot();
+		long start = System.currentTimeMillis();
+		this.alignmentGraph.export(snapshot);
+		this.lastExportTime = System.currentTimeMillis();
+		logger.info("version " + snapshot.getVersion() + " of the alignment graph is exported in " +
+				(this.lastExportTime - start) + "ms.");
+		return true;
+	}
+}
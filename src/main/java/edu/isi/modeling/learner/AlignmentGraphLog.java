@@ -0,0 +1,226 @@
+package edu.isi.modeling.learner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of the changes of the alignment graph. Each change is appended and synced to the disk
+ * before it is published, so after a restart the graph is the last snapshot plus the changes logged
+ * after it (the snapshot keeps the sequence number of the last change it includes).
+ *
+ * A record is the length of its payload, the CRC32 of the payload and the payload: the sequence number,
+ * the operation and its arguments. A record that is cut by a crash is dropped when the log is read.
+ */
+class AlignmentGraphLog {
+
+	private static Logger logger = LoggerFactory.getLogger(AlignmentGraphLog.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	enum Operation {
+		AddModel,			// weight system, update using ontology (true/false), model json
+		RemoveModel,		// weight system, model id
+		ReplaceModel,		// weight system, model json
+		AddModels,			// weight system, model jsons (a model already in the graph is replaced)
+		AddLodPattern,		// model json
+		UpdateUsingOntology	// ids of the internal nodes
+	}
+
+	static class Record {
+
+		private final long sequence;
+		private final Operation operation;
+		private final String[] arguments;
+
+		private Record(long sequence, Operation operation, String[] arguments) {
+			this.sequence = sequence;
+			this.operation = operation;
+			this.arguments = arguments;
+		}
+
+		long getSequence() {
+			return sequence;
+		}
+
+		Operation getOperation() {
+			return operation;
+		}
+
+		String[] getArguments() {
+			return arguments;
+		}
+	}
+
+	private final File file;
+	private FileOutputStream out;
+	private long lastSequence;
+	// number of records in the log
+	private int size;
+
+	AlignmentGraphLog(String filename) {
+		this.file = new File(filename);
+		this.out = null;
+		this.lastSequence = 0;
+		this.size = 0;
+	}
+
+	long getLastSequence() {
+		return lastSequence;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * reads the log and drops the end of it that is not a complete record
+	 * @param snapshotSequence sequence number of the last change included in the snapshot the log is applied to
+	 * @return the records logged after the snapshot
+	 */
+	List<Record> read(long snapshotSequence) throws IOException {
+
+		List<Record> records = new ArrayList<Record>();
+		this.lastSequence = Math.max(this.lastSequence, snapshotSequence);
+		this.size = 0;
+		if (!file.exists())
+			return records;
+
+		RandomAccessFile in = new RandomAccessFile(file, "rw");
+		try {
+			long validLength = 0;
+			while (true) {
+				Record record;
+				try {
+					int length = in.readInt();
+					long checksum = in.readLong();
+					if (length < 0 || length > in.length() - in.getFilePointer())
+						break;
+					byte[] payload = new byte[length];
+					in.readFully(payload);
+					CRC32 crc = new CRC32();
+					crc.update(payload);
+					if (crc.getValue() != checksum)
+						break;
+					record = readPayload(payload);
+				} catch (EOFException e) {
+					break;
+				}
+				validLength = in.getFilePointer();
+				this.size ++;
+				if (record.getSequence() > this.lastSequence)
+					this.lastSequence = record.getSequence();
+				if (record.getSequence() > snapshotSequence)
+					records.add(record);
+			}
+			if (validLength < in.length()) {
+				logger.warn("dropping " + (in.length() - validLength) + " bytes at the end of the log " + file.getName());
+				in.setLength(validLength);
+			}
+		} finally {
+			in.close();
+		}
+		return records;
+	}
+
+	/**
+	 * appends a record and syncs it to the disk
+	 * @return sequence number of the record
+	 */
+	long append(Operation operation, String... arguments) throws IOException {
+
+		long sequence = this.lastSequence + 1;
+		byte[] payload = writePayload(sequence, operation, arguments);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 12);
+		DataOutputStream record = new DataOutputStream(bytes);
+		record.writeInt(payload.length);
+		record.writeLong(crc.getValue());
+		record.write(payload);
+
+		if (this.out == null)
+			this.out = new FileOutputStream(file, true);
+		long length = this.out.getChannel().size();
+		try {
+			this.out.write(bytes.toByteArray());
+			this.out.getFD().sync();
+		} catch (IOException e) {
+			// the next records must not follow a partial one
+			try {
+				this.out.getChannel().truncate(length);
+			} finally {
+				close();
+			}
+			throw e;
+		}
+
+		this.lastSequence = sequence;
+		this.size ++;
+		return sequence;
+	}
+
+	/**
+	 * empties the log, once its records are included in a snapshot. The sequence numbers go on.
+	 */
+	void clear() throws IOException {
+		close();
+		new FileOutputStream(file, false).close();
+		this.size = 0;
+	}
+
+	void close() throws IOException {
+		if (this.out != null) {
+			this.out.close();
+			this.out = null;
+		}
+	}
+
+	private static byte[] writePayload(long sequence, Operation operation, String[] arguments) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(sequence);
+		out.writeUTF(operation.name());
+		out.writeInt(arguments.length);
+		for (String argument : arguments) {
+			if (argument == null) {
+				out.writeInt(-1);
+			} else {
+				byte[] b = argument.getBytes(UTF8);
+				out.writeInt(b.length);
+				out.write(b);
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Record readPayload(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		long sequence = in.readLong();
+		Operation operation = Operation.valueOf(in.readUTF());
+		String[] arguments = new String[in.readInt()];
+		for (int i = 0; i < arguments.length; i++) {
+			int length = in.readInt();
+			if (length < 0) continue;
+			byte[] b = new byte[length];
+			in.readFully(b);
+			arguments[i] = new String(b, UTF8);
+		}
+		return new Record(sequence, operation, arguments);
+	}
+}
@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
 
+import edu.isi.modeling.alignment.CompositeKey;
 import edu.isi.modeling.alignment.GraphBuilder;
 import edu.isi.modeling.alignment.GraphBuilderTopK;
 import edu.isi.modeling.alignment.LinkIdFactory;
@@ -59,6 +60,7 @@ import edu.isi.modeling.rep.LinkStatus;
 import edu.isi.modeling.rep.Node;
 import edu.isi.modeling.rep.SemanticType;
 import edu.isi.modeling.rep.SemanticType.Origin;
+import edu.isi.modeling.steiner.topk.SearchBudget;
 
 public class ModelLearner {
 
@@ -68,6 +70,8 @@ public class ModelLearner {
 	private NodeIdFactory nodeIdFactory = null; 
 	private List<Node> steinerNodes = null;
 	private List<SemanticModel> learnedModels = null;
+	private String steinerSolver = null;
+	private SearchBudget searchBudget = null;
 //	private long lastUpdateTimeOfGraph;
 
 	private static final int NUM_SEMANTIC_TYPES = 4;
@@ -84,12 +88,23 @@ public class ModelLearner {
 		this.ontologyManager = ontologyManager;
 		this.steinerNodes = steinerNodes;
 		if (this.steinerNodes != null) Collections.sort(this.steinerNodes);
-		this.graphBuilder = cloneGraphBuilder(gb); // create a copy of the graph builder
+		this.graphBuilder = cloneGraphBuilder(gb); // create an overlay of the graph builder
 		this.nodeIdFactory = this.graphBuilder.getNodeIdFactory();
 	}
 
 	public ModelLearner(GraphBuilder graphBuilder, 
 			List<Node> steinerNodes) {
+		this(graphBuilder, steinerNodes, false);
+	}
+
+	/**
+	 * @param shared true if the graph builder is shared with other threads (e.g., the one of the alignment graph), 
+	 * the nodes and the links added while learning the models then go to an overlay of it (see cloneGraphBuilder), 
+	 * otherwise they are added to the graph builder itself
+	 */
+	public ModelLearner(GraphBuilder graphBuilder, 
+			List<Node> steinerNodes,
+			boolean shared) {
 		if (graphBuilder == null || 
 				steinerNodes == null || 
 				steinerNodes.isEmpty()) {
@@ -99,7 +114,7 @@ public class ModelLearner {
 		this.ontologyManager = graphBuilder.getOntologyManager();
 		this.steinerNodes = steinerNodes;
 		if (this.steinerNodes != null) Collections.sort(this.steinerNodes);
-		this.graphBuilder = graphBuilder;
+		this.graphBuilder = shared ? cloneGraphBuilder(graphBuilder) : graphBuilder;
 		this.nodeIdFactory = this.graphBuilder.getNodeIdFactory();
 	}
 
@@ -116,7 +131,7 @@ public class ModelLearner {
 		this.ontologyManager = ontologyManager;
 		this.steinerNodes = steinerNodes;
 		if (this.steinerNodes != null) Collections.sort(this.steinerNodes);
-		this.graphBuilder = cloneGraphBuilder(gb); // create a copy of the graph builder
+		this.graphBuilder = cloneGraphBuilder(gb); // create an overlay of the graph builder
 		this.nodeIdFactory = this.graphBuilder.getNodeIdFactory();
 		if (steinerNodes != null) {
 			for (Node n : steinerNodes) {
@@ -141,6 +156,29 @@ public class ModelLearner {
 		}
 	}
 	
+	/**
+	 * @param steinerSolver name of the algorithm computing the steiner trees (see SteinerSolvers), 
+	 * null for the one in modeling.properties
+	 */
+	public void setSteinerSolver(String steinerSolver) {
+		this.steinerSolver = steinerSolver;
+	}
+	
+	/**
+	 * @param searchBudget limits of all the steiner tree searches of the learner, 
+	 * null for the limits in modeling.properties
+	 */
+	public void setSearchBudget(SearchBudget searchBudget) {
+		this.searchBudget = searchBudget;
+	}
+	
+	/**
+	 * @return true if a steiner tree search ran out of its budget and the learned models are the ones found so far
+	 */
+	public boolean isPartial() {
+		return this.searchBudget != null && this.searchBudget.isPartial();
+	}
+	
 	public SemanticModel getModel() {
 		if (this.learnedModels == null)
 			try {
@@ -184,11 +222,18 @@ public class ModelLearner {
 		}
 	}
 
+	/**
+	 * the nodes and the links added while learning the models only go to the returned graph builder. 
+	 * If possible, it is an overlay that reads through to the shared graph, 
+	 * otherwise it is a copy of the shared graph.
+	 */
 	private GraphBuilder cloneGraphBuilder(GraphBuilder graphBuilder) {
 
 		GraphBuilder clonedGraphBuilder = null;
 		if (graphBuilder == null || graphBuilder.getGraph() == null) {
 			clonedGraphBuilder = new GraphBuilderTopK(this.ontologyManager, false);
+		} else if (graphBuilder instanceof GraphBuilderTopK) {
+			clonedGraphBuilder = new GraphBuilderTopK((GraphBuilderTopK)graphBuilder);
 		} else {
 			clonedGraphBuilder = new GraphBuilderTopK(this.ontologyManager, graphBuilder.getGraph());
 		}
@@ -239,6 +284,9 @@ public class ModelLearner {
 		logger.info("number of steiner sets: " + candidateSteinerSets.numberOfCandidateSets());
 
 		logger.info("computing steiner trees ...");
+		if (this.searchBudget == null)
+			this.searchBudget = new SearchBudget(ModelingConfiguration.getSteinerSearchTimeout(), 
+					ModelingConfiguration.getSteinerSearchMaxEdges());
 		int number = 0;
 		for (SteinerNodes sn : candidateSteinerSets.getSteinerSets()) {
 			if (sn == null) continue;
@@ -251,7 +299,7 @@ public class ModelLearner {
 			if (this.graphBuilder instanceof GraphBuilderTopK) {
 				topKSteinerTrees =  ((GraphBuilderTopK)this.graphBuilder).getTopKSteinerTrees(sn, 
 						ModelingConfiguration.getTopKSteinerTree(), 
-						null, null, true);
+						null, null, true, this.steinerSolver, this.searchBudget);
 			} 
 			else 
 			{
@@ -284,6 +332,10 @@ public class ModelLearner {
 				break;
 
 		}
+		
+		if (this.searchBudget.isPartial())
+			logger.info("the steiner tree search ran out of its budget after relaxing " + 
+					this.searchBudget.getRelaxedEdges() + " edges, returning the models found so far.");
 
 		Collections.sort(sortableSemanticModels);
 		
@@ -323,7 +375,7 @@ public class ModelLearner {
 
 		Set<SemanticTypeMapping> tempSemanticTypeMappings;
 		HashMap<ColumnNode, List<SemanticType>> columnSemanticTypes = new HashMap<ColumnNode, List<SemanticType>>();
-		HashMap<String, Integer> semanticTypesCount = new HashMap<String, Integer>();
+		HashMap<CompositeKey, Integer> semanticTypesCount = new HashMap<CompositeKey, Integer>();
 		List<SemanticType> candidateSemanticTypes;
 		String domainUri = "", propertyUri = "";
 
@@ -351,9 +403,10 @@ public class ModelLearner {
 				domainUri = semanticType.getDomain().getUri();
 				propertyUri = semanticType.getType().getUri();
 
-				Integer count = semanticTypesCount.get(domainUri + propertyUri);
-				if (count == null) semanticTypesCount.put(domainUri + propertyUri, 1);
-				else semanticTypesCount.put(domainUri + propertyUri, count.intValue() + 1);
+				CompositeKey key = CompositeKey.of(domainUri, propertyUri);
+				Integer count = semanticTypesCount.get(key);
+				if (count == null) semanticTypesCount.put(key, 1);
+				else semanticTypesCount.put(key, count.intValue() + 1);
 			}
 		}
 
@@ -406,7 +459,7 @@ public class ModelLearner {
 					domainUri = semanticType.getDomain().getUri();
 					
 					propertyUri = semanticType.getType().getUri();
-					Integer countOfSemanticType = semanticTypesCount.get(domainUri + propertyUri);
+					Integer countOfSemanticType = semanticTypesCount.get(CompositeKey.of(domainUri, propertyUri));
 					logger.debug("count of semantic type: " +  countOfSemanticType);
 	
 					
@@ -452,7 +505,7 @@ public class ModelLearner {
 	}
 
 	private Set<SemanticTypeMapping> findSemanticTypeInGraph(ColumnNode sourceColumn, SemanticType semanticType, 
-			HashMap<String, Integer> semanticTypesCount, Set<Node> addedNodes) {
+			HashMap<CompositeKey, Integer> semanticTypesCount, Set<Node> addedNodes) {
 
 		logger.debug("finding matches for semantic type in the graph ... ");
 
@@ -481,7 +534,7 @@ public class ModelLearner {
 		Double confidence = semanticType.getConfidenceScore();
 		Origin origin = semanticType.getOrigin();
 
-		Integer countOfSemanticType = semanticTypesCount.get(domainUri + propertyUri);
+		Integer countOfSemanticType = semanticTypesCount.get(CompositeKey.of(domainUri, propertyUri));
 		if (countOfSemanticType == null) {
 			logger.error("count of semantic type should not be null or zero");
 			return mappings;
@@ -501,7 +554,7 @@ public class ModelLearner {
 
 		// add dataproperty to existing classes if sl is a data node mapping
 		//		Set<Node> foundInternalNodes = new HashSet<Node>();
-		Set<SemanticTypeMapping> semanticTypeMatches = this.graphBuilder.getSemanticTypeMatches().get(domainUri + propertyUri);
+		Set<SemanticTypeMapping> semanticTypeMatches = this.graphBuilder.getSemanticTypeMatches().get(CompositeKey.of(domainUri, propertyUri));
 		if (semanticTypeMatches != null) {
 			for (SemanticTypeMapping stm : semanticTypeMatches) {
 
@@ -519,7 +572,7 @@ public class ModelLearner {
 		Set<Node> nodesWithSameUriOfDomain = this.graphBuilder.getUriToNodesMap().get(domainUri);
 		if (nodesWithSameUriOfDomain != null) { 
 			for (Node source : nodesWithSameUriOfDomain) {
-				count = this.graphBuilder.getNodeDataPropertyCount().get(source.getId() + propertyUri);
+				count = this.graphBuilder.getNodeDataPropertyCount().get(CompositeKey.of(source.getId(), propertyUri));
 
 				if (count != null) {
 					if (allowMultipleSamePropertiesPerNode) {
@@ -1,7 +1,7 @@
 package edu.isi.modeling.metadata;
 
 import edu.isi.modeling.config.ModelingConfiguration;
-import edu.isi.modeling.learner.AlignmentGraphLoaderThread;
+import edu.isi.modeling.learner.AlignmentGraph;
 import edu.isi.modeling.ontology.OntologyManager;
 import edu.isi.modeling.webserver.ContextParameterMap;
 import edu.isi.modeling.webserver.ContextParameterMap.ContextParameter;
@@ -17,7 +17,7 @@ public class ModelLearnerMetadata extends UserMetadata {
 	@Override
 	public void setup(String contextId, OntologyManager ontologyManager) {
 		if (ModelingConfiguration.isLearnerEnabled())
-			new AlignmentGraphLoaderThread(ontologyManager).run();
+			AlignmentGraph.loadInBackground(ontologyManager);
 	}
 
 	@Override
@@ -22,6 +22,8 @@ package edu.isi.modeling.rep;
 
 import java.io.Serializable;
 
+import edu.isi.modeling.common.UriDictionary;
+
 public class Label implements Serializable {
 
 	/**
@@ -33,34 +35,39 @@ public class Label implements Serializable {
 	private String prefix;
 	private String rdfsLabel;
 	private String rdfsComment;
+	// hash of toString(), computed on the first use and reset when the label changes
+	private transient int hash;
+	
+	// the uri, the namespace and the prefix are the canonical instances of the UriDictionary, 
+	// so the labels with the same uri share the same strings
 	
 	public Label(String uri, String ns, String prefix, String rdfsLabel, String rdfsComment) {
-		this.uri = uri;
-		this.ns = ns;
-		this.prefix = prefix;
+		this.uri = UriDictionary.intern(uri);
+		this.ns = UriDictionary.intern(ns);
+		this.prefix = UriDictionary.intern(prefix);
 		this.rdfsLabel = rdfsLabel;
 		this.rdfsComment = rdfsComment;
 	}
 	
 	public Label(String uri, String ns, String prefix) {
 		this.init();
-		this.uri = uri;
-		this.ns = ns;
-		this.prefix = prefix;
+		this.uri = UriDictionary.intern(uri);
+		this.ns = UriDictionary.intern(ns);
+		this.prefix = UriDictionary.intern(prefix);
 
 	}
 
 	public Label(String uri) {
 		this.init();
-		this.uri = uri;
+		this.uri = UriDictionary.intern(uri);
 	}
 	
 	public Label(Label uri) {
 		if (uri == null) this.init();
 		else {
-			this.uri = uri.getUri();
-			this.ns = uri.getNs();
-			this.prefix = uri.getPrefix();
+			this.uri = UriDictionary.intern(uri.getUri());
+			this.ns = UriDictionary.intern(uri.getNs());
+			this.prefix = UriDictionary.intern(uri.getPrefix());
 			this.rdfsLabel = uri.getRdfsLabel();
 			this.rdfsComment = uri.getRdfsComment();
 		}
@@ -72,20 +79,24 @@ public class Label implements Serializable {
 		this.prefix = null;
 		this.rdfsLabel = null;
 		this.rdfsComment = null;
+		this.hash = 0;
 	}
 	
 	public void setUri(String uri) {
-		this.uri = uri;
+		this.uri = UriDictionary.intern(uri);
+		this.hash = 0;
 	}
 
 
 	public void setNs(String ns) {
-		this.ns = ns;
+		this.ns = UriDictionary.intern(ns);
+		this.hash = 0;
 	}
 
 
 	public void setPrefix(String prefix) {
-		this.prefix = prefix;
+		this.prefix = UriDictionary.intern(prefix);
+		this.hash = 0;
 	}
 
 	public String getUri() {
@@ -141,7 +152,12 @@ public class Label implements Serializable {
 	
 	@Override
 	public int hashCode() {
-		return toString().hashCode();
+		int h = this.hash;
+		if (h == 0) {
+			h = toString().hashCode();
+			this.hash = h;
+		}
+		return h;
 	}
 
 	@Override
@@ -20,7 +20,6 @@
  ******************************************************************************/
 package edu.isi.modeling.rep;
 
-import java.util.HashSet;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -38,6 +37,8 @@ public abstract class LabeledLink extends DefaultLink {
 	private LinkStatus status;
 	private LinkKeyInfo keyInfo;
 	private Set<String> modelIds;
+	// true if the link is only a copy of another link between nodes with the same uris (see AlignmentGraph.propagateLinks)
+	private boolean propagated;
 	
 	public LabeledLink(String id, Label label, LinkType type) {
 		super(id, type);
@@ -61,6 +62,7 @@ public abstract class LabeledLink extends DefaultLink {
 			this.label = e.label;
 			this.status = e.status;
 			this.keyInfo = e.keyInfo;
+			this.propagated = e.propagated;
 		}
 	}
 	
@@ -69,7 +71,7 @@ public abstract class LabeledLink extends DefaultLink {
 		this.label = new Label(l);
 		this.status = LinkStatus.Normal;
 		this.keyInfo = LinkKeyInfo.None;
-		this.modelIds = new HashSet<String>();
+		this.modelIds = new ModelIdSet();
 	}
 	
 	public Label getLabel() {
@@ -116,14 +118,25 @@ public abstract class LabeledLink extends DefaultLink {
 		this.keyInfo = keyType;
 	}
 	
+	public boolean isPropagated() {
+		return propagated;
+	}
+
+	public void setPropagated(boolean propagated) {
+		this.propagated = propagated;
+	}
+	
 	public Set<String> getModelIds() {
 		if (this.modelIds == null)
-			return new HashSet<String>();
+			return new ModelIdSet();
 		return modelIds;
 	}
 
+	/**
+	 * the model ids are stored in a ModelIdSet, a set of another type is copied
+	 */
 	public void setModelIds(Set<String> patternIds) {
-		this.modelIds = patternIds;
+		this.modelIds = patternIds == null ? null : ModelIdSet.of(patternIds);
 	}
 
     public LabeledLink clone() {
@@ -157,8 +170,9 @@ public abstract class LabeledLink extends DefaultLink {
 			logger.error("cannot instanciate a link from the type: " + this.getType().toString());
 		
 		newLink.setStatus(this.getStatus());
-		newLink.setModelIds(new HashSet<String>(this.getModelIds()));
+		newLink.setModelIds(new ModelIdSet(this.getModelIds()));
 		newLink.setKeyType(this.getKeyType());
+		newLink.setPropagated(this.isPropagated());
 		
 		return newLink;
     }
@@ -0,0 +1,342 @@
+package edu.isi.modeling.rep;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import edu.isi.modeling.common.StringDictionary;
+
+/**
+ * Set of the ids of the models supporting a node or a link. The model ids are mapped to dense
+ * indexes by a process-wide dictionary, and the set only stores the indexes: in a sorted int array
+ * while the set is sparse, and in a bitmap once the bitmap is smaller than the array (e.g., the links
+ * supported by most of the models). The intersections and their sizes are computed on the indexes,
+ * with word operations when both sets are bitmaps.
+ *
+ * It is a Set<String>, so the code iterating or changing the model ids does not change.
+ */
+public class ModelIdSet extends AbstractSet<String> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final StringDictionary modelIndexes = new StringDictionary();
+
+	// sorted indexes, used while the set is sparse (bits is null)
+	private int[] array;
+	// one bit per index, used when the set is dense (array is null)
+	private long[] bits;
+	private int cardinality;
+
+	public ModelIdSet() {
+		this.array = new int[4];
+		this.bits = null;
+		this.cardinality = 0;
+	}
+
+	public ModelIdSet(Collection<String> modelIds) {
+		if (modelIds instanceof ModelIdSet) {
+			ModelIdSet other = (ModelIdSet)modelIds;
+			this.array = other.array == null ? null : Arrays.copyOf(other.array, Math.max(4, other.cardinality));
+			this.bits = other.bits == null ? null : other.bits.clone();
+			this.cardinality = other.cardinality;
+		} else {
+			this.array = new int[Math.max(4, modelIds == null ? 0 : modelIds.size())];
+			this.bits = null;
+			this.cardinality = 0;
+			if (modelIds != null)
+				for (String modelId : modelIds)
+					add(modelId);
+		}
+	}
+
+	/**
+	 * @return the set itself if it is a ModelIdSet, otherwise a ModelIdSet with the same ids
+	 */
+	public static ModelIdSet of(Set<String> modelIds) {
+		if (modelIds instanceof ModelIdSet)
+			return (ModelIdSet)modelIds;
+		return new ModelIdSet(modelIds);
+	}
+
+	@Override
+	public int size() {
+		return cardinality;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		int index = modelIndexes.lookupHandle(o);
+		return index >= 0 && containsIndex(index);
+	}
+
+	@Override
+	public boolean add(String modelId) {
+		if (modelId == null)
+			throw new NullPointerException("a model id cannot be null");
+		return addIndex(modelIndexes.getHandle(modelId));
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		int index = modelIndexes.lookupHandle(o);
+		return index >= 0 && removeIndex(index);
+	}
+
+	@Override
+	public void clear() {
+		this.array = new int[4];
+		this.bits = null;
+		this.cardinality = 0;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends String> c) {
+		if (!(c instanceof ModelIdSet))
+			return super.addAll(c);
+		ModelIdSet other = (ModelIdSet)c;
+		if (this.bits == null || other.bits == null) {
+			boolean modified = false;
+			for (int i = other.nextIndex(0); i >= 0; i = other.nextIndex(i + 1))
+				modified |= addIndex(i);
+			return modified;
+		}
+		if (other.bits.length > this.bits.length)
+			this.bits = Arrays.copyOf(this.bits, other.bits.length);
+		int oldCardinality = this.cardinality;
+		this.cardinality = 0;
+		for (int w = 0; w < this.bits.length; w++) {
+			if (w < other.bits.length)
+				this.bits[w] |= other.bits[w];
+			this.cardinality += Long.bitCount(this.bits[w]);
+		}
+		return this.cardinality != oldCardinality;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int next = nextIndex(0);
+			private int last = -1;
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+			@Override
+			public String next() {
+				if (next < 0) throw new NoSuchElementException();
+				last = next;
+				next = nextIndex(last + 1);
+				return modelIndexes.getString(last);
+			}
+			@Override
+			public void remove() {
+				if (last < 0) throw new IllegalStateException();
+				removeIndex(last);
+				last = -1;
+			}
+		};
+	}
+
+	/**
+	 * @return true if the two sets have a common model
+	 */
+	public boolean intersects(ModelIdSet other) {
+		if (other == null)
+			return false;
+		if (this.bits != null && other.bits != null) {
+			int n = Math.min(this.bits.length, other.bits.length);
+			for (int w = 0; w < n; w++)
+				if ((this.bits[w] & other.bits[w]) != 0)
+					return true;
+			return false;
+		}
+		ModelIdSet sparse = this.bits == null ? this : other;
+		ModelIdSet dense = sparse == this ? other : this;
+		for (int i = 0; i < sparse.cardinality; i++)
+			if (dense.containsIndex(sparse.array[i]))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return the number of models in both sets
+	 */
+	public int intersectionSize(ModelIdSet other) {
+		if (other == null)
+			return 0;
+		int size = 0;
+		if (this.bits != null && other.bits != null) {
+			int n = Math.min(this.bits.length, other.bits.length);
+			for (int w = 0; w < n; w++)
+				size += Long.bitCount(this.bits[w] & other.bits[w]);
+			return size;
+		}
+		ModelIdSet sparse = this.bits == null ? this : other;
+		ModelIdSet dense = sparse == this ? other : this;
+		for (int i = 0; i < sparse.cardinality; i++)
+			if (dense.containsIndex(sparse.array[i]))
+				size++;
+		return size;
+	}
+
+	/**
+	 * @return a new set with the models in both sets
+	 */
+	public ModelIdSet intersection(ModelIdSet other) {
+		ModelIdSet result = new ModelIdSet();
+		if (other == null)
+			return result;
+		if (this.bits != null && other.bits != null) {
+			long[] words = new long[Math.min(this.bits.length, other.bits.length)];
+			int size = 0;
+			for (int w = 0; w < words.length; w++) {
+				words[w] = this.bits[w] & other.bits[w];
+				size += Long.bitCount(words[w]);
+			}
+			result.array = null;
+			result.bits = words;
+			result.cardinality = size;
+			result.compact();
+			return result;
+		}
+		ModelIdSet sparse = this.bits == null ? this : other;
+		ModelIdSet dense = sparse == this ? other : this;
+		int[] indexes = new int[Math.max(4, sparse.cardinality)];
+		int size = 0;
+		for (int i = 0; i < sparse.cardinality; i++)
+			if (dense.containsIndex(sparse.array[i]))
+				indexes[size++] = sparse.array[i];
+		result.array = indexes;
+		result.cardinality = size;
+		result.compact();
+		return result;
+	}
+
+	private boolean containsIndex(int index) {
+		if (this.bits == null)
+			return Arrays.binarySearch(this.array, 0, this.cardinality, index) >= 0;
+		int w = index >>> 6;
+		return w < this.bits.length && (this.bits[w] & (1L << index)) != 0;
+	}
+
+	private boolean addIndex(int index) {
+		if (this.bits == null) {
+			int pos = Arrays.binarySearch(this.array, 0, this.cardinality, index);
+			if (pos >= 0)
+				return false;
+			pos = -pos - 1;
+			if (this.cardinality == this.array.length)
+				this.array = Arrays.copyOf(this.array, this.array.length * 2);
+			System.arraycopy(this.array, pos, this.array, pos + 1, this.cardinality - pos);
+			this.array[pos] = index;
+			this.cardinality++;
+		} else {
+			int w = index >>> 6;
+			if (w >= this.bits.length)
+				this.bits = Arrays.copyOf(this.bits, Math.max(w + 1, this.bits.length * 2));
+			if ((this.bits[w] & (1L << index)) != 0)
+				return false;
+			this.bits[w] |= 1L << index;
+			this.cardinality++;
+		}
+		compact();
+		return true;
+	}
+
+	private boolean removeIndex(int index) {
+		if (this.bits == null) {
+			int pos = Arrays.binarySearch(this.array, 0, this.cardinality, index);
+			if (pos < 0)
+				return false;
+			System.arraycopy(this.array, pos + 1, this.array, pos, this.cardinality - pos - 1);
+			this.cardinality--;
+		} else {
+			int w = index >>> 6;
+			if (w >= this.bits.length || (this.bits[w] & (1L << index)) == 0)
+				return false;
+			this.bits[w] &= ~(1L << index);
+			this.cardinality--;
+		}
+		compact();
+		return true;
+	}
+
+	/**
+	 * @return the smallest index in the set that is greater than or equal to from, or -1
+	 */
+	private int nextIndex(int from) {
+		if (this.bits == null) {
+			int pos = Arrays.binarySearch(this.array, 0, this.cardinality, from);
+			if (pos < 0) pos = -pos - 1;
+			return pos < this.cardinality ? this.array[pos] : -1;
+		}
+		int w = from >>> 6;
+		if (w >= this.bits.length)
+			return -1;
+		long word = this.bits[w] & (-1L << from);
+		while (true) {
+			if (word != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			if (++w == this.bits.length)
+				return -1;
+			word = this.bits[w];
+		}
+	}
+
+	/**
+	 * switches to the smaller representation: the array takes 4 bytes per model and the bitmap 8 bytes
+	 * per 64 indexes up to the largest one. The sizes must differ by a factor of 2 before switching,
+	 * so a set does not switch back and forth when a model is added and removed.
+	 */
+	private void compact() {
+		if (this.bits == null) {
+			if (this.cardinality == 0)
+				return;
+			int numOfWords = (this.array[this.cardinality - 1] >>> 6) + 1;
+			if (this.cardinality <= 4 * numOfWords)
+				return;
+			long[] words = new long[numOfWords];
+			for (int i = 0; i < this.cardinality; i++)
+				words[this.array[i] >>> 6] |= 1L << this.array[i];
+			this.bits = words;
+			this.array = null;
+		} else {
+			int numOfWords = this.bits.length;
+			while (numOfWords > 0 && this.bits[numOfWords - 1] == 0)
+				numOfWords--;
+			if (this.cardinality >= numOfWords && numOfWords > 0) {
+				if (numOfWords < this.bits.length / 2)
+					this.bits = Arrays.copyOf(this.bits, numOfWords);
+				return;
+			}
+			int[] indexes = new int[Math.max(4, this.cardinality)];
+			int size = 0;
+			for (int w = 0; w < numOfWords; w++) {
+				long word = this.bits[w];
+				while (word != 0) {
+					indexes[size++] = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			this.array = indexes;
+			this.bits = null;
+		}
+	}
+
+	/**
+	 * the indexes are only valid in this process, so the set is serialized as a plain set of ids
+	 */
+	private Object writeReplace() {
+		return new HashSet<String>(this);
+	}
+}
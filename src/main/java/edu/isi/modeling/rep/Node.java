@@ -20,7 +20,6 @@
  ******************************************************************************/
 package edu.isi.modeling.rep;
 
-import java.util.HashSet;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -63,7 +62,7 @@ public abstract class Node implements Comparable<Node> {
 		Label l = null;
 		this.label = new Label(l);
 		this.type = NodeType.None;
-		this.modelIds = new HashSet<String>();
+		this.modelIds = new ModelIdSet();
 	}
 	
 	public String getId() {
@@ -104,12 +103,15 @@ public abstract class Node implements Comparable<Node> {
 	
 	public Set<String> getModelIds() {
 		if (this.modelIds == null)
-			return new HashSet<String>();
+			return new ModelIdSet();
 		return modelIds;
 	}
 
+	/**
+	 * the model ids are stored in a ModelIdSet, a set of another type is copied
+	 */
 	public void setModelIds(Set<String> patternIds) {
-		this.modelIds = patternIds;
+		this.modelIds = patternIds == null ? null : ModelIdSet.of(patternIds);
 	}
 
 	@Override
@@ -0,0 +1,68 @@
+package edu.isi.modeling.resources;
+
+import io.swagger.annotations.Api;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import edu.isi.modeling.common.JsonUtil;
+import edu.isi.modeling.common.ResponseJsonKey;
+import edu.isi.modeling.learner.AlignmentGraph;
+import edu.isi.modeling.webserver.ModelingApplication;
+
+@Api
+@Path("/graph")
+public class GraphService {
+
+	/**
+	 * readiness of the alignment graph, which is loaded in the background when the service starts
+	 */
+	@Path("status")
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getStatus() {
+
+		AlignmentGraph.State state = AlignmentGraph.getState(ModelingApplication.getOntologyManager());
+		String result = JsonUtil.getJsonString(ResponseJsonKey.STATUS, state.name());
+		if (state == AlignmentGraph.State.Ready)
+			return Response.status(200).entity(result).build();
+		if (state == AlignmentGraph.State.Failed)
+			return Response.status(500).entity(result).build();
+		return Response.status(503).entity(result).build();
+	}
+
+	/**
+	 * writes the pending json and graphviz exports of the alignment graph now,
+	 * instead of waiting for the background export. It does not wait for the graph to be loaded.
+	 */
+	@Path("export")
+	@POST
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response flushExports() {
+
+		String result, msg;
+		AlignmentGraph alignmentGraph = AlignmentGraph.getLoadedInstance(ModelingApplication.getOntologyManager());
+		if (alignmentGraph == null) {
+			AlignmentGraph.State state = AlignmentGraph.getState(ModelingApplication.getOntologyManager());
+			result = JsonUtil.getJsonString(ResponseJsonKey.STATUS, state.name());
+			return Response.status(state == AlignmentGraph.State.Failed ? 500 : 503).entity(result).build();
+		}
+
+		try {
+			if (alignmentGraph.flushExports())
+				msg = "alignment graph exported successfully";
+			else
+				msg = "alignment graph exports are up to date";
+			result = JsonUtil.getJsonString(ResponseJsonKey.MESSAGE, msg);
+			return Response.status(200).entity(result).build();
+		} catch (Exception e) {
+			msg = "error in exporting the alignment graph";
+			result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);
+			return Response.status(500).entity(result).build();
+		}
+	}
+}
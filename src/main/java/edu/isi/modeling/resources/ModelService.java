@@ -4,8 +4,11 @@ import io.swagger.annotations.Api;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 import javax.ws.rs.Consumes;
@@ -23,6 +26,8 @@ import org.apache.commons.io.FileUtils;
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
@@ -139,22 +144,8 @@ public class ModelService {
 			modelOverwrite = true;			
 		} 
 		
-		try { 
-			semanticModel.writeJson(contextParameters.getParameterValue(ContextParameter.JSON_MODELS_DIR) + 
-						semanticModel.getName() + 
-						".model.json");
-		} catch (Exception e) {
-			msg = "error in saving the json file";
-			result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);
-			return Response.status(500).entity(result).build();		
-		}
-		
-		try {
-			semanticModel.writeGraphviz(contextParameters.getParameterValue(ContextParameter.GRAPHVIZ_MODELS_DIR) + 
-						semanticModel.getName() + 
-						".model.dot", false, false);
-		} catch (Exception e) {
-			msg = "error in saving the graphviz file";
+		msg = this.saveModelFiles(semanticModel, contextParameters);
+		if (msg != null) {
 			result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);
 			return Response.status(500).entity(result).build();
 		}
@@ -162,7 +153,8 @@ public class ModelService {
 		try {
 			if (ModelingConfiguration.isLearnerEnabled()) {
 				if (modelOverwrite) {
-					AlignmentGraph.getInstance(ontologyManager).initializeFromJsonRepository();
+					AlignmentGraph.getInstance(ontologyManager).
+					replaceModelAndUpdateAndExport(semanticModel, PatternWeightSystem.JWSPaperFormula);
 					msg = "model " + semanticModel.getId() + " overwritten successfully";					
 				} else {
 					AlignmentGraph.getInstance(ontologyManager).
@@ -184,6 +176,134 @@ public class ModelService {
 
 	}
 	
+	/**
+	 * adds a batch of models, given as a json array or as one json model per line. 
+	 * The models without an id, and the models whose id is used by another model of the batch, are rejected 
+	 * before anything is saved. The files of the other models are saved, then the models are added to the 
+	 * alignment graph in a single update (see AlignmentGraph.addModelsAndUpdateAndExport).
+	 * @return the status of each model, in the order of the batch
+	 */
+	@Path("batch")
+	@POST
+	@Consumes({MediaType.APPLICATION_JSON, "application/x-ndjson"})
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response addModels(String body) {
+		String result, msg;
+		ContextParameterMap contextParameters = ContextParametersRegistry.getInstance().getContextParameters(ModelingApplication.getContextId());
+		OntologyManager ontologyManager = ModelingApplication.getOntologyManager();
+		
+		List<String> jsonModels = new LinkedList<String>();
+		try {
+			String trimmedBody = body == null ? "" : body.trim();
+			if (trimmedBody.startsWith("[")) {
+				JsonArray array = new JsonParser().parse(trimmedBody).getAsJsonArray();
+				for (JsonElement e : array)
+					jsonModels.add(e.toString());
+			} else {
+				for (String line : trimmedBody.split("\\r?\\n"))
+					if (!line.trim().isEmpty())
+						jsonModels.add(line);
+			}
+		} catch (Exception e) {
+			msg = "error in parsing the json body";
+			result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);
+			return Response.status(500).entity(result).build();
+		}
+		
+		List<SemanticModel> parsedModels = new ArrayList<SemanticModel>(jsonModels.size());
+		Map<String, Integer> numOfModelsById = new HashMap<String, Integer>();
+		for (String json : jsonModels) {
+			SemanticModel semanticModel;
+			try {
+				semanticModel = SemanticModel.readJsonFromString(json);
+			} catch (Exception e) {
+				semanticModel = null;
+			}
+			parsedModels.add(semanticModel);
+			if (semanticModel != null && semanticModel.getId() != null) {
+				Integer numOfModels = numOfModelsById.get(semanticModel.getId());
+				numOfModelsById.put(semanticModel.getId(), numOfModels == null ? 1 : numOfModels + 1);
+			}
+		}
+		
+		JsonArray statuses = new JsonArray();
+		// the statuses of the models added to the graph, in the order of semanticModels
+		List<JsonObject> addedModelStatuses = new ArrayList<JsonObject>();
+		List<SemanticModel> semanticModels = new ArrayList<SemanticModel>();
+		for (int index = 0; index < parsedModels.size(); index++) {
+			JsonObject status;
+			SemanticModel semanticModel = parsedModels.get(index);
+			String modelId = semanticModel == null ? null : semanticModel.getId();
+			if (semanticModel == null) {
+				status = JsonUtil.getJsonObject(ResponseJsonKey.ERROR, "error in parsing the model " + index);
+			} else if (modelId == null || modelId.isEmpty()) {
+				status = JsonUtil.getJsonObject(ResponseJsonKey.ERROR, "the model " + index + " has no id");
+			} else if (numOfModelsById.get(modelId) > 1) {
+				status = JsonUtil.getJsonObject(ResponseJsonKey.ERROR, "the id " + modelId + " is used by more than one model of the batch");
+			} else {
+				msg = this.saveModelFiles(semanticModel, contextParameters);
+				if (msg != null) {
+					status = JsonUtil.getJsonObject(ResponseJsonKey.ERROR, msg);
+				} else {
+					status = JsonUtil.getJsonObject(ResponseJsonKey.MESSAGE, "model " + modelId + " added successfully");
+					semanticModels.add(semanticModel);
+					addedModelStatuses.add(status);
+				}
+			}
+			if (modelId != null)
+				status.addProperty("id", modelId);
+			statuses.add(status);
+		}
+		
+		try {
+			if (!ModelingConfiguration.isLearnerEnabled()) {
+				for (JsonObject status : addedModelStatuses) {
+					status.remove(ResponseJsonKey.MESSAGE);
+					status.addProperty(ResponseJsonKey.MESSAGE, "model added, but alignment graph is not updated because learner is disabled");
+				}
+			} else if (!semanticModels.isEmpty()) {
+				Map<Integer, String> errors = AlignmentGraph.getInstance(ontologyManager).
+						addModelsAndUpdateAndExport(semanticModels, PatternWeightSystem.JWSPaperFormula);
+				for (Map.Entry<Integer, String> error : errors.entrySet()) {
+					JsonObject status = addedModelStatuses.get(error.getKey());
+					status.remove(ResponseJsonKey.MESSAGE);
+					status.addProperty(ResponseJsonKey.ERROR, "error in adding the model to the alignment graph: " + error.getValue());
+				}
+			}
+			return Response.status(201).entity(statuses.toString()).build();
+			
+		} catch (Exception e) {
+			msg = "error in adding the models to the alignment graph";
+			result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);
+			return Response.status(500).entity(result).build();
+		}
+	}
+	
+	/**
+	 * saves the json and the graphviz files of a model
+	 * @return an error message, or null if the files are saved
+	 */
+	private String saveModelFiles(SemanticModel semanticModel, ContextParameterMap contextParameters) {
+		
+		try { 
+			semanticModel.writeJson(contextParameters.getParameterValue(ContextParameter.JSON_MODELS_DIR) + 
+						semanticModel.getName() + 
+						".model.json");
+		} catch (Exception e) {
+			return "error in saving the json file";
+		}
+		
+		try {
+			semanticModel.writeGraphviz(contextParameters.getParameterValue(ContextParameter.GRAPHVIZ_MODELS_DIR) + 
+						semanticModel.getName() + 
+						".model.dot", false, false);
+		} catch (Exception e) {
+			return "error in saving the graphviz file";
+		}
+		
+		return null;
+	}
+	
 	@Path("{id}")
 	@DELETE
 	@Produces(MediaType.APPLICATION_JSON)
@@ -225,13 +345,13 @@ public class ModelService {
 		} 
 		
 		try {
-			AlignmentGraph.getInstance(ontologyManager).initializeFromJsonRepository();
+			AlignmentGraph.getInstance(ontologyManager).removeModelAndExport(id, PatternWeightSystem.JWSPaperFormula);
 			String msg = "model " + id + " deleted successfully";
 			result = JsonUtil.getJsonString(ResponseJsonKey.MESSAGE, msg);
 			return Response.status(200).entity(result).build();
 
 		} catch (Exception e) {
-			String msg = "error in rebuilding the alignment graph";
+			String msg = "error in removing the model from the alignment graph";
 			result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);			
 			return Response.status(500).entity(result).build();
 		}
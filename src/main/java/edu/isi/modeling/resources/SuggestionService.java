@@ -14,6 +14,7 @@ import edu.isi.modeling.common.JsonUtil;
 import edu.isi.modeling.common.ResponseJsonKey;
 import edu.isi.modeling.learner.AlignmentGraph;
 import edu.isi.modeling.ontology.OntologyManager;
+import edu.isi.modeling.steiner.topk.SteinerSolvers;
 import edu.isi.modeling.suggestion.SuggestLink;
 import edu.isi.modeling.suggestion.SuggestLinkInput;
 import edu.isi.modeling.suggestion.SuggestLinkOutput;
@@ -36,6 +37,9 @@ public class SuggestionService {
 	public Response getSuggestion(
 			@QueryParam("type") String type,
 			@QueryParam("number") String number,
+			@QueryParam("solver") String solver,
+			@QueryParam("timeout") String timeout,
+			@QueryParam("maxEdges") String maxEdges,
 			String json) {
 
 		String result, msg;
@@ -56,6 +60,25 @@ public class SuggestionService {
 			return Response.status(400).entity(result).build();
 		}
 
+		// budget of the steiner tree searches, the models found so far are returned as partial when it runs out
+		Long timeoutMillis = null, maxRelaxedEdges = null;
+		try {
+			if (timeout != null && !timeout.isEmpty())
+				timeoutMillis = Long.parseLong(timeout);
+			if (maxEdges != null && !maxEdges.isEmpty())
+				maxRelaxedEdges = Long.parseLong(maxEdges);
+		} catch (Exception e) {
+			msg = "invalid query parameters, timeout and maxEdges should be numbers";
+			result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);
+			return Response.status(400).entity(result).build();
+		}
+
+		if (solver != null && !solver.isEmpty() && SteinerSolvers.getSolver(solver) == null) {
+			msg = "invalid query parameters, solver should be one of " + SteinerSolvers.getSolverNames();
+			result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);
+			return Response.status(400).entity(result).build();
+		}
+
 		OntologyManager ontologyManager = ModelingApplication.getOntologyManager();
 
 		if (type.equalsIgnoreCase("link")) {
@@ -102,7 +125,7 @@ public class SuggestionService {
 			}
 
 			try {
-				suggestModelOutput = SuggestModel.suggest(AlignmentGraph.getInstance(ontologyManager).getGraphBuilder(), suggestModelInput, num);
+				suggestModelOutput = SuggestModel.suggest(AlignmentGraph.getInstance(ontologyManager).getGraphBuilder(), suggestModelInput, num, solver, timeoutMillis, maxRelaxedEdges);
 			} catch (Exception e) {
 				msg = "error in suggesting models";
 				result = JsonUtil.getJsonString(ResponseJsonKey.ERROR, msg);
@@ -0,0 +1,310 @@
+package edu.isi.modeling.steiner.topk;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * This class keeps the state of one BANKS iterator in primitive arrays indexed by the node ids
+ * of a CompactSteinerGraph. Each time the iterator reaches a node, a label (distance, predecessor label,
+ * edge to the predecessor) is appended to a pool of parallel arrays. The labels of a node are linked
+ * in the order of their distances.
+ *
+ * The states are pooled and reused by later searches, so expanding an iterator does not allocate
+ * any object per visited node or relaxed edge.
+ */
+class BANKSIteratorState {
+
+	private static final int MAX_POOLED_STATES = 64;
+	private static final int INITIAL_LABEL_CAPACITY = 256;
+
+	private static final ArrayDeque<BANKSIteratorState> pool = new ArrayDeque<BANKSIteratorState>();
+
+	private CompactSteinerGraph graph;
+	private SteinerNodeComparator comparator;
+
+	// nodes reached by the iterator
+	private long[] visitedNodes;
+	// nodes polled from the iterator
+	private long[] processedNodes;
+	// number of times a visited node has been reached again
+	private int[] recursions;
+	// first label of each node, the other labels follow in labelNext sorted by distance
+	private int[] firstLabels;
+
+	// label pool
+	private int numOfLabels;
+	private int[] labelNodes;
+	private double[] labelDistances;
+	private int[] labelPredecessors;
+	private int[] labelEdges;
+	private boolean[] labelWasArg1;
+	private boolean[] labelProcessed;
+	private int[] labelNext;
+
+	// binary heap of the labels that have not been polled yet
+	private int[] heap;
+	private int heapSize;
+
+	private BANKSIteratorState() {
+		this.visitedNodes = new long[0];
+		this.processedNodes = new long[0];
+		this.recursions = new int[0];
+		this.firstLabels = new int[0];
+		this.labelNodes = new int[INITIAL_LABEL_CAPACITY];
+		this.labelDistances = new double[INITIAL_LABEL_CAPACITY];
+		this.labelPredecessors = new int[INITIAL_LABEL_CAPACITY];
+		this.labelEdges = new int[INITIAL_LABEL_CAPACITY];
+		this.labelWasArg1 = new boolean[INITIAL_LABEL_CAPACITY];
+		this.labelProcessed = new boolean[INITIAL_LABEL_CAPACITY];
+		this.labelNext = new int[INITIAL_LABEL_CAPACITY];
+		this.heap = new int[INITIAL_LABEL_CAPACITY];
+	}
+
+	/**
+	 * returns an empty state from the pool, or a new one if the pool is empty
+	 * @param graph the graph searched by the iterator
+	 * @param comparator defines the order in which the labels are polled
+	 * @return
+	 */
+	static BANKSIteratorState acquire(CompactSteinerGraph graph, SteinerNodeComparator comparator) {
+		BANKSIteratorState state;
+		synchronized (pool) {
+			state = pool.poll();
+		}
+		if (state == null)
+			state = new BANKSIteratorState();
+		state.init(graph, comparator);
+		return state;
+	}
+
+	/**
+	 * clears the state and gives it back to the pool. The state should not be used after calling this method.
+	 */
+	void release() {
+		clear();
+		synchronized (pool) {
+			if (pool.size() < MAX_POOLED_STATES)
+				pool.offer(this);
+		}
+	}
+
+	private void init(CompactSteinerGraph graph, SteinerNodeComparator comparator) {
+		this.graph = graph;
+		this.comparator = comparator;
+		int nodeCount = graph.getNodeCount();
+		if (this.firstLabels.length < nodeCount) {
+			int words = (nodeCount + 63) >>> 6;
+			this.visitedNodes = new long[words];
+			this.processedNodes = new long[words];
+			this.recursions = new int[nodeCount];
+			this.firstLabels = new int[nodeCount];
+			Arrays.fill(this.firstLabels, -1);
+		}
+	}
+
+	/**
+	 * only resets the entries touched by the last search, so the cost does not depend on the size of the graph
+	 */
+	private void clear() {
+		for (int label = 0; label < numOfLabels; label++) {
+			int node = labelNodes[label];
+			visitedNodes[node >>> 6] = 0;
+			processedNodes[node >>> 6] = 0;
+			recursions[node] = 0;
+			firstLabels[node] = -1;
+			labelProcessed[label] = false;
+		}
+		this.numOfLabels = 0;
+		this.heapSize = 0;
+		this.graph = null;
+		this.comparator = null;
+	}
+
+	boolean isVisited(int node) {
+		return (visitedNodes[node >>> 6] & (1L << node)) != 0;
+	}
+
+	void setVisited(int node) {
+		visitedNodes[node >>> 6] |= (1L << node);
+	}
+
+	/**
+	 * @param node id of a node
+	 * @return true if a label of the node has been polled from the iterator
+	 */
+	boolean isProcessed(int node) {
+		return (processedNodes[node >>> 6] & (1L << node)) != 0;
+	}
+
+	int getRecursion(int node) {
+		return recursions[node];
+	}
+
+	void setRecursion(int node, int recursion) {
+		recursions[node] = recursion;
+	}
+
+	/**
+	 * adds a new label to the pool
+	 * @param node the node reached by the iterator
+	 * @param distance distance of the node to the terminal of the iterator
+	 * @param predecessor label from which the node is reached, -1 for the terminal
+	 * @param edge position of the edge to the predecessor in the compact graph, -1 for the terminal
+	 * @param wasArg1 whether the node is the source of the edge to the predecessor
+	 * @return id of the label
+	 */
+	int addLabel(int node, double distance, int predecessor, int edge, boolean wasArg1) {
+		if (numOfLabels == labelNodes.length) {
+			int capacity = numOfLabels << 1;
+			labelNodes = Arrays.copyOf(labelNodes, capacity);
+			labelDistances = Arrays.copyOf(labelDistances, capacity);
+			labelPredecessors = Arrays.copyOf(labelPredecessors, capacity);
+			labelEdges = Arrays.copyOf(labelEdges, capacity);
+			labelWasArg1 = Arrays.copyOf(labelWasArg1, capacity);
+			labelProcessed = Arrays.copyOf(labelProcessed, capacity);
+			labelNext = Arrays.copyOf(labelNext, capacity);
+		}
+		int label = numOfLabels++;
+		labelNodes[label] = node;
+		labelDistances[label] = distance;
+		labelPredecessors[label] = predecessor;
+		labelEdges[label] = edge;
+		labelWasArg1[label] = wasArg1;
+		labelProcessed[label] = false;
+		labelNext[label] = -1;
+		return label;
+	}
+
+	int getNode(int label) {
+		return labelNodes[label];
+	}
+
+	double getDistance(int label) {
+		return labelDistances[label];
+	}
+
+	int getPredecessor(int label) {
+		return labelPredecessors[label];
+	}
+
+	int getEdge(int label) {
+		return labelEdges[label];
+	}
+
+	/**
+	 * @param label id of a label
+	 * @return the link through which the node of the label is reached, null for the terminal
+	 */
+	SteinerEdge getLink(int label) {
+		int edge = labelEdges[label];
+		return edge < 0 ? null : graph.getEdge(edge);
+	}
+
+	boolean wasArg1(int label) {
+		return labelWasArg1[label];
+	}
+
+	boolean isLabelProcessed(int label) {
+		return labelProcessed[label];
+	}
+
+	/**
+	 * marks the label and its node as processed
+	 * @param label
+	 */
+	void setProcessed(int label) {
+		labelProcessed[label] = true;
+		int node = labelNodes[label];
+		processedNodes[node >>> 6] |= (1L << node);
+	}
+
+	/**
+	 * inserts the label into the list of labels of its node, which is sorted by distance.
+	 * A label with the same distance as a label already in the list is not added.
+	 * @param label
+	 */
+	void addToDuplicates(int label) {
+		int node = labelNodes[label];
+		double distance = labelDistances[label];
+		int previous = -1;
+		int current = firstLabels[node];
+		while (current >= 0 && labelDistances[current] < distance) {
+			previous = current;
+			current = labelNext[current];
+		}
+		if (current >= 0 && labelDistances[current] == distance)
+			return;
+		labelNext[label] = current;
+		if (previous < 0)
+			firstLabels[node] = label;
+		else
+			labelNext[previous] = label;
+	}
+
+	/**
+	 * @param node id of a node
+	 * @return the label of the node with the smallest distance, -1 if the node has not been visited
+	 */
+	int getFirstLabel(int node) {
+		return firstLabels[node];
+	}
+
+	int getNextLabel(int label) {
+		return labelNext[label];
+	}
+
+	boolean isEmpty() {
+		return heapSize == 0;
+	}
+
+	int peek() {
+		return heapSize == 0 ? -1 : heap[0];
+	}
+
+	// the heap works the same as java.util.PriorityQueue, so the labels are polled in the same order
+
+	void offer(int label) {
+		if (heapSize == heap.length)
+			heap = Arrays.copyOf(heap, heapSize << 1);
+		int k = heapSize++;
+		while (k > 0) {
+			int parent = (k - 1) >>> 1;
+			int e = heap[parent];
+			if (compare(label, e) >= 0)
+				break;
+			heap[k] = e;
+			k = parent;
+		}
+		heap[k] = label;
+	}
+
+	int poll() {
+		if (heapSize == 0)
+			return -1;
+		int result = heap[0];
+		int n = --heapSize;
+		int x = heap[n];
+		if (n > 0) {
+			int k = 0;
+			int half = n >>> 1;
+			while (k < half) {
+				int child = (k << 1) + 1;
+				int c = heap[child];
+				int right = child + 1;
+				if (right < n && compare(c, heap[right]) > 0)
+					c = heap[child = right];
+				if (compare(x, c) <= 0)
+					break;
+				heap[k] = c;
+				k = child;
+			}
+			heap[k] = x;
+		}
+		return result;
+	}
+
+	private int compare(int label1, int label2) {
+		return comparator.compare(labelEdges[label1], labelDistances[label1],
+				labelEdges[label2], labelDistances[label2]);
+	}
+}
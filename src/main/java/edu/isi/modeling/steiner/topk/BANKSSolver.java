@@ -0,0 +1,29 @@
+package edu.isi.modeling.steiner.topk;
+
+import java.util.Queue;
+import java.util.TreeSet;
+
+/**
+ * top-k Steiner trees using the customized BANKS heuristic
+ */
+public class BANKSSolver implements SteinerSolver {
+
+	@Override
+	public String getName() {
+		return SteinerSolvers.BANKS;
+	}
+
+	@Override
+	public Queue<ResultGraph> getTopKTrees(TreeSet<SteinerNode> terminals,
+			CompactSteinerGraph graph,
+			int k,
+			Integer recursiveLevel,
+			Integer maxPermutations,
+			SearchBudget budget) throws Exception {
+
+		CustomizedBANKS N = new CustomizedBANKS(terminals, graph, recursiveLevel, maxPermutations);
+		N.setBudget(budget);
+		return N.getTopKTrees(k);
+	}
+
+}
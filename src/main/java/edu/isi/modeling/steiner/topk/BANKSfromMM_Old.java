@@ -73,8 +73,11 @@ public class BANKSfromMM_Old extends TopKSteinertrees {
 	protected Queue<BANKSIterator> banksIterators;
 	
 
-	public BANKSfromMM_Old(TreeSet<SteinerNode> terminals, Integer recursiveLevel, Integer maxPermutations) throws Exception {
-		super(terminals);
+	public BANKSfromMM_Old(TreeSet<SteinerNode> terminals, 
+			Map<SteinerNode, TreeSet<SteinerEdge>> graph, 
+			Map<String, SteinerNode> nodes,
+			Integer recursiveLevel, Integer maxPermutations) throws Exception {
+		super(terminals, graph, nodes);
 		this.recursiveLevel = recursiveLevel;
 		this.maxPermutations = maxPermutations;
 		
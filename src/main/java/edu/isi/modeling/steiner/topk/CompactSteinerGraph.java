@@ -0,0 +1,368 @@
+package edu.isi.modeling.steiner.topk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * This class is a frozen, int-indexed copy of a Steiner search graph in
+ * compressed sparse row (CSR) form. For each node, its incoming edges are stored
+ * in a contiguous range of parallel arrays, already sorted by weight, so that
+ * the BANKS iterators can walk them without copying them into a priority queue.
+ * The model ids supporting each edge are kept as indexes into a model dictionary.
+ *
+ * An instance is built once per version of the top-k graph and is never modified,
+ * so it can be shared by concurrent searches.
+ *
+ * An instance can also extend another one with a few changed nodes (see extend). It only stores 
+ * the incoming edges of the changed nodes and reads the rest from the base, so a graph that differs 
+ * from a large one in a few nodes is built in time proportional to the changes. The nodes, edges 
+ * and models of the base keep their ids, and the new ones are numbered after them.
+ */
+public class CompactSteinerGraph {
+
+	// the graph extended by this one, null if this one is built from scratch
+	private final CompactSteinerGraph base;
+	private final int numOfBaseNodes;
+	private final int numOfBaseEdges;
+	private final int numOfBaseModels;
+	private final int numOfBaseModelPositions;
+	// nodes of the base whose incoming edges are replaced by this graph, sorted
+	private final int[] replacedNodes;
+
+	// node id - numOfBaseNodes --> node name
+	private final String[] nodeNames;
+	// node name --> node id, only for the nodes that are not in the base
+	private final HashMap<String, Integer> nodeIds;
+
+	// incoming edges of the i-th local node are in [inOffsets[i], inOffsets[i+1]). The local nodes are the 
+	// replaced nodes followed by the new nodes, the edge positions are numOfBaseEdges + position in the arrays
+	private final int[] inOffsets;
+	private final int[] inSources;
+	private final float[] inWeights;
+	private final SteinerEdge[] inEdges;
+
+	// model ids of edge e are modelIds[edgeModels[j]] for j in [modelOffsets[e], modelOffsets[e+1]).
+	// The models are numbered after the models of the base, and the positions after its positions.
+	private final String[] modelIds;
+	private final HashMap<String, Integer> modelIndex;
+	private final int[] modelOffsets;
+	private final int[] edgeModels;
+	private final int[] sortedEdgeModels;
+
+	private CompactSteinerGraph(CompactSteinerGraph base, int[] replacedNodes,
+			String[] nodeNames, HashMap<String, Integer> nodeIds,
+			int[] inOffsets, int[] inSources, float[] inWeights, SteinerEdge[] inEdges,
+			String[] modelIds, HashMap<String, Integer> modelIndex, int[] modelOffsets, int[] edgeModels, int[] sortedEdgeModels) {
+		this.base = base;
+		this.numOfBaseNodes = base == null ? 0 : base.getNodeCount();
+		this.numOfBaseEdges = base == null ? 0 : base.getEdgeCount();
+		this.numOfBaseModels = base == null ? 0 : base.getModelCount();
+		this.numOfBaseModelPositions = base == null ? 0 : base.edgeModels.length;
+		this.replacedNodes = replacedNodes;
+		this.nodeNames = nodeNames;
+		this.nodeIds = nodeIds;
+		this.inOffsets = inOffsets;
+		this.inSources = inSources;
+		this.inWeights = inWeights;
+		this.inEdges = inEdges;
+		this.modelIds = modelIds;
+		this.modelIndex = modelIndex;
+		this.modelOffsets = modelOffsets;
+		this.edgeModels = edgeModels;
+		this.sortedEdgeModels = sortedEdgeModels;
+	}
+
+	/**
+	 * builds the compact representation of a graph in which each node is mapped to its incoming edges
+	 * @param graph the top-k graph
+	 * @return the frozen graph
+	 */
+	public static CompactSteinerGraph build(Map<SteinerNode, TreeSet<SteinerEdge>> graph) {
+		return build(null, graph);
+	}
+
+	/**
+	 * builds a graph that is the same as the base except for the incoming edges of a few nodes.
+	 * @param base a graph built from scratch (see isExtension)
+	 * @param changedNodes the nodes whose incoming edges are not the ones of the base mapped to their 
+	 * incoming edges, null or an empty set if the node has no incoming edge anymore
+	 * @return the frozen graph
+	 */
+	public static CompactSteinerGraph extend(CompactSteinerGraph base, Map<SteinerNode, TreeSet<SteinerEdge>> changedNodes) {
+		if (base.isExtension())
+			throw new IllegalArgumentException("only a graph built from scratch can be extended");
+		return build(base, changedNodes);
+	}
+
+	/**
+	 * @return true if this graph extends another one, it cannot be extended itself
+	 */
+	public boolean isExtension() {
+		return base != null;
+	}
+
+	/**
+	 * @param base the extended graph, null to build the graph from scratch
+	 * @param graph the nodes of the new graph (or the changed nodes if there is a base) mapped to their incoming edges
+	 */
+	private static CompactSteinerGraph build(CompactSteinerGraph base, Map<SteinerNode, TreeSet<SteinerEdge>> graph) {
+
+		// node ids follow the order of node names, so they do not depend on the hashing order
+		TreeSet<String> names = new TreeSet<String>();
+		TreeSet<Integer> replaced = new TreeSet<Integer>();
+		for (Map.Entry<SteinerNode, TreeSet<SteinerEdge>> entry : graph.entrySet()) {
+			int id = base == null ? -1 : base.getNodeId(entry.getKey().name());
+			if (id >= 0)
+				replaced.add(id);
+			else
+				names.add(entry.getKey().name());
+			if (entry.getValue() == null) continue;
+			for (SteinerEdge e : entry.getValue()) {
+				// only the nodes that are not in the base get new ids
+				if (base == null || base.getNodeId(e.sourceNode.name()) < 0)
+					names.add(e.sourceNode.name());
+				if (base == null || base.getNodeId(e.sinkNode.name()) < 0)
+					names.add(e.sinkNode.name());
+			}
+		}
+
+		int numOfBaseNodes = base == null ? 0 : base.getNodeCount();
+		int[] replacedNodes = new int[replaced.size()];
+		int numOfReplaced = 0;
+		for (Integer id : replaced)
+			replacedNodes[numOfReplaced++] = id;
+
+		String[] nodeNames = names.toArray(new String[names.size()]);
+		HashMap<String, Integer> nodeIds = new HashMap<String, Integer>(nodeNames.length * 2);
+		for (int i = 0; i < nodeNames.length; i++)
+			nodeIds.put(nodeNames[i], numOfBaseNodes + i);
+
+		int numOfLocalNodes = replacedNodes.length + nodeNames.length;
+		List<List<SteinerEdge>> incomingEdges = new ArrayList<List<SteinerEdge>>(numOfLocalNodes);
+		for (int i = 0; i < numOfLocalNodes; i++)
+			incomingEdges.add(null);
+
+		Comparator<SteinerEdge> weightComparator = new Comparator<SteinerEdge>() {
+			public int compare(SteinerEdge e1, SteinerEdge e2) {
+				return Float.compare(e1.weight(), e2.weight());
+			}
+		};
+
+		int numOfEdges = 0;
+		for (Map.Entry<SteinerNode, TreeSet<SteinerEdge>> entry : graph.entrySet()) {
+			if (entry.getValue() == null || entry.getValue().isEmpty()) continue;
+			// the edges come in the order of the tree set and the sort is stable,
+			// so edges with the same weight are always visited in the same order
+			List<SteinerEdge> edges = new ArrayList<SteinerEdge>(entry.getValue());
+			Collections.sort(edges, weightComparator);
+			incomingEdges.set(getLocalNode(base, replacedNodes, nodeIds, entry.getKey().name()), edges);
+			numOfEdges += edges.size();
+		}
+
+		int[] inOffsets = new int[numOfLocalNodes + 1];
+		int[] inSources = new int[numOfEdges];
+		float[] inWeights = new float[numOfEdges];
+		SteinerEdge[] inEdges = new SteinerEdge[numOfEdges];
+
+		int numOfBaseModels = base == null ? 0 : base.getModelCount();
+		List<String> modelIdList = new ArrayList<String>();
+		HashMap<String, Integer> modelIndex = new HashMap<String, Integer>();
+		int[] modelOffsets = new int[numOfEdges + 1];
+		List<Integer> edgeModelList = new ArrayList<Integer>();
+
+		int pos = 0;
+		for (int i = 0; i < numOfLocalNodes; i++) {
+			inOffsets[i] = pos;
+			List<SteinerEdge> edges = incomingEdges.get(i);
+			if (edges == null) continue;
+			for (SteinerEdge e : edges) {
+				String sourceName = e.sourceNode.name();
+				Integer source = nodeIds.get(sourceName);
+				inSources[pos] = source != null ? source.intValue() : base.getNodeId(sourceName);
+				inWeights[pos] = e.weight();
+				inEdges[pos] = e;
+				modelOffsets[pos] = edgeModelList.size();
+				Set<String> ids = e.getModelIds();
+				if (ids != null) {
+					for (String id : ids) {
+						int index = base == null ? -1 : base.getModelIndex(id);
+						if (index < 0) {
+							Integer newIndex = modelIndex.get(id);
+							if (newIndex == null) {
+								newIndex = numOfBaseModels + modelIdList.size();
+								modelIndex.put(id, newIndex);
+								modelIdList.add(id);
+							}
+							index = newIndex;
+						}
+						edgeModelList.add(index);
+					}
+				}
+				pos++;
+			}
+		}
+		inOffsets[numOfLocalNodes] = pos;
+		modelOffsets[numOfEdges] = edgeModelList.size();
+
+		int[] edgeModels = new int[edgeModelList.size()];
+		for (int i = 0; i < edgeModels.length; i++)
+			edgeModels[i] = edgeModelList.get(i);
+
+		// the same indexes sorted within each edge, so that containsModel can use a binary search
+		int[] sortedEdgeModels = edgeModels.clone();
+		for (int edge = 0; edge < numOfEdges; edge++)
+			Arrays.sort(sortedEdgeModels, modelOffsets[edge], modelOffsets[edge + 1]);
+
+		return new CompactSteinerGraph(base, replacedNodes, nodeNames, nodeIds,
+				inOffsets, inSources, inWeights, inEdges,
+				modelIdList.toArray(new String[modelIdList.size()]), modelIndex, modelOffsets, edgeModels, sortedEdgeModels);
+	}
+
+	private static int getLocalNode(CompactSteinerGraph base, int[] replacedNodes, HashMap<String, Integer> nodeIds, String name) {
+		Integer id = nodeIds.get(name);
+		if (id != null)
+			return replacedNodes.length + id - (base == null ? 0 : base.getNodeCount());
+		return Arrays.binarySearch(replacedNodes, base.getNodeId(name));
+	}
+
+	/**
+	 * @return the index of the incoming edges of the node in inOffsets, or -1 if they are the ones of the base
+	 */
+	private int getLocalNode(int nodeId) {
+		if (nodeId >= numOfBaseNodes)
+			return replacedNodes.length + nodeId - numOfBaseNodes;
+		if (replacedNodes.length == 0)
+			return -1;
+		int i = Arrays.binarySearch(replacedNodes, nodeId);
+		return i < 0 ? -1 : i;
+	}
+
+	public int getNodeCount() {
+		return numOfBaseNodes + nodeNames.length;
+	}
+
+	public int getEdgeCount() {
+		return numOfBaseEdges + inEdges.length;
+	}
+
+	/**
+	 * @param name name of the node
+	 * @return the id of the node, or -1 if the graph does not have such a node
+	 */
+	public int getNodeId(String name) {
+		Integer id = nodeIds.get(name);
+		if (id != null)
+			return id.intValue();
+		return base == null ? -1 : base.getNodeId(name);
+	}
+
+	public String getNodeName(int nodeId) {
+		if (nodeId < numOfBaseNodes)
+			return base.getNodeName(nodeId);
+		return nodeNames[nodeId - numOfBaseNodes];
+	}
+
+	/**
+	 * @param nodeId id of the node
+	 * @return position of the first (lightest) incoming edge of the node
+	 */
+	public int getFirstIncomingEdge(int nodeId) {
+		int local = getLocalNode(nodeId);
+		return local < 0 ? base.getFirstIncomingEdge(nodeId) : numOfBaseEdges + inOffsets[local];
+	}
+
+	/**
+	 * @param nodeId id of the node
+	 * @return position after the last (heaviest) incoming edge of the node
+	 */
+	public int getLastIncomingEdge(int nodeId) {
+		int local = getLocalNode(nodeId);
+		return local < 0 ? base.getLastIncomingEdge(nodeId) : numOfBaseEdges + inOffsets[local + 1];
+	}
+
+	public int getSource(int edge) {
+		if (edge < numOfBaseEdges)
+			return base.getSource(edge);
+		return inSources[edge - numOfBaseEdges];
+	}
+
+	public float getWeight(int edge) {
+		if (edge < numOfBaseEdges)
+			return base.getWeight(edge);
+		return inWeights[edge - numOfBaseEdges];
+	}
+
+	public SteinerEdge getEdge(int edge) {
+		if (edge < numOfBaseEdges)
+			return base.getEdge(edge);
+		return inEdges[edge - numOfBaseEdges];
+	}
+
+	public boolean isForced(int edge) {
+		return getEdge(edge).isForced();
+	}
+
+	public int getModelCount() {
+		return numOfBaseModels + modelIds.length;
+	}
+
+	public String getModelId(int modelIndex) {
+		if (modelIndex < numOfBaseModels)
+			return base.getModelId(modelIndex);
+		return modelIds[modelIndex - numOfBaseModels];
+	}
+
+	/**
+	 * @param modelId id of a model
+	 * @return the index of the model, or -1 if no edge of the graph belongs to the model
+	 */
+	public int getModelIndex(String modelId) {
+		Integer index = modelIndex.get(modelId);
+		if (index != null)
+			return index.intValue();
+		return base == null ? -1 : base.getModelIndex(modelId);
+	}
+
+	public int getFirstModel(int edge) {
+		if (edge < numOfBaseEdges)
+			return base.getFirstModel(edge);
+		return numOfBaseModelPositions + modelOffsets[edge - numOfBaseEdges];
+	}
+
+	public int getLastModel(int edge) {
+		if (edge < numOfBaseEdges)
+			return base.getLastModel(edge);
+		return numOfBaseModelPositions + modelOffsets[edge - numOfBaseEdges + 1];
+	}
+
+	/**
+	 * @param pos a position in [getFirstModel(edge), getLastModel(edge))
+	 * @return index of the model stored in that position
+	 */
+	public int getModel(int pos) {
+		if (pos < numOfBaseModelPositions)
+			return base.getModel(pos);
+		return edgeModels[pos - numOfBaseModelPositions];
+	}
+
+	/**
+	 * @param edge position of the edge
+	 * @param model index of a model
+	 * @return true if the model supports the edge
+	 */
+	public boolean containsModel(int edge, int model) {
+		if (edge < numOfBaseEdges)
+			return base.containsModel(edge, model);
+		edge -= numOfBaseEdges;
+		int first = modelOffsets[edge];
+		int last = modelOffsets[edge + 1];
+		return first < last && Arrays.binarySearch(sortedEdgeModels, first, last, model) >= 0;
+	}
+}
@@ -4,90 +4,90 @@ package edu.isi.modeling.steiner.topk;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import edu.isi.modeling.config.ModelingConfiguration;
 
 public class CustomizedBANKS extends TopKSteinertrees {
-	
-//	private static Logger logger = LoggerFactory.getLogger(BANKSfromMM.class);
 
+//	private static Logger logger = LoggerFactory.getLogger(BANKSfromMM.class);
+	
+	// shared by the searches that expand their iterators in parallel. The pool is not partitioned by request, 
+	// so the tasks of a large search can keep the threads busy and delay the rounds of the other searches.
+	private static final ForkJoinPool searchPool = new ForkJoinPool();
+	
 	private int iteratorCounter=0;
 	private ModelCoherence modelCoherence;
+	private SteinerNodeComparator nodeComparator;
+	private CompactSteinerGraph compactGraph;
+	// limits of the search, null if there is no limit
+	private SearchBudget budget;
+	
+	// best trees found so far
+	private TopKTreeQueue topKTrees;
+	
+	// iterators indexed by their ids
+	private List<BANKSIterator> iteratorList;
 	
-	private HashMap<SteinerNode,SteinerNode> recurseNodeMap;
-	private List<HashMap<SteinerNode,SteinerNode>> shortestNodeIndex;
-	private List<HashMap<SteinerNode,SortedSteinerNodes>> duplicateIndex;
-
 	private Integer recursiveLevel = 5;
 	private Integer maxPermutations = 3;
-
+	
 	public CustomizedBANKS() {
 		// TODO Auto-generated constructor stub
 	}
 	
-	class SortedSteinerNodes{
-		TreeSet<SteinerNode> set;
-		SortedSteinerNodes(){
-			set= new TreeSet<SteinerNode>(new Comparator<SteinerNode>(){
-				public int compare(SteinerNode n1, SteinerNode n2){
-					if(n1.distancesToSources[0]>n2.distancesToSources[0]) return 1;
-					else if(n1.distancesToSources[0]<n2.distancesToSources[0])return -1;
-					else return 0;
-				}
-			});
-		}
-	}
-	
 	/**
 	 * implements a BANKS iterator
 	 * @author kasneci
 	 *
 	 */
-	public static ArrayList<Integer> aaa;
 	class BANKSIterator{
 		int id;
-		Queue<SteinerNode> banksIterator;
+		// labels reached by the iterator, only available while the search is running
+		BANKSIteratorState state;
 		double distanceToSource;
-		SteinerEdge predecessorLink;
-		BANKSIterator(ModelCoherence modelCoherence){
+		// position of the edge of the label at the head of the queue, -1 for a terminal
+		int predecessorEdge;
+		BANKSIterator(){
 			id=iteratorCounter;
-			banksIterator= new PriorityQueue<SteinerNode>(10, new SteinerNodeComparator(modelCoherence));
-//			banksIterator= new PriorityQueue<SteinerNode>(10, new Comparator<SteinerNode>(){
-//				public int compare(SteinerNode n1, SteinerNode n2){
-//					if(n1.distancesToSources[0]>n2.distancesToSources[0]) return 1;
-//					else if(n1.distancesToSources[0]<n2.distancesToSources[0])return -1;
-//					else return 0;
-//				}
-//			});
 			distanceToSource=0;
+			predecessorEdge=-1;
 			iteratorCounter++;
 		}
 	}
 	
 	/*
-	 * priority queue of BANKS SSSP (single source shortest paths) 
+	 * priority queue of BANKS SSSP (single source shortest paths)
 	 * iterators ordered by distance to sources
 	 */
 	protected Queue<BANKSIterator> banksIterators;
 	
-	public CustomizedBANKS(TreeSet<SteinerNode> terminals, Integer recursiveLevel, Integer maxPermutations, String contextId) throws Exception {
+	/**
+	 * @param terminals the terminal nodes for which the Steiner trees are going to be constructed
+	 * @param compactGraph the frozen search graph, it is only read by this instance, so several instances
+	 * can search the same graph concurrently
+	 */
+	public CustomizedBANKS(TreeSet<SteinerNode> terminals,
+			CompactSteinerGraph compactGraph,
+			Integer recursiveLevel, Integer maxPermutations) throws Exception {
 		super(terminals);
-	
-		this.modelCoherence = new ModelCoherence(30,30);
+		this.compactGraph = compactGraph;
+		
+		this.modelCoherence = new ModelCoherence(compactGraph, 30, 30);
+		this.nodeComparator = new SteinerNodeComparator(compactGraph, this.modelCoherence);
 		if (recursiveLevel != null)
 			this.recursiveLevel = recursiveLevel;
 		if (maxPermutations != null)
 			this.maxPermutations = maxPermutations;
 		
-		banksIterators=new PriorityQueue<BANKSIterator>(terminals.size(), new BANKSIteratorComparator(this.modelCoherence));
-		
+		banksIterators=new PriorityQueue<BANKSIterator>(terminals.size(), new BANKSIteratorComparator(this.nodeComparator));
+
 //		banksIterators=new PriorityQueue<BANKSIterator>(terminals.size(), new Comparator<BANKSIterator>(){
 //			public int compare(BANKSIterator it1, BANKSIterator it2){
 //				if(it1.distanceToSource>it2.distanceToSource) return 1;
@@ -96,89 +96,129 @@ public class CustomizedBANKS extends TopKSteinertrees {
 //			}
 //		});
 		
-		shortestNodeIndex = new ArrayList<HashMap<SteinerNode, SteinerNode>>();
-		duplicateIndex = new ArrayList<HashMap<SteinerNode,SortedSteinerNodes>>();
+		iteratorList = new ArrayList<BANKSIterator>(terminalNodes.size());
 		
 		for(int i=0; i<terminalNodes.size();i++){
-			banksIterators.offer(new BANKSIterator(this.modelCoherence));
-			shortestNodeIndex.add(new HashMap<SteinerNode,SteinerNode>());
+			BANKSIterator banksIterator = new BANKSIterator();
+			iteratorList.add(banksIterator);
+			banksIterators.offer(banksIterator);
 		}
 		
-		recurseNodeMap = new HashMap<SteinerNode, SteinerNode>();
-		
 	}
 	
-
-	private List<HashMap<Integer, SteinerNode>> getPermutation(
-			List<HashMap<Integer, SteinerNode>> searchNodeInQueues, 
-			List<Map<String, SteinerNode>> processedNodes,
-			SteinerNode searchNode, int queueId, int max, int mainQueueId) {
+	
+	/**
+	 * a combination of labels, one for each iterator, given by the positions of the labels in the candidate lists
+	 */
+	private static class Permutation {
+		int[] positions;
+		double distance;
+		// only the positions from this one on are increased to get the next combinations, 
+		// so each combination is created once
+		int lastChanged;
+		int order;
 		
-		if (queueId == duplicateIndex.size())
-			return searchNodeInQueues;
-
-		if (queueId == mainQueueId) { //ignore this queue
-			return getPermutation(searchNodeInQueues, processedNodes, searchNode, queueId + 1, max, mainQueueId);
+		Permutation(int[] positions, double distance, int lastChanged, int order) {
+			this.positions = positions;
+			this.distance = distance;
+			this.lastChanged = lastChanged;
+			this.order = order;
 		}
+	}
+	
+	private static final Comparator<Permutation> permutationComparator = new Comparator<Permutation>() {
+		public int compare(Permutation p1, Permutation p2) {
+			int c = Double.compare(p1.distance, p2.distance);
+			if (c != 0) return c;
+			return Integer.compare(p1.order, p2.order);
+		}
+	};
+	
+	/**
+	 * enumerates the combinations of the labels of the common ancestor, one label for each iterator, 
+	 * in the order of the sum of their distances. Only the returned combinations and their next ones 
+	 * are created, so the work does not depend on the size of the whole cartesian product.
+	 * @param ancestor label of the ancestor in the main iterator, it is in all of the combinations
+	 * @param mainQueueId the iterator that reached the ancestor last
+	 * @param max number of labels of the ancestor considered in each of the other iterators
+	 * @param cutoff maximum number of combinations
+	 * @return the best combinations, each one has a label id for each of the iterators
+	 */
+	private List<int[]> getPermutations(int ancestor, int mainQueueId, int max, int cutoff) {
+		
+		int numOfQueues = iteratorList.size();
+		int searchNode = iteratorList.get(mainQueueId).state.getNode(ancestor);
+		List<int[]> permutations = new ArrayList<int[]>(cutoff);
 		
-		SortedSteinerNodes sortedNodes = duplicateIndex.get(queueId).get(searchNode);
-		List<SteinerNode> steinerNodes = new LinkedList<SteinerNode>();
-		Iterator<SteinerNode> nodeIterator = sortedNodes.set.iterator();
-		for (int i = 0; i < sortedNodes.set.size() && i < max; i++) {
-			SteinerNode n = nodeIterator.next();
-			if (processedNodes.get(queueId).containsKey(n.name))
-				steinerNodes.add(n);
+		// candidate labels of each iterator, sorted by distance
+		int[][] labels = new int[numOfQueues][];
+		int[] numOfLabels = new int[numOfQueues];
+		double distance = 0.0;
+		for (int queueId = 0; queueId < numOfQueues; queueId++) {
+			BANKSIteratorState state = iteratorList.get(queueId).state;
+			if (queueId == mainQueueId) {
+				labels[queueId] = new int[] {ancestor};
+				numOfLabels[queueId] = 1;
+			} else {
+				labels[queueId] = new int[max];
+				int label = state.getFirstLabel(searchNode);
+				for (int i = 0; label >= 0 && i < max; i++) {
+					if (state.isLabelProcessed(label))
+						labels[queueId][numOfLabels[queueId]++] = label;
+					label = state.getNextLabel(label);
+				}
+				if (numOfLabels[queueId] == 0)
+					return permutations;
+			}
+			distance += state.getDistance(labels[queueId][0]);
 		}
 		
-		List<HashMap<Integer, SteinerNode>> newSearchNodeInQueues = 
-				new LinkedList<HashMap<Integer, SteinerNode>>();
+		PriorityQueue<Permutation> candidates = new PriorityQueue<Permutation>(cutoff + 1, permutationComparator);
+		int order = 0;
+		candidates.offer(new Permutation(new int[numOfQueues], distance, 0, order++));
 		
-		for (HashMap<Integer, SteinerNode> map : searchNodeInQueues) {
-			for (SteinerNode n : steinerNodes) {
-				HashMap<Integer, SteinerNode> newMap = 
-						new HashMap<Integer, SteinerNode>(map);
-				newMap.put(queueId, n);
-				newSearchNodeInQueues.add(newMap);
+		while (permutations.size() < cutoff && !candidates.isEmpty()) {
+			Permutation p = candidates.poll();
+			
+			int[] map = new int[numOfQueues];
+			for (int queueId = 0; queueId < numOfQueues; queueId++)
+				map[queueId] = labels[queueId][p.positions[queueId]];
+			permutations.add(map);
+			
+			for (int queueId = p.lastChanged; queueId < numOfQueues; queueId++) {
+				int pos = p.positions[queueId];
+				if (pos + 1 >= numOfLabels[queueId]) continue;
+				BANKSIteratorState state = iteratorList.get(queueId).state;
+				int[] positions = p.positions.clone();
+				positions[queueId] = pos + 1;
+				double newDistance = p.distance 
+						- state.getDistance(labels[queueId][pos]) 
+						+ state.getDistance(labels[queueId][pos + 1]);
+				candidates.offer(new Permutation(positions, newDistance, queueId, order++));
 			}
 		}
 		
-		return getPermutation(newSearchNodeInQueues, processedNodes, searchNode, queueId + 1, max, mainQueueId);
+		return permutations;
 	}
 	
-	private int getApprTree(SteinerNode ancestor, List<Map<String, SteinerNode>> processedNodes, int queueId) throws Exception{
-
-		SteinerNode searchNode = ancestor;
-		if (this.recurseNodeMap.containsKey(ancestor)) 
-			searchNode = this.recurseNodeMap.get(ancestor);
-
-		List<HashMap<Integer, SteinerNode>> searchNodeInQueues = 
-				new LinkedList<HashMap<Integer, SteinerNode>>();
-
-		HashMap<Integer, SteinerNode> mainQueueMap = 
-				new HashMap<Integer, SteinerNode>();
-		mainQueueMap.put(queueId, ancestor);
-		searchNodeInQueues.add(mainQueueMap);
-
-		int max = this.maxPermutations.intValue();
+	private int getApprTree(int ancestor, int queueId) throws Exception{
 		
+		int max = this.maxPermutations.intValue();
+
 //		if (this.maxPermutations == null) {
-//			if (duplicateIndex.size() <= 15) max = 3;
-//			else if (duplicateIndex.size() > 15 && duplicateIndex.size() < 30) max = 2;
+//			if (iteratorList.size() <= 15) max = 3;
+//			else if (iteratorList.size() > 15 && iteratorList.size() < 30) max = 2;
 //			else max = 1;
 //		} else {
 //			max = this.maxPermutations.intValue();
 //		}
 		
-		List<HashMap<Integer, SteinerNode>> permutations = 
-				getPermutation(searchNodeInQueues, processedNodes, searchNode, 0, max, queueId);
-		
 		int cutoff = ModelingConfiguration.getTopKSteinerTree();
-		if (permutations.size() > cutoff)
-			permutations = permutations.subList(0, cutoff);
+		List<int[]> permutations = getPermutations(ancestor, queueId, max, cutoff);
 		
 		int numOfCreatedTrees = 0;
-		for (HashMap<Integer, SteinerNode> map : permutations) {
-			getApprTree(ancestor, map, processedNodes, queueId);
+		for (int[] map : permutations) {
+			getApprTree(map, queueId);
 			numOfCreatedTrees ++;
 		}
 		
@@ -187,84 +227,70 @@ public class CustomizedBANKS extends TopKSteinertrees {
 	
 	/**
 	 * reconstructs a result tree
-	 * @param ancestor the root reached by all of the iterators
+	 * @param searchNodeInQueues the label of the root in each of the iterators
+	 * @param queueId the iterator that reached the root last
 	 * @throws Exception
 	 */
 	private void getApprTree(
-			SteinerNode ancestor, 
-			HashMap<Integer, SteinerNode> searchNodeInQueues, 
-			List<Map<String, SteinerNode>> processedNodes, 
+			int[] searchNodeInQueues,
 			int queueId) throws Exception{
 		TreeSet<SteinerNode> steinerNodes = new TreeSet<SteinerNode>();
 		Map<String , SteinerNode> treeNodes= new HashMap<String, SteinerNode>();
 		
-		SteinerNode replacedNode = null;
-		if (this.recurseNodeMap.containsKey(ancestor)) {
-			replacedNode = this.recurseNodeMap.get(ancestor);
-			treeNodes.put(replacedNode.name,new SteinerNode(replacedNode.name));
-		}
-		else
-		{
-			treeNodes.put(ancestor.name(),new SteinerNode(ancestor.name()));
-		}
+		BANKSIteratorState mainState = iteratorList.get(queueId).state;
+		String ancestorName = compactGraph.getNodeName(mainState.getNode(searchNodeInQueues[queueId]));
+		treeNodes.put(ancestorName, new SteinerNode(ancestorName));
 		
 		String newNodeName;
-		SteinerNode searchNode;
-		for(int i = 0; i  < processedNodes.size(); i++){
-				
-			int j = (i + queueId) % processedNodes.size();
+		for(int i = 0; i  < iteratorList.size(); i++){
 			
-			Map<String, SteinerNode> pnM = processedNodes.get(j);
-			searchNode = searchNodeInQueues.get(j);
-			SteinerNode newNode=pnM.get(searchNode.name);
-			newNodeName = newNode.name;
-			if (this.recurseNodeMap.containsKey(newNode))
-				newNodeName = this.recurseNodeMap.get(newNode).name;
+			int j = (i + queueId) % iteratorList.size();
 			
-			while(newNode.predecessor!= null){
-				SteinerNode preNode=new SteinerNode(newNode.predecessor.name());
-				if (this.recurseNodeMap.containsKey(preNode)) {
-					preNode = new SteinerNode(this.recurseNodeMap.get(preNode).name);
-				}
-				if(!treeNodes.containsKey(preNode.name)){
-						
+			BANKSIteratorState state = iteratorList.get(j).state;
+			int newNode = searchNodeInQueues[j];
+			newNodeName = compactGraph.getNodeName(state.getNode(newNode));
+			
+			while(state.getPredecessor(newNode) >= 0){
+				int preNode = state.getPredecessor(newNode);
+				String preNodeName = compactGraph.getNodeName(state.getNode(preNode));
+				if(!treeNodes.containsKey(preNodeName)){
+					
 					try {
-						preNode.addEdge(
-							treeNodes.get(newNodeName), 
-							newNode.wasArg1,
-							newNode.relationToPredecessor, 
-							newNode.weightToPredecessor);
-							
-						treeNodes.put(preNode.name(), preNode);
+						SteinerNode n = new SteinerNode(preNodeName);
+						SteinerEdge e = state.getLink(newNode);
+						n.addEdge(
+							treeNodes.get(newNodeName),
+							state.wasArg1(newNode),
+							e.getEdgeLabel(),
+							e.getWeight());
+						
+						treeNodes.put(n.name(), n);
 					} catch (Exception e) {
 						System.out.println("exception");
 					}
 				}
-				newNode=newNode.predecessor;
-				newNodeName = newNode.name;
-				if (this.recurseNodeMap.containsKey(newNode))
-					newNodeName = this.recurseNodeMap.get(newNode).name;
+				newNode=preNode;
+				newNodeName = preNodeName;
 			}
 		}
 //		clean(treeNodes);
 		steinerNodes.addAll(treeNodes.values());
 		steinerTree=new ApprSteinerTree(terminalNodes, steinerNodes);
-
-		for (ApprSteinerTree st : addedSteinerTrees) {
-			if (st.compareTo(steinerTree) == 0)
-				return;
-		}
-		addedSteinerTrees.add(steinerTree);
-		// add tree to the result queue
-		int pos=0;
-		for(ResultGraph g: resultQueue)
-			if(g.getScore()<steinerTree.score)pos++;
-		((LinkedList<ResultGraph>)resultQueue).add(pos,steinerTree.toResultGraph());
+		
+		// add tree to the result queue, unless it is a duplicate or worse than the top-k trees
+		topKTrees.add(steinerTree);
 //		System.out.println(steinerTree.toString());
 	}
 	
 	
 	
+	/**
+	 * @param budget when the budget runs out, the search returns the trees found so far
+	 */
+	public void setBudget(SearchBudget budget) {
+		this.budget = budget;
+	}
+	
 	/**
 	 * finds the top-k interconnections by exploiting the BANKS technique
 	 * @param k number of interconnections to be retrieved
@@ -272,50 +298,57 @@ public class CustomizedBANKS extends TopKSteinertrees {
 	 */
 	public void buildConnectivityGraph(int k) throws Exception{
 		
-		//counting computed results
-		int count=0;
 		int maxRecurseCount = this.recursiveLevel.intValue();
 		
-		boolean debug = false;
+		this.topKTrees = new TopKTreeQueue(k);
 		
-		//nodes polled from queues
-		List<Map<String, SteinerNode>> processedNodes= 
-				new ArrayList<Map<String, SteinerNode>>();
-		List<Map<String, SteinerNode>> processedNodesHelper= 
-				new ArrayList<Map<String, SteinerNode>>();
-
-		
-		List<HashMap<String, Integer>> recursesForNodesInQueue = 
-				new ArrayList<HashMap<String, Integer>>();
-		
-		//mark nodes in the iterators as visited
-		int j=0;
-		for(Queue<SteinerNode> queue: iterators){
-			//instatiate processedNodes for each iterator
-			processedNodes.add(new HashMap<String, SteinerNode>());
-			processedNodesHelper.add(new HashMap<String, SteinerNode>());
-			recursesForNodesInQueue.add(new HashMap<String, Integer>());
+		try {
+			//mark nodes in the iterators as visited
+			int j=0;
+			for(Queue<SteinerNode> queue: iterators){
+				BANKSIteratorState state = BANKSIteratorState.acquire(compactGraph, nodeComparator);
+				iteratorList.get(j).state = state;
+				for(SteinerNode n: queue){
+					int nodeId = compactGraph.getNodeId(n.name());
+					if (nodeId < 0) continue;
+					state.setVisited(nodeId);
+					int label = state.addLabel(nodeId, n.distancesToSources[0], -1, -1, n.wasArg1);
+					state.addToDuplicates(label);
+					state.offer(label);
+				}
+				j++;
+			}
 			
-			Object[] arr =banksIterators.toArray();
-			for(SteinerNode n: queue){
-				visitedNodes.get(j).put(n.name(),n);
-				shortestNodeIndex.get(j).put(n, n);
-				
-				HashMap<SteinerNode, SortedSteinerNodes> map = 
-						new HashMap<SteinerNode, SortedSteinerNodes>();
-				
-				SortedSteinerNodes treeSet = new SortedSteinerNodes();
-				treeSet.set.add(n);
-				map.put(n, treeSet);
-				duplicateIndex.add(map);
-				((BANKSIterator)arr[j]).banksIterator.offer(n);
+			if (ModelingConfiguration.isParallelSteinerSearch() && iteratorList.size() > 1)
+				expandIteratorsInParallel(k, maxRecurseCount);
+			else
+				expandIterators(k, maxRecurseCount);
+			
+			resultQueue = topKTrees.getResults();
+			
+		} finally {
+			// the labels are not needed anymore, the result trees are already built
+			for (BANKSIterator banksIterator : iteratorList) {
+				if (banksIterator.state != null) {
+					banksIterator.state.release();
+					banksIterator.state = null;
+				}
 			}
-			j++;
 		}
+	}
+	
+	/**
+	 * expands the iterators one label at a time, always the iterator at the head of banksIterators
+	 * @param k number of interconnections to be retrieved
+	 * @param maxRecurseCount maximum number of times a node can be reached by an iterator
+	 * @throws Exception
+	 */
+	private void expandIterators(int k, int maxRecurseCount) throws Exception {
 		
-		String newId;
+		//counting computed results
+		int count=0;
 		
-		SteinerNode replacedNode;
+		boolean debug = false;
 		
 		while(count<k){
 			
@@ -324,29 +357,24 @@ public class CustomizedBANKS extends TopKSteinertrees {
 //				for (BANKSIterator queue : banksIterators) {
 //					System.out.println(queue.id + "-distance:" + queue.distanceToSource);
 //				}
+				if (budget != null && budget.shouldStop()) return;
 				BANKSIterator queue=banksIterators.poll();
 				if (queue == null || count > k) return; //FIXME
-				if(!queue.banksIterator.isEmpty()){
-					SteinerNode n= (SteinerNode)queue.banksIterator.poll();
-					
-					if (n.predecessorLink != null)
-						this.modelCoherence.update(n.predecessorLink);
+				BANKSIteratorState state = queue.state;
+				if(!state.isEmpty()){
+					int n = state.poll();
 					
+					if (state.getEdge(n) >= 0)
+						this.modelCoherence.update(state.getEdge(n));
+
 //					if (debug)
 //						this.modelCoherence.print();
-				
+					
 					//mark n as processed
-					processedNodes.get(queue.id).put(n.name(), n);
-					if (debug) System.out.println("*** poll" + queue.id + ":" + queue.distanceToSource + "-->" + n.name);
+					state.setProcessed(n);
+					if (debug) System.out.println("*** poll" + queue.id + ":" + queue.distanceToSource + "-->" + compactGraph.getNodeName(state.getNode(n)));
 					
-					replacedNode = n;
-					if (this.recurseNodeMap.containsKey(n)) {
-						replacedNode = this.recurseNodeMap.get(n);
-					}
-
-					processedNodesHelper.get(queue.id).put(replacedNode.name(), replacedNode);
-
-					int numOfaddedTrees=isCommonAncestor(n, processedNodes, processedNodesHelper, queue.id);
+					int numOfaddedTrees=isCommonAncestor(queue, n);
 					count += numOfaddedTrees;
 					if (debug && numOfaddedTrees > 0) {
 						System.out.println("==========================  new:" + numOfaddedTrees + ", total:" + count);
@@ -354,138 +382,197 @@ public class CustomizedBANKS extends TopKSteinertrees {
 					
 					if (count>k) break;
 					
-					Queue<SteinerEdge> rs= new PriorityQueue<SteinerEdge>(10, new Comparator<SteinerEdge>(){
-						public int compare(SteinerEdge e1, SteinerEdge e2){
-							if(e1.weight()>e2.weight()) return 1;
-							else if (e1.weight()<e2.weight()) return -1;
-							else return 0;
-						}
-					});
-											
-					rs.addAll(graph.get(replacedNode));
-					
-					while(!rs.isEmpty()){
-						
-						accessedEdges++;
-						SteinerNode newNode=null;
-						
-						// getting (creating) neighbor of n
-						SteinerEdge e= rs.poll();
-						
-						if(!replacedNode.equals(e.sourceNode)){
-							newNode= new SteinerNode(e.sourceNode.name());
-							newNode.wasArg1=true;
-						}
-						else{
-							newNode= new SteinerNode(e.sinkNode.name());
-							newNode.wasArg1=false;
-						}
-						
-//						if(processedNodes.get(queue.id).containsKey(newNode.name())) continue;
-						
-						newNode.relationToPredecessor=e.getEdgeLabel();
-						newNode.weightToPredecessor=e.getWeight();
-						
-						//check whether newNode has been visited
-						SteinerNode v=visitedNodes.get(queue.id).get(newNode.name());
-						if(v!=null){
-							
-							Integer recurseCount = recursesForNodesInQueue.get(queue.id).get(v.name);
-							if (recurseCount == null) {
-								recurseCount = 2;
-							} else if (recurseCount < maxRecurseCount) {
-								recurseCount = recurseCount + 1;
-							} else {
-								continue;
-							}
-							
-							recursesForNodesInQueue.get(queue.id).put(v.name, recurseCount);
-
-//							newNode=v;
-//							if(newNode.distancesToSources[0]>n.distancesToSources[0]+e.getWeight()){ //FIXME
-//								newNode.distancesToSources[0]=n.distancesToSources[0]+e.getWeight();
-//								newNode.predecessor= n;
-//								newNode.relationToPredecessor=e.getEdgeLabel();
-//								newNode.weightToPredecessor=e.getWeight();
-//								
-//								// reinsert the node into the queue;
-//									queue.banksIterator.remove(newNode);
-//									queue.banksIterator.offer(newNode);
-//								
-//							}
-													
-							newId = queue.id + ":" + newNode.name + "///" + (recurseCount);							
-							newNode.name = newId;
-							newNode.distancesToSources[0]=n.distancesToSources[0]+e.getWeight();
-							newNode.predecessorLink = e;
-							newNode.predecessor= n;
-							queue.banksIterator.add(newNode);		
-							recurseNodeMap.put(newNode, v);
-							visitedNodes.get(queue.id).put(newNode.name(), newNode);
-							if (debug) System.out.println("\t offer" + queue.id + ":" + newNode.distancesToSources[0] + "-->" + newNode.name);
-
-							if(newNode.distancesToSources[0] < shortestNodeIndex.get(queue.id).get(v).distancesToSources[0])
-								shortestNodeIndex.get(queue.id).put(v, newNode);
-							duplicateIndex.get(queue.id).get(v).set.add(newNode);
-						}
-						
-						//in case newNode has not been visited
-						else
-						{
-							newNode.distancesToSources[0]=n.distancesToSources[0]+e.getWeight();
-							newNode.predecessorLink = e;
-							newNode.predecessor= n;
-							
-							queue.banksIterator.add(newNode);
-							visitedNodes.get(queue.id).put(newNode.name(), newNode);
-							shortestNodeIndex.get(queue.id).put(newNode, newNode);
-							SortedSteinerNodes sortedNodes = duplicateIndex.get(queue.id).get(newNode);
-							if (sortedNodes == null) { 
-								sortedNodes = new SortedSteinerNodes();
-								duplicateIndex.get(queue.id).put(newNode,sortedNodes);
-							}
-							sortedNodes.set.add(newNode);
-							if (debug) System.out.println("\t offer" + queue.id + ":" + newNode.distancesToSources[0] + "-->" + newNode.name);
-						}	
-	
-//						if(isCommonAncestor(newNode)){
-//							count++;
-//						}	
-					}
+					int relaxedEdges = expand(state, n, maxRecurseCount);
+					accessedEdges += relaxedEdges;
+					if (budget != null) budget.addRelaxedEdges(relaxedEdges);
 				}
-				if (!queue.banksIterator.isEmpty()) {
-					queue.distanceToSource=queue.banksIterator.peek().distancesToSources[0];
-					queue.predecessorLink = queue.banksIterator.peek().predecessorLink;
+				if (!state.isEmpty()) {
+					int top = state.peek();
+					queue.distanceToSource=state.getDistance(top);
+					queue.predecessorEdge = state.getEdge(top);
 					banksIterators.add(queue);
 				}
 			}
 		}
 	}
 	
-	public int isCommonAncestor(SteinerNode n, 
-			List<Map<String, SteinerNode>> processedNodes, 
-			List<Map<String, SteinerNode>> processedNodesHelper, 
-			int queueId)throws Exception{
-		
-		SteinerNode searchFor = n;
-		if (this.recurseNodeMap.containsKey(n))
-			searchFor = this.recurseNodeMap.get(n);
-
-		for(Map<String, SteinerNode> pnM: processedNodesHelper){
-			if(!pnM.containsKey(searchFor.name())) {
-				return 0;
+	/**
+	 * expands the iterators in rounds. In each round, every iterator polls and expands a batch of labels 
+	 * on the fork/join pool, only touching its own state and reading a model coherence that does not change 
+	 * during the round. Then the polled labels are checked for common ancestors and the model coherence is 
+	 * updated in the order of the iterator ids, so the results do not depend on the scheduling of the threads.
+	 * They can still differ from the ones of the sequential expansion, which updates the model coherence after 
+	 * every label. The budget is only checked before each round, so a search can go over it by up to one round, 
+	 * i.e., a batch of labels for each iterator.
+	 * @param k number of interconnections to be retrieved
+	 * @param maxRecurseCount maximum number of times a node can be reached by an iterator
+	 * @throws Exception
+	 */
+	private void expandIteratorsInParallel(int k, int maxRecurseCount) throws Exception {
+		
+		//counting computed results
+		int count=0;
+		
+		int batchSize = Math.max(1, ModelingConfiguration.getSteinerSearchBatchSize());
+		
+		final List<ExpansionTask> tasks = new ArrayList<ExpansionTask>(iteratorList.size());
+		for (BANKSIterator banksIterator : iteratorList)
+			tasks.add(new ExpansionTask(banksIterator, batchSize, maxRecurseCount));
+		
+		while (count <= k) {
+			
+			if (budget != null && budget.shouldStop()) return;
+			
+			final List<ExpansionTask> round = new ArrayList<ExpansionTask>(tasks.size());
+			for (ExpansionTask task : tasks) {
+				if (!task.banksIterator.state.isEmpty()) {
+					task.reinitialize();
+					round.add(task);
+				}
+			}
+			if (round.isEmpty()) return;
+			
+			searchPool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected void compute() {
+					invokeAll(round);
+				}
+			});
+			
+			for (ExpansionTask task : round) {
+				accessedEdges += task.relaxedEdges;
+				if (budget != null) budget.addRelaxedEdges(task.relaxedEdges);
+				BANKSIteratorState state = task.banksIterator.state;
+				for (int i = 0; i < task.numOfPolled; i++) {
+					int n = task.polled[i];
+					if (state.getEdge(n) >= 0)
+						this.modelCoherence.update(state.getEdge(n));
+				}
+			}
+			
+			for (ExpansionTask task : round) {
+				for (int i = 0; i < task.numOfPolled; i++) {
+					count += isCommonAncestor(task.banksIterator, task.polled[i]);
+					if (count > k) return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * polls and expands a batch of labels of one iterator
+	 */
+	class ExpansionTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		BANKSIterator banksIterator;
+		int maxRecurseCount;
+		// labels polled in the last round
+		int[] polled;
+		int numOfPolled;
+		int relaxedEdges;
+		
+		ExpansionTask(BANKSIterator banksIterator, int batchSize, int maxRecurseCount) {
+			this.banksIterator = banksIterator;
+			this.maxRecurseCount = maxRecurseCount;
+			this.polled = new int[batchSize];
+		}
+		
+		@Override
+		protected void compute() {
+			BANKSIteratorState state = banksIterator.state;
+			numOfPolled = 0;
+			relaxedEdges = 0;
+			while (numOfPolled < polled.length && !state.isEmpty()) {
+				int n = state.poll();
+				state.setProcessed(n);
+				polled[numOfPolled++] = n;
+				relaxedEdges += expand(state, n, maxRecurseCount);
 			}
 		}
+	}
 	
-		return getApprTree(n, processedNodes, queueId);
+	/**
+	 * reaches the neighbors of the node of a polled label through the incoming edges of the node
+	 * @param state state of the iterator that polled the label
+	 * @param n the polled label
+	 * @param maxRecurseCount maximum number of times a node can be reached by the iterator
+	 * @return number of relaxed edges
+	 */
+	private int expand(BANKSIteratorState state, int n, int maxRecurseCount) {
+		
+		int nodeId = state.getNode(n);
+		
+		// incoming edges of the node, already sorted by weight in the compact graph
+		int firstEdge = compactGraph.getFirstIncomingEdge(nodeId);
+		int lastEdge = compactGraph.getLastIncomingEdge(nodeId);
+		
+		for(int edge = firstEdge; edge < lastEdge; edge++){
+			
+			// getting neighbor of n, the node itself in case of a self loop
+			int newNode = compactGraph.getSource(edge);
+			boolean wasArg1 = (newNode != nodeId);
+			
+			double distance = state.getDistance(n) + compactGraph.getWeight(edge);
+			
+			//check whether newNode has been visited
+			if(state.isVisited(newNode)){
+				
+				int recurseCount = state.getRecursion(newNode);
+				if (recurseCount == 0) {
+					recurseCount = 2;
+				} else if (recurseCount < maxRecurseCount) {
+					recurseCount = recurseCount + 1;
+				} else {
+					continue;
+				}
+				
+				state.setRecursion(newNode, recurseCount);
+			}
+			
+			//in case newNode has not been visited
+			else
+			{
+				state.setVisited(newNode);
+			}
+			
+			int label = state.addLabel(newNode, distance, n, edge, wasArg1);
+			state.offer(label);
+			state.addToDuplicates(label);
+		}
+		
+		return lastEdge - firstEdge;
 	}
-
+	
+	/**
+	 * @param queue the iterator from which the label is polled
+	 * @param label the polled label
+	 * @return number of trees created in case the node of the label has been processed by all of the iterators.
+	 * It reads the state of all the iterators and adds the new trees to the result queue, so it is only 
+	 * called from the thread that runs the search, after the parallel expansion tasks of a round are done.
+	 * @throws Exception
+	 */
+	public int isCommonAncestor(BANKSIterator queue, int label)throws Exception{
+		
+		int searchFor = queue.state.getNode(label);
+		
+		for(BANKSIterator banksIterator: iteratorList){
+			if(!banksIterator.state.isProcessed(searchFor)) {
+				return 0;
+			}
+		}
+		
+		return getApprTree(label, queue.id);
+	}
+	
 	@Override
 	public void buildTaxonomicGraph() throws Exception {
 		// TODO Auto-generated method stub
 		buildConnectivityGraph(1);
 	}
-
+	
 	@Override
 	public Queue<ResultGraph> getTopKTrees(int k) throws Exception {
 		// TODO Auto-generated method stub
@@ -498,5 +585,5 @@ public class CustomizedBANKS extends TopKSteinertrees {
 		buildConnectivityGraph(1);
 	}
 	
-
+	
 }
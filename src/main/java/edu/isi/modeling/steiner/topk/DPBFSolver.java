@@ -0,0 +1,350 @@
+package edu.isi.modeling.steiner.topk;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * top-k Steiner trees using the DPBF (dynamic programming best-first) algorithm of
+ * Ding et al., "Finding Top-k Min-Cost Connected Trees in Databases", ICDE 2007.
+ *
+ * A state (v, X) is the cheapest tree rooted at v that reaches the terminals in the subset X,
+ * X is a bitmask over the terminals. The states are expanded in the order of their costs,
+ * either by growing a tree through an incoming edge of its root or by merging two trees
+ * with the same root and disjoint subsets. The i-th tree containing all the terminals
+ * is the best tree rooted at its root, so the first tree is optimal.
+ *
+ * The number of subsets grows exponentially with the number of terminals, so for more than
+ * MAX_TERMINALS terminals the search is done by BANKS.
+ */
+public class DPBFSolver implements SteinerSolver {
+
+	private static Logger logger = LoggerFactory.getLogger(DPBFSolver.class);
+
+	public static final int MAX_TERMINALS = 12;
+
+	private static final byte TERMINAL = 0;
+	private static final byte GROW = 1;
+	private static final byte MERGE = 2;
+
+	@Override
+	public String getName() {
+		return SteinerSolvers.DPBF;
+	}
+
+	@Override
+	public Queue<ResultGraph> getTopKTrees(TreeSet<SteinerNode> terminals,
+			CompactSteinerGraph graph,
+			int k,
+			Integer recursiveLevel,
+			Integer maxPermutations,
+			SearchBudget budget) throws Exception {
+
+		if (terminals.size() > MAX_TERMINALS) {
+			logger.info("DPBF supports at most " + MAX_TERMINALS + " terminals, using BANKS for " + terminals.size() + " terminals.");
+			return new BANKSSolver().getTopKTrees(terminals, graph, k, recursiveLevel, maxPermutations, budget);
+		}
+
+		return new Search(terminals, graph, budget).getTopKTrees(k);
+	}
+
+	/**
+	 * the states of one search, kept in parallel arrays
+	 */
+	private static class Search {
+
+		private Set<SteinerNode> terminals;
+		private CompactSteinerGraph graph;
+		private SearchBudget budget;
+
+		private int numOfStates;
+		private int[] stateNodes;
+		private int[] stateMasks;
+		private double[] stateCosts;
+		private byte[] stateTypes;
+		// GROW: child state and edge, MERGE: the two child states
+		private int[] stateChildren1;
+		private int[] stateChildren2;
+		private boolean[] stateDone;
+		// the done states of a node are linked through nextDoneStates
+		private int[] nextDoneStates;
+		private int[] firstDoneStates;
+
+		// (node, mask) --> state, open addressing
+		private long[] keys;
+		private int[] values;
+		private int numOfKeys;
+
+		// binary heap of (cost, state), a state is pushed again when its cost decreases
+		private double[] heapCosts;
+		private int[] heapStates;
+		private int heapSize;
+
+		Search(Set<SteinerNode> terminals, CompactSteinerGraph graph, SearchBudget budget) {
+			this.terminals = terminals;
+			this.graph = graph;
+			this.budget = budget;
+			int capacity = 1024;
+			this.stateNodes = new int[capacity];
+			this.stateMasks = new int[capacity];
+			this.stateCosts = new double[capacity];
+			this.stateTypes = new byte[capacity];
+			this.stateChildren1 = new int[capacity];
+			this.stateChildren2 = new int[capacity];
+			this.stateDone = new boolean[capacity];
+			this.nextDoneStates = new int[capacity];
+			this.firstDoneStates = new int[graph.getNodeCount()];
+			Arrays.fill(this.firstDoneStates, -1);
+			this.keys = new long[capacity * 2];
+			this.values = new int[capacity * 2];
+			Arrays.fill(this.values, -1);
+			this.heapCosts = new double[capacity];
+			this.heapStates = new int[capacity];
+		}
+
+		Queue<ResultGraph> getTopKTrees(int k) {
+
+			Queue<ResultGraph> resultQueue = new LinkedList<ResultGraph>();
+			TopKTreeQueue topKTrees = new TopKTreeQueue(k);
+
+			int i = 0;
+			for (SteinerNode t : terminals) {
+				int node = graph.getNodeId(t.name());
+				if (node < 0) {
+					logger.debug("terminal " + t.name() + " is not in the graph.");
+					return resultQueue;
+				}
+				relax(node, 1 << i, 0.0, TERMINAL, -1, -1);
+				i++;
+			}
+			if (terminals.isEmpty())
+				return resultQueue;
+
+			int fullMask = (1 << terminals.size()) - 1;
+
+			while (heapSize > 0 && topKTrees.getNumOfAddedTrees() < k) {
+
+				if (budget != null && budget.shouldStop())
+					break;
+
+				double cost = heapCosts[0];
+				int s = poll();
+				if (stateDone[s] || cost > stateCosts[s])
+					continue;
+				stateDone[s] = true;
+
+				int v = stateNodes[s];
+				int mask = stateMasks[s];
+
+				if (mask == fullMask) {
+					// duplicates are ignored
+					topKTrees.add(getApprTree(s));
+					// growing a tree that has all the terminals only adds a useless edge to its root
+					continue;
+				}
+
+				nextDoneStates[s] = firstDoneStates[v];
+				firstDoneStates[v] = s;
+
+				// grow
+				int firstEdge = graph.getFirstIncomingEdge(v);
+				int lastEdge = graph.getLastIncomingEdge(v);
+				if (budget != null) budget.addRelaxedEdges(lastEdge - firstEdge);
+				for (int edge = firstEdge; edge < lastEdge; edge++) {
+					int u = graph.getSource(edge);
+					if (u == v) continue;
+					relax(u, mask, cost + graph.getWeight(edge), GROW, s, edge);
+				}
+
+				// merge
+				for (int s2 = firstDoneStates[v]; s2 >= 0; s2 = nextDoneStates[s2]) {
+					if ((stateMasks[s2] & mask) != 0) continue;
+					relax(v, mask | stateMasks[s2], cost + stateCosts[s2], MERGE, s, s2);
+				}
+			}
+
+			return topKTrees.getResults();
+		}
+
+		private void relax(int node, int mask, double cost, byte type, int child1, int child2) {
+			int s = getState(node, mask);
+			if (s < 0) {
+				s = addState(node, mask);
+			} else if (stateDone[s] || stateCosts[s] <= cost) {
+				return;
+			}
+			stateCosts[s] = cost;
+			stateTypes[s] = type;
+			stateChildren1[s] = child1;
+			stateChildren2[s] = child2;
+			offer(cost, s);
+		}
+
+		/**
+		 * builds the tree of a state by following its children
+		 */
+		private ApprSteinerTree getApprTree(int state) {
+
+			Map<String, SteinerNode> treeNodes = new HashMap<String, SteinerNode>();
+			String rootName = graph.getNodeName(stateNodes[state]);
+			treeNodes.put(rootName, new SteinerNode(rootName));
+
+			TreeSet<Integer> edges = new TreeSet<Integer>();
+			int[] stack = new int[16];
+			int top = 0;
+			stack[top++] = state;
+			while (top > 0) {
+				int s = stack[--top];
+				if (stateTypes[s] == TERMINAL)
+					continue;
+				if (top + 2 > stack.length)
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				if (stateTypes[s] == GROW) {
+					edges.add(stateChildren2[s]);
+					stack[top++] = stateChildren1[s];
+				} else {
+					stack[top++] = stateChildren1[s];
+					stack[top++] = stateChildren2[s];
+				}
+			}
+
+			for (Integer edge : edges) {
+				SteinerEdge e = graph.getEdge(edge);
+				SteinerNode source = getTreeNode(treeNodes, e.sourceNode.name());
+				SteinerNode sink = getTreeNode(treeNodes, e.sinkNode.name());
+				source.addEdge(sink, false, e.getEdgeLabel(), e.getWeight());
+			}
+
+			TreeSet<SteinerNode> steinerNodes = new TreeSet<SteinerNode>(treeNodes.values());
+			return new ApprSteinerTree(terminals, steinerNodes);
+		}
+
+		private SteinerNode getTreeNode(Map<String, SteinerNode> treeNodes, String name) {
+			SteinerNode n = treeNodes.get(name);
+			if (n == null) {
+				n = new SteinerNode(name);
+				treeNodes.put(name, n);
+			}
+			return n;
+		}
+
+		private int addState(int node, int mask) {
+			if (numOfStates == stateNodes.length) {
+				int capacity = numOfStates * 2;
+				stateNodes = Arrays.copyOf(stateNodes, capacity);
+				stateMasks = Arrays.copyOf(stateMasks, capacity);
+				stateCosts = Arrays.copyOf(stateCosts, capacity);
+				stateTypes = Arrays.copyOf(stateTypes, capacity);
+				stateChildren1 = Arrays.copyOf(stateChildren1, capacity);
+				stateChildren2 = Arrays.copyOf(stateChildren2, capacity);
+				stateDone = Arrays.copyOf(stateDone, capacity);
+				nextDoneStates = Arrays.copyOf(nextDoneStates, capacity);
+			}
+			int s = numOfStates++;
+			stateNodes[s] = node;
+			stateMasks[s] = mask;
+			stateDone[s] = false;
+			nextDoneStates[s] = -1;
+			putState(node, mask, s);
+			return s;
+		}
+
+		private static long key(int node, int mask) {
+			return ((long)node << 16) | mask;
+		}
+
+		private int slot(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int)(h >>> 32) & (keys.length - 1);
+		}
+
+		private int getState(int node, int mask) {
+			long key = key(node, mask);
+			for (int i = slot(key); values[i] >= 0; i = (i + 1) & (keys.length - 1)) {
+				if (keys[i] == key)
+					return values[i];
+			}
+			return -1;
+		}
+
+		private void putState(int node, int mask, int state) {
+			if ((numOfKeys + 1) * 2 > keys.length) {
+				long[] oldKeys = keys;
+				int[] oldValues = values;
+				keys = new long[oldKeys.length * 2];
+				values = new int[oldValues.length * 2];
+				Arrays.fill(values, -1);
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldValues[i] >= 0)
+						insert(oldKeys[i], oldValues[i]);
+				}
+			}
+			insert(key(node, mask), state);
+			numOfKeys++;
+		}
+
+		private void insert(long key, int state) {
+			int i = slot(key);
+			while (values[i] >= 0)
+				i = (i + 1) & (keys.length - 1);
+			keys[i] = key;
+			values[i] = state;
+		}
+
+		private void offer(double cost, int state) {
+			if (heapSize == heapStates.length) {
+				heapCosts = Arrays.copyOf(heapCosts, heapSize * 2);
+				heapStates = Arrays.copyOf(heapStates, heapSize * 2);
+			}
+			int i = heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!before(cost, state, heapCosts[parent], heapStates[parent]))
+					break;
+				heapCosts[i] = heapCosts[parent];
+				heapStates[i] = heapStates[parent];
+				i = parent;
+			}
+			heapCosts[i] = cost;
+			heapStates[i] = state;
+		}
+
+		private int poll() {
+			int result = heapStates[0];
+			int n = --heapSize;
+			double cost = heapCosts[n];
+			int state = heapStates[n];
+			int i = 0;
+			int half = n >>> 1;
+			while (i < half) {
+				int child = (i << 1) + 1;
+				int right = child + 1;
+				if (right < n && before(heapCosts[right], heapStates[right], heapCosts[child], heapStates[child]))
+					child = right;
+				if (!before(heapCosts[child], heapStates[child], cost, state))
+					break;
+				heapCosts[i] = heapCosts[child];
+				heapStates[i] = heapStates[child];
+				i = child;
+			}
+			if (n > 0) {
+				heapCosts[i] = cost;
+				heapStates[i] = state;
+			}
+			return result;
+		}
+
+		// ties are broken by the state ids, so the order does not depend on the heap layout
+		private static boolean before(double cost1, int state1, double cost2, int state2) {
+			return cost1 < cost2 || (cost1 == cost2 && state1 < state2);
+		}
+	}
+
+}
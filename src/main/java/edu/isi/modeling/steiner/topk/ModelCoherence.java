@@ -1,88 +1,206 @@
 package edu.isi.modeling.steiner.topk;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
+/**
+ * This class counts how many of the links polled by a search belong to each model,
+ * and keeps the models ranked by these frequencies. The models are identified by their
+ * indexes in the CompactSteinerGraph and the links by their edge positions.
+ *
+ * The models with the same frequency are kept in a bucket, a list in the order in which they
+ * reached the frequency, and the non-empty buckets are linked from the highest frequency down.
+ * A frequency only grows by one, so a counted model is moved from its bucket to the tail of the
+ * next one in constant time, and the top-k models are read by walking the buckets.
+ */
 public class ModelCoherence {
 
-	private ModelFrequencyPair[] modelFrequency;
-	private Map<String,Integer> modelIndex;
-	private List<ModelFrequencyPair> topKModels;
+	private static final int NONE = -1;
+
+	private CompactSteinerGraph graph;
+	// maximum number of models that are counted, the models seen later are ignored
+	private int size;
 	private int k;
-	private Set<String> visitedLinks;
 
-	public ModelCoherence(int size, int k) {
+	// frequency of each model of the graph, 0 if the model is not counted
+	private int[] frequencies;
+	// next and previous models in the bucket of each counted model, NONE at the ends of the bucket
+	private int[] nextModels;
+	private int[] previousModels;
+	private int numOfModels;
+
+	// first and last models of the bucket of each frequency, NONE if the bucket is empty
+	private int[] heads;
+	private int[] tails;
+	// next lower and next higher non-empty frequencies of each non-empty bucket, 0 if there is none
+	private int[] lowerFrequencies;
+	private int[] higherFrequencies;
+	// highest and lowest non-empty frequencies, 0 if no model is counted
+	private int highestFrequency;
+	private int lowestFrequency;
+
+	// edges already counted
+	private boolean[] visitedEdges;
+
+	public ModelCoherence(CompactSteinerGraph graph, int size, int k) {
+		this.graph = graph;
+		this.size = size;
 		this.k = k;
-		this.modelFrequency = new ModelFrequencyPair[size];
-		this.modelIndex = new HashMap<String,Integer>();
-		this.topKModels = new ArrayList<ModelFrequencyPair>();
-		this.visitedLinks = new HashSet<String>();
+		int modelCount = graph.getModelCount();
+		this.frequencies = new int[modelCount];
+		this.nextModels = new int[modelCount];
+		this.previousModels = new int[modelCount];
+		this.numOfModels = 0;
+		this.heads = new int[0];
+		this.tails = new int[0];
+		this.lowerFrequencies = new int[0];
+		this.higherFrequencies = new int[0];
+		this.highestFrequency = 0;
+		this.lowestFrequency = 0;
+		this.visitedEdges = new boolean[graph.getEdgeCount()];
 	}
 
-	public void update(SteinerEdge e) {
-		Integer index;
-		Set<String> modelIds = e.getModelIds();
-		if (this.visitedLinks.contains(e.label().name())) return;
-		else this.visitedLinks.add(e.label().name());
-		if (modelIds == null) return;
-		for (String id : modelIds) {
-			index = modelIndex.get(id);
-			if (index == null) {
-				int pos = modelIndex.size();
-				if (pos < modelFrequency.length) {
-					modelIndex.put(id, pos);
-					modelFrequency[pos] = new ModelFrequencyPair(id, 1);
+	/**
+	 * counts the models of an edge, an edge is only counted the first time it is polled
+	 * @param edge position of the edge in the graph
+	 */
+	public void update(int edge) {
+		if (visitedEdges[edge]) return;
+		visitedEdges[edge] = true;
+		int lastModel = graph.getLastModel(edge);
+		for (int pos = graph.getFirstModel(edge); pos < lastModel; pos++) {
+			int model = graph.getModel(pos);
+			if (frequencies[model] == 0) {
+				if (numOfModels < size) {
+					// the lowest frequency, so it goes to the end of the ranking
+					numOfModels++;
+					addFirstCount(model);
 				}
 			} else {
-				ModelFrequencyPair mfp = modelFrequency[index.intValue()];
-				mfp.setFrequency(mfp.getFrequency() + 1);
+				increment(model);
 			}
 		}
-		computeTopK();
 	}
-	
-	private void computeTopK() {
-		this.topKModels.clear();
-		if (this.k >= modelIndex.size()) {
-			for (ModelFrequencyPair m : this.modelFrequency) {
-				if (m != null) {
-					this.topKModels.add(m);
-				}
-			}
-		} else {
-			ModelFrequencyPair[] copy = Arrays.copyOf(this.modelFrequency, this.modelIndex.size());
-			ModelFrequencyPair kth = QuickSelect.select(copy, k);
-			if (kth != null) {
-				for (ModelFrequencyPair m : this.modelFrequency) {
-					if (m != null) {
-						if (m.compareTo(kth) >= 0 && this.topKModels.size() < k) {
-							this.topKModels.add(m);
-						}
-					}
-				}
-			}
+
+	private void addFirstCount(int model) {
+		ensureCapacity(1);
+		if (heads[1] == NONE) {
+			// bucket 1 is below all the other buckets
+			higherFrequencies[1] = lowestFrequency;
+			lowerFrequencies[1] = 0;
+			if (lowestFrequency > 0)
+				lowerFrequencies[lowestFrequency] = 1;
+			else
+				highestFrequency = 1;
+			lowestFrequency = 1;
+		}
+		frequencies[model] = 1;
+		append(model, 1);
+	}
+
+	/**
+	 * moves a counted model from the bucket of its frequency to the tail of the next bucket
+	 */
+	private void increment(int model) {
+		int frequency = frequencies[model];
+		int newFrequency = frequency + 1;
+		ensureCapacity(newFrequency);
+
+		// unlink the model from its bucket
+		int previous = previousModels[model];
+		int next = nextModels[model];
+		if (previous != NONE) nextModels[previous] = next; else heads[frequency] = next;
+		if (next != NONE) previousModels[next] = previous; else tails[frequency] = previous;
+
+		// the bucket of the new frequency goes right above the bucket of the old one
+		if (heads[newFrequency] == NONE) {
+			int higher = higherFrequencies[frequency];
+			higherFrequencies[newFrequency] = higher;
+			lowerFrequencies[newFrequency] = frequency;
+			if (higher > 0)
+				lowerFrequencies[higher] = newFrequency;
+			else
+				highestFrequency = newFrequency;
+			higherFrequencies[frequency] = newFrequency;
+		}
+		frequencies[model] = newFrequency;
+		append(model, newFrequency);
+
+		// the bucket of the old frequency is removed once it is empty
+		if (heads[frequency] == NONE) {
+			int lower = lowerFrequencies[frequency];
+			int higher = higherFrequencies[frequency];
+			if (lower > 0)
+				higherFrequencies[lower] = higher;
+			else
+				lowestFrequency = higher;
+			if (higher > 0)
+				lowerFrequencies[higher] = lower;
+			else
+				highestFrequency = lower;
 		}
-		Collections.sort(this.topKModels);
 	}
 
-	public List<ModelFrequencyPair> getTopKModels() {
-		return topKModels;
+	private void append(int model, int frequency) {
+		int tail = tails[frequency];
+		previousModels[model] = tail;
+		nextModels[model] = NONE;
+		if (tail != NONE) nextModels[tail] = model; else heads[frequency] = model;
+		tails[frequency] = model;
 	}
-	
-	public Set<String> getVisitedLinks() {
-		return visitedLinks;
+
+	private void ensureCapacity(int frequency) {
+		int length = heads.length;
+		if (frequency < length)
+			return;
+		int newLength = Math.max(16, Math.max(frequency + 1, length * 2));
+		heads = Arrays.copyOf(heads, newLength);
+		tails = Arrays.copyOf(tails, newLength);
+		Arrays.fill(heads, length, newLength, NONE);
+		Arrays.fill(tails, length, newLength, NONE);
+		lowerFrequencies = Arrays.copyOf(lowerFrequencies, newLength);
+		higherFrequencies = Arrays.copyOf(higherFrequencies, newLength);
+	}
+
+	/**
+	 * @return number of the top-k models
+	 */
+	public int getTopKCount() {
+		return Math.min(k, numOfModels);
+	}
+
+	public int getFrequency(int model) {
+		return frequencies[model];
+	}
+
+	/**
+	 * compares two edges by the highest ranked model among the top-k models that only one of them has
+	 * @return -1 if only the first edge has that model, 1 if only the second one has it,
+	 * and 0 if the edges have the same top-k models
+	 */
+	public int compareModels(int edge1, int edge2) {
+		int count = getTopKCount();
+		int rank = 0;
+		for (int frequency = highestFrequency; frequency > 0 && rank < count; frequency = lowerFrequencies[frequency]) {
+			for (int model = heads[frequency]; model != NONE && rank < count; model = nextModels[model], rank++) {
+				boolean existIn1 = graph.containsModel(edge1, model);
+				boolean existIn2 = graph.containsModel(edge2, model);
+				if (existIn1 && !existIn2)
+					return -1;
+				else if (!existIn1 && existIn2)
+					return 1;
+			}
+		}
+		return 0;
 	}
 
 	public void print() {
 		System.out.print("model coherence: ");
-		for (ModelFrequencyPair m : this.topKModels) {
-			System.out.print(m.getFrequency() + ", ");
+		int count = getTopKCount();
+		int rank = 0;
+		for (int frequency = highestFrequency; frequency > 0 && rank < count; frequency = lowerFrequencies[frequency]) {
+			for (int model = heads[frequency]; model != NONE && rank < count; model = nextModels[model], rank++) {
+				System.out.print(frequency + ", ");
+			}
 		}
 		System.out.println();
 	}
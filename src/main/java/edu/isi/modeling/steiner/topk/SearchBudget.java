@@ -0,0 +1,71 @@
+package edu.isi.modeling.steiner.topk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class limits the time and the number of relaxed edges of the top-k Steiner tree searches of a request.
+ * The budget is shared by all the searches of the request. When it runs out, the searches return
+ * the trees found so far and the results are marked as partial.
+ */
+public class SearchBudget {
+
+	// System.nanoTime() after which the searches stop, Long.MAX_VALUE if there is no deadline
+	private final long deadline;
+	// maximum number of relaxed edges, 0 if there is no limit
+	private final long maxRelaxedEdges;
+
+	private final AtomicLong relaxedEdges;
+	private volatile boolean partial;
+
+	/**
+	 * @param timeoutMillis time limit in milliseconds from now, 0 or less for no limit
+	 * @param maxRelaxedEdges maximum number of relaxed edges, 0 or less for no limit
+	 */
+	public SearchBudget(long timeoutMillis, long maxRelaxedEdges) {
+		this.deadline = timeoutMillis > 0 ?
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+		this.maxRelaxedEdges = maxRelaxedEdges > 0 ? maxRelaxedEdges : 0;
+		this.relaxedEdges = new AtomicLong();
+		this.partial = false;
+	}
+
+	/**
+	 * @return a budget without any limit
+	 */
+	public static SearchBudget unlimited() {
+		return new SearchBudget(0, 0);
+	}
+
+	public void addRelaxedEdges(long numOfEdges) {
+		if (numOfEdges > 0)
+			this.relaxedEdges.addAndGet(numOfEdges);
+	}
+
+	public long getRelaxedEdges() {
+		return relaxedEdges.get();
+	}
+
+	/**
+	 * called by a search that still has work to do.
+	 * If the budget has run out, the results are marked as partial.
+	 * @return true if the search should stop and return the trees it has found so far
+	 */
+	public boolean shouldStop() {
+		if (partial)
+			return true;
+		if ((maxRelaxedEdges > 0 && relaxedEdges.get() >= maxRelaxedEdges) ||
+				(deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0)) {
+			partial = true;
+		}
+		return partial;
+	}
+
+	/**
+	 * @return true if a search has been stopped before finding all of its trees
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+
+}
@@ -1,88 +1,86 @@
 package edu.isi.modeling.steiner.topk;
 
-import java.util.Comparator;
-import java.util.Set;
-
-public class SteinerNodeComparator implements Comparator<SteinerNode>{
+/**
+ * defines the order in which the labels of a BANKS iterator are polled. A label is given
+ * by the position of the edge through which its node is reached and its distance.
+ */
+public class SteinerNodeComparator {
 
 	public static double distanceDifference = 5.0;
-	
+
+	CompactSteinerGraph graph;
 	ModelCoherence modelCoherence;
-	public SteinerNodeComparator(ModelCoherence m) {
+	public SteinerNodeComparator(CompactSteinerGraph graph, ModelCoherence m) {
+		this.graph = graph;
 		this.modelCoherence = m;
 	}
-	@Override
-	public int compare(SteinerNode n1, SteinerNode n2) {
-		
+
+	/**
+	 * compares two nodes reached by a search given only their predecessor edges and their distances,
+	 * so that the search does not need a SteinerNode object for each visited node
+	 * @param edge1 position of the edge through which the first node is reached (-1 for a terminal)
+	 * @param distance1 distance of the first node to its source
+	 * @param edge2 position of the edge through which the second node is reached (-1 for a terminal)
+	 * @param distance2 distance of the second node to its source
+	 * @return
+	 */
+	public int compare(int edge1, double distance1, int edge2, double distance2) {
+
 		// prefer forced links
-		if (n1.predecessorLink != null && n1.predecessorLink.isForced() 
-				&& (n2.predecessorLink == null || !n2.predecessorLink.isForced()))
+		if (edge1 >= 0 && graph.isForced(edge1)
+				&& (edge2 < 0 || !graph.isForced(edge2)))
 			return -1;
-		else if (n2.predecessorLink != null && n2.predecessorLink.isForced() 
-				&& (n1.predecessorLink == null || !n1.predecessorLink.isForced()))
+		else if (edge2 >= 0 && graph.isForced(edge2)
+				&& (edge1 < 0 || !graph.isForced(edge1)))
 			return 1;
-		
-//		else if (n1.predecessorLink != null && this.modelCoherence.getVisitedLinks().contains(n1.predecessorLink.label().name()) 
-//				&& n2.predecessorLink != null && !this.modelCoherence.getVisitedLinks().contains(n2.predecessorLink.label().name()))
-//			return -1;
-//		else if (n2.predecessorLink != null && this.modelCoherence.getVisitedLinks().contains(n2.predecessorLink.label().name()) 
-//				&& n1.predecessorLink != null && !this.modelCoherence.getVisitedLinks().contains(n1.predecessorLink.label().name()))
-//			return -1;
-		
-		else if (Math.abs(n1.distancesToSources[0] - n2.distancesToSources[0]) <= distanceDifference)
-			return compareModelIds(n1, n2);
+
+		else if (Math.abs(distance1 - distance2) <= distanceDifference)
+			return compareModelIds(edge1, distance1, edge2, distance2);
 		else
-			return compareDistances(n1, n2);
+			return compareDistances(distance1, distance2);
 	}
-	
-	public int compareModelIds(SteinerNode n1, SteinerNode n2) {
-		
+
+	public int compareModelIds(int edge1, double distance1, int edge2, double distance2) {
+
 		int lessThan = -1;
 		int greaterThan = 1;
-		
-		if (this.modelCoherence.getTopKModels().isEmpty()) {
-			return compareDistances(n1, n2);
+
+		if (this.modelCoherence.getTopKCount() == 0) {
+			return compareDistances(distance1, distance2);
 		}
 
-		if (n1.predecessorLink == null && n2.predecessorLink == null) 
-			return compareDistances(n1, n2);
-		
-		if (n1.predecessorLink == null)
+		if (edge1 < 0 && edge2 < 0)
+			return compareDistances(distance1, distance2);
+
+		if (edge1 < 0)
 			return lessThan;
-		
-		if (n2.predecessorLink == null)
+
+		if (edge2 < 0)
 			return greaterThan;
-		
-		if ((n1.predecessorLink.getModelIds() == null || n1.predecessorLink.getModelIds().isEmpty()) && 
-				(n2.predecessorLink.getModelIds() == null || n2.predecessorLink.getModelIds().isEmpty()))
-			return compareDistances(n1, n2);
-		
-		if ((n1.predecessorLink.getModelIds() == null || n1.predecessorLink.getModelIds().isEmpty()))
+
+		boolean noModel1 = graph.getFirstModel(edge1) == graph.getLastModel(edge1);
+		boolean noModel2 = graph.getFirstModel(edge2) == graph.getLastModel(edge2);
+
+		if (noModel1 && noModel2)
+			return compareDistances(distance1, distance2);
+
+		if (noModel1)
 			return greaterThan;
-		
-		if ((n2.predecessorLink.getModelIds() == null || n2.predecessorLink.getModelIds().isEmpty()))
+
+		if (noModel2)
 			return lessThan;
-		
-		Set<String> n1Ids = n1.predecessorLink.getModelIds();
-		Set<String> n2Ids = n2.predecessorLink.getModelIds();
-		
-		boolean existIn1, existIn2;
-		for (ModelFrequencyPair m : this.modelCoherence.getTopKModels()) {
-			existIn1 = n1Ids.contains(m.getId()); 
-			existIn2 = n2Ids.contains(m.getId()); 
-			if (existIn1 && !existIn2)
-				return lessThan;
-			else if (!existIn1 && existIn2)
-				return greaterThan;
-		}
-		
-		return compareDistances(n1, n2);
+
+		int result = this.modelCoherence.compareModels(edge1, edge2);
+		if (result != 0)
+			return result;
+
+		return compareDistances(distance1, distance2);
 	}
 
-	public int compareDistances(SteinerNode n1, SteinerNode n2) {
-		
-		if(n1.distancesToSources[0]>n2.distancesToSources[0]) return 1;
-		else if(n1.distancesToSources[0]<n2.distancesToSources[0])return -1;
+	public int compareDistances(double distance1, double distance2) {
+
+		if(distance1>distance2) return 1;
+		else if(distance1<distance2)return -1;
 		else return 0;
 
 	}
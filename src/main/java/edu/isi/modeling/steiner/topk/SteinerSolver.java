@@ -0,0 +1,37 @@
+package edu.isi.modeling.steiner.topk;
+
+import java.util.Queue;
+import java.util.TreeSet;
+
+/**
+ * A top-k Steiner tree algorithm searching a CompactSteinerGraph.
+ * The solvers do not keep any state between two searches, so one instance is shared by all the requests.
+ * The solvers are registered in SteinerSolvers.
+ */
+public interface SteinerSolver {
+
+	/**
+	 * @return name of the solver, used to choose the solver in modeling.properties or in a request
+	 */
+	public String getName();
+
+	/**
+	 * computes the top-k Steiner trees connecting the terminals
+	 * @param terminals the terminal nodes
+	 * @param graph the search graph, it is only read by the solver
+	 * @param k number of trees to be returned
+	 * @param recursiveLevel maximum number of times a node can be visited by a search iterator, null for the default
+	 * @param maxPermutations maximum number of paths combined from each terminal, null for the default
+	 * @param budget limits of the search, null if there is no limit. When the budget runs out, 
+	 * the solver returns the trees found so far.
+	 * @return the trees sorted by their scores
+	 * @throws Exception
+	 */
+	public Queue<ResultGraph> getTopKTrees(TreeSet<SteinerNode> terminals,
+			CompactSteinerGraph graph,
+			int k,
+			Integer recursiveLevel,
+			Integer maxPermutations,
+			SearchBudget budget) throws Exception;
+
+}
@@ -0,0 +1,46 @@
+package edu.isi.modeling.steiner.topk;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.isi.modeling.config.ModelingConfiguration;
+
+/**
+ * registry of the top-k Steiner tree solvers
+ */
+public class SteinerSolvers {
+
+	public static final String BANKS = "banks";
+	public static final String DPBF = "dpbf";
+
+	private static final Map<String, SteinerSolver> solvers = new ConcurrentHashMap<String, SteinerSolver>();
+
+	static {
+		register(new BANKSSolver());
+		register(new DPBFSolver());
+	}
+
+	public static void register(SteinerSolver solver) {
+		solvers.put(solver.getName().toLowerCase(), solver);
+	}
+
+	/**
+	 * @param name name of the solver, if it is null or empty the solver in modeling.properties is returned
+	 * @return the solver, or null if no solver is registered with the given name
+	 */
+	public static SteinerSolver getSolver(String name) {
+		if (name == null || name.trim().isEmpty())
+			name = ModelingConfiguration.getSteinerSolver();
+		if (name == null)
+			return null;
+		return solvers.get(name.trim().toLowerCase());
+	}
+
+	public static Set<String> getSolverNames() {
+		return Collections.unmodifiableSet(new TreeSet<String>(solvers.keySet()));
+	}
+
+}
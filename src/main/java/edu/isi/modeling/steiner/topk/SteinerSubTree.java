@@ -66,15 +66,21 @@ public abstract class SteinerSubTree implements Comparable<SteinerSubTree>{
 	}
 	
 
+	/**
+	 * @return the sorted edges of the tree as a string, two trees are equal if they have the same signature
+	 */
+	public String getSignature(){
+		StringBuilder sb = new StringBuilder();
+		for(SteinerEdge e: this.getEdges()) sb.append(e.toString());
+		return sb.toString();
+	}
+
 	public int compareTo(SteinerSubTree p){
-		String thisEdgeString = "";
-		String otherEdgesString = "";
 //		if (p.score - this.score < 0.0005)
 //			return 0;
-		for(SteinerEdge e: p.getEdges()) otherEdgesString=otherEdgesString+e.toString();
-		for(SteinerEdge e: this.getEdges()) thisEdgeString= thisEdgeString+e.toString();
-		return thisEdgeString.compareTo(otherEdgesString);
+		return this.getSignature().compareTo(p.getSignature());
 	}
+
 	
 	public boolean equals(Object p){
 		return (this.compareTo((SteinerSubTree)p)==0);
@@ -31,14 +31,12 @@ public abstract class TopKSteinertrees {
 	
 	/******* data structures and methods for main memory algorithms ************/
 	
-	//	graph which can be loaded  into main memory
-	public static Map<SteinerNode, TreeSet<SteinerEdge>> graph;
+	//	graph which can be loaded  into main memory, 
+	//	owned by this search instance and only read while computing the trees
+	protected Map<SteinerNode, TreeSet<SteinerEdge>> graph;
 	
 	//nodes of the graph
-	public static Map<String, SteinerNode> nodes;
-	
-	//maps node names to ids
-	public static Map<String, Integer> nodeToId= new HashMap<String, Integer>();
+	protected Map<String, SteinerNode> nodes;
 
 	
 	
@@ -51,6 +49,12 @@ public abstract class TopKSteinertrees {
 		String folder ="d:\\DBLPgraph\\";
 		new File(folder).mkdir();
 		
+		//maps node names to ids
+		Map<String, Integer> nodeToId= new HashMap<String, Integer>();
+		for(SteinerNode n: graph.keySet()){
+			nodeToId.put(n.name(), nodeToId.size()+1);
+		}
+		
 		FileWriter fw= new FileWriter(folder+fileName+"BL.graph");
 		fw.write(graph.size()+"\n");
 		for(SteinerNode n: graph.keySet()){
@@ -58,7 +62,6 @@ public abstract class TopKSteinertrees {
 		}
 		for(SteinerNode n: graph.keySet()){
 			for(SteinerEdge e: graph.get(n)){
-				if(nodeToId.get(n.name())==null) nodeToId.put(n.name(),1);
 				fw.write(nodeToId.get(n.name())+" "
 						+nodeToId.get(n.getNeighborInEdge(e).name())+" "+e.weight()+"\n");
 			}
@@ -226,6 +229,21 @@ public abstract class TopKSteinertrees {
 	 * @throws Exception
 	 */
 	public TopKSteinertrees(TreeSet<SteinerNode> terminals)throws Exception {
+		this(terminals, null, null);
+	}
+	
+	/**
+	 * 
+	 * @param terminals the terminal nodes for which the Steiner trees are going to be constructed
+	 * @param graph the search graph (each node maps to its incoming edges), it is not modified by the search
+	 * @param nodes nodes of the search graph indexed by their names
+	 * @throws Exception
+	 */
+	public TopKSteinertrees(TreeSet<SteinerNode> terminals, 
+			Map<SteinerNode, TreeSet<SteinerEdge>> graph, 
+			Map<String, SteinerNode> nodes)throws Exception {
+		this.graph=graph;
+		this.nodes=nodes;
 		terminalNodes=terminals;
 		iterators=new ArrayList<Queue<SteinerNode>>(terminals.size());
 		visitedNodes= new ArrayList<HashMap<String, SteinerNode>>();
@@ -466,4 +484,9 @@ public abstract class TopKSteinertrees {
 		return resultQueue;
 	}
 
+
+	public Map<SteinerNode, TreeSet<SteinerEdge>> getGraph() {
+		return graph;
+	}
+
 }
@@ -0,0 +1,88 @@
+package edu.isi.modeling.steiner.topk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * This class keeps the best k trees found by a search. The duplicates are detected by the
+ * signatures of the trees (their sorted edges) in a hash set, and the trees are kept in a heap
+ * of size k whose head is the worst tree, so a new tree is either discarded or replaces the head.
+ *
+ * The trees are ordered by their scores, and a tree goes before the trees with the same score
+ * that were found earlier.
+ */
+class TopKTreeQueue {
+
+	private final int k;
+	// signatures of all the trees added so far, including the ones that did not stay in the top-k
+	private final Set<String> signatures;
+	private final PriorityQueue<Entry> heap;
+	private int numOfAddedTrees;
+
+	private static class Entry {
+		final ApprSteinerTree tree;
+		final int order;
+		Entry(ApprSteinerTree tree, int order) {
+			this.tree = tree;
+			this.order = order;
+		}
+	}
+
+	// best first
+	private static final Comparator<Entry> entryComparator = new Comparator<Entry>() {
+		public int compare(Entry e1, Entry e2) {
+			int c = Double.compare(e1.tree.getScore(), e2.tree.getScore());
+			if (c != 0) return c;
+			return Integer.compare(e2.order, e1.order);
+		}
+	};
+
+	TopKTreeQueue(int k) {
+		this.k = Math.max(1, k);
+		this.signatures = new HashSet<String>();
+		this.heap = new PriorityQueue<Entry>(this.k + 1, Collections.reverseOrder(entryComparator));
+		this.numOfAddedTrees = 0;
+	}
+
+	/**
+	 * @param tree a tree found by the search
+	 * @return false if the same tree has already been added
+	 */
+	boolean add(ApprSteinerTree tree) {
+		if (!signatures.add(tree.getSignature()))
+			return false;
+		Entry entry = new Entry(tree, numOfAddedTrees++);
+		if (heap.size() < k) {
+			heap.offer(entry);
+		} else if (entryComparator.compare(entry, heap.peek()) < 0) {
+			heap.poll();
+			heap.offer(entry);
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of different trees added so far
+	 */
+	int getNumOfAddedTrees() {
+		return numOfAddedTrees;
+	}
+
+	/**
+	 * @return the top-k trees sorted from the best one
+	 */
+	LinkedList<ResultGraph> getResults() {
+		List<Entry> entries = new ArrayList<Entry>(heap);
+		Collections.sort(entries, entryComparator);
+		LinkedList<ResultGraph> results = new LinkedList<ResultGraph>();
+		for (Entry entry : entries)
+			results.add(entry.tree.toResultGraph());
+		return results;
+	}
+}
@@ -9,6 +9,7 @@ import java.util.Set;
 import edu.isi.modeling.alignment.GraphBuilder;
 import edu.isi.modeling.rep.InternalNode;
 import edu.isi.modeling.rep.LabeledLink;
+import edu.isi.modeling.rep.ModelIdSet;
 import edu.isi.modeling.rep.Node;
 
 
@@ -63,7 +64,7 @@ public class SuggestLink {
 			} else if (l.getModelIds() != null && !l.getModelIds().isEmpty()) {
 				LabeledLink existingLink = linkAndModelIds.get(key);
 				if (existingLink.getModelIds() == null) 
-					existingLink.setModelIds(new HashSet<String>(l.getModelIds()));
+					existingLink.setModelIds(new ModelIdSet(l.getModelIds()));
 				else
 					existingLink.getModelIds().addAll(l.getModelIds());
 			}
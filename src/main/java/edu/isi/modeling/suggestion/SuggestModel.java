@@ -4,12 +4,33 @@ import java.util.List;
 
 import edu.isi.modeling.alignment.GraphBuilder;
 import edu.isi.modeling.alignment.SemanticModel;
+import edu.isi.modeling.config.ModelingConfiguration;
 import edu.isi.modeling.learner.ModelLearner;
 import edu.isi.modeling.rep.Node;
+import edu.isi.modeling.steiner.topk.SearchBudget;
 
 public class SuggestModel {
 
 	public static SuggestModelOutput suggest(GraphBuilder  graphBuilder, SuggestModelInput input, Integer num) 
+	throws Exception{
+		return suggest(graphBuilder, input, num, null);
+	}
+	
+	/**
+	 * @param solver name of the steiner tree solver, null for the one in modeling.properties
+	 */
+	public static SuggestModelOutput suggest(GraphBuilder  graphBuilder, SuggestModelInput input, Integer num, String solver) 
+	throws Exception{
+		return suggest(graphBuilder, input, num, solver, null, null);
+	}
+	
+	/**
+	 * @param solver name of the steiner tree solver, null for the one in modeling.properties
+	 * @param timeout time limit of the steiner tree searches in milliseconds, null for the one in modeling.properties
+	 * @param maxEdges maximum number of edges relaxed by the steiner tree searches, null for the one in modeling.properties
+	 */
+	public static SuggestModelOutput suggest(GraphBuilder  graphBuilder, SuggestModelInput input, Integer num, String solver, 
+			Long timeout, Long maxEdges) 
 	throws Exception{
 		
 		if (input == null)
@@ -19,14 +40,19 @@ public class SuggestModel {
 
 		ModelLearner modelLearner;
 
-		modelLearner = new ModelLearner(graphBuilder, nodes);
+		// the nodes and the links added by the learner go to an overlay, so the shared graph is not modified
+		modelLearner = new ModelLearner(graphBuilder, nodes, true);
+		modelLearner.setSteinerSolver(solver);
+		modelLearner.setSearchBudget(new SearchBudget(
+				timeout != null ? timeout : ModelingConfiguration.getSteinerSearchTimeout(), 
+				maxEdges != null ? maxEdges : ModelingConfiguration.getSteinerSearchMaxEdges()));
 		
 		List<SemanticModel> models = modelLearner.getModels(num);
 		if (models == null) {
 			throw new Exception("error in generating a semantic model");
 		}
 
-		SuggestModelOutput output = new SuggestModelOutput(models);
+		SuggestModelOutput output = new SuggestModelOutput(models, modelLearner.isPartial());
 
 		return output;
 	}
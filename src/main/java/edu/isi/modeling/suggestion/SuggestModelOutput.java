@@ -7,14 +7,25 @@ import edu.isi.modeling.alignment.SemanticModel;
 public class SuggestModelOutput {
 
 	List<SemanticModel> models;
+	// true if the steiner tree search ran out of its budget and the models are the ones found so far
+	boolean partial;
 	
 	public SuggestModelOutput(List<SemanticModel> models) {
+		this(models, false);
+	}
+	
+	public SuggestModelOutput(List<SemanticModel> models, boolean partial) {
 		this.models = models;
+		this.partial = partial;
+	}
+	
+	public boolean isPartial() {
+		return partial;
 	}
 	
 	public String writeJson() throws Exception {
 		
-		return SemanticModel.writeJsonToString(models, false);
+		return SemanticModel.writeJsonToString(models, false, partial);
 		
 	}
 }
@@ -12,6 +12,7 @@ import javax.ws.rs.core.Application;
 import org.glassfish.jersey.server.ResourceConfig;
 
 import edu.isi.modeling.config.ModelingConfiguration;
+import edu.isi.modeling.learner.AlignmentGraph;
 import edu.isi.modeling.metadata.GraphVizMetadata;
 import edu.isi.modeling.metadata.JSONModelsMetadata;
 import edu.isi.modeling.metadata.MetadataManager;
@@ -75,6 +76,9 @@ public class ModelingApplication extends Application {
 			metadataManager.register(new ModelLearnerMetadata(contextParameters));
 		
 			contextId = contextParameters.getId();
+			// the alignment graph of a previous ontology manager is not used anymore
+			if (ontologyManager != null)
+				AlignmentGraph.unload(ontologyManager);
 			ontologyManager = new OntologyManager(contextId);
 
 			metadataManager.setup(contextId, ontologyManager);